@@ -0,0 +1,89 @@
+#!/usr/bin/env bash
+# run_microbench.sh — run one of the standalone RocksDB micro-benchmarks that
+# live in rocksdb-options (classes named *Benchmark in com.example), or one of
+# the offline tools there (e.g. ThroughputModelCli).
+#
+# Usage:
+#   ./run_microbench.sh <BenchmarkClass> [--run-id NAME] [benchmark options...]
+#
+# Examples:
+#   ./run_microbench.sh BlockCacheLookupBenchmark --threads 1,2,4,8 --seconds 5
+#   ./run_microbench.sh FilterFprBenchmark --keys 1000000 --bits 6,8,10,12
+#   ./run_microbench.sh PointLookupLayoutBenchmark --keys 1000000 --block-kb 4,8,16
+#   ./run_microbench.sh MemtableBenchmark --keys 500000 --namespaces 4 --absent-percent 50
+#   ./run_microbench.sh ScanReadaheadBenchmark --keys 2000000 --scan-entries 16,256,4096
+#   ./run_microbench.sh CompressionProfileBenchmark --keys 1000000 --profiles compression=lz4,compression=tiered
+#   ./run_microbench.sh CompactionStyleBenchmark --windows 60 --window-millis 500 \
+#       --profiles 'compaction=level,compaction=universal,compaction=fifo;compaction-ttl=20s'
+#   ./run_microbench.sh ThroughputModelCli --mrc ../../online_mrc/q20-shards-mrc.bin \
+#       --block-bytes 4096 --calibrate-mb 256 --calibrate-rps 42000
+#   ./run_microbench.sh RocksDBLogParserCli --logs /path/to/rocksdb_native_logs
+#   ./run_microbench.sh RocksDBLogParserCli --logs /path/to/LOG --out-dir /tmp/rocksdb-stats
+#
+# The classpath is target/classes of rocksdb-options plus Flink (several
+# benchmarks build column family options through ColumnFamilyProfiles, which
+# uses Flink's config classes) and slf4j: flink-dist from ${FLINK_HOME}/lib
+# when present, otherwise flink-core, flink-statebackend-rocksdb, frocksdbjni
+# and their dependencies from the local Maven repository. CSV results go to
+# stdout and results/<run-id>.csv.
+set -euo pipefail
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+# shellcheck disable=SC1091
+source "${SCRIPT_DIR}/../../scripts/env.sh"
+
+fail() { echo "$(date -Is) ERROR: $*" >&2; exit 1; }
+
+[[ $# -ge 1 ]] || { grep '^#' "$0" | sed 's/^# \{0,1\}//' | sed -n '2,28p'; exit 1; }
+BENCH_CLASS="$1"
+shift
+
+RUN_ID=""
+BENCH_ARGS=()
+while [[ $# -gt 0 ]]; do
+  case "$1" in
+    --run-id) RUN_ID="$2"; shift 2 ;;
+    *) BENCH_ARGS+=("$1"); shift ;;
+  esac
+done
+RUN_ID="${RUN_ID:-${BENCH_CLASS}-$(date +%Y%m%d-%H%M%S)}"
+
+CLASSES_DIR="${ROCKSDB_OPTIONS_HOME}/target/classes"
+if [[ ! -d "${CLASSES_DIR}" ]]; then
+  log "Compiling rocksdb-options"
+  (cd "${ROCKSDB_OPTIONS_HOME}" && mvn -q -DskipTests compile)
+fi
+
+find_jar() {
+  local pattern=$1
+  local jar=""
+  if [[ -d "${FLINK_HOME}/lib" ]]; then
+    jar=$(find "${FLINK_HOME}/lib" -name "${pattern}" | head -n 1)
+  fi
+  if [[ -z "${jar}" ]]; then
+    jar=$(find "${HOME}/.m2/repository" -name "${pattern}" 2>/dev/null | sort | tail -n 1)
+  fi
+  printf '%s' "${jar}"
+}
+
+CLASSPATH_JARS=()
+FLINK_DIST_JAR=$(find_jar 'flink-dist*.jar')
+if [[ -n "${FLINK_DIST_JAR}" ]]; then
+  # bundles flink-core, the RocksDB state backend and frocksdbjni
+  CLASSPATH_JARS+=("${FLINK_DIST_JAR}")
+else
+  for pattern in 'flink-core-*.jar' 'flink-annotations-*.jar' 'flink-shaded-guava-*.jar' \
+      'commons-lang3-*.jar' 'flink-statebackend-rocksdb-*.jar' 'frocksdbjni-*.jar'; do
+    jar=$(find_jar "${pattern}")
+    [[ -n "${jar}" ]] || fail "no flink-dist jar and no ${pattern} found"
+    CLASSPATH_JARS+=("${jar}")
+  done
+fi
+SLF4J_JAR=$(find_jar 'slf4j-api-*.jar')
+[[ -z "${SLF4J_JAR}" ]] || CLASSPATH_JARS+=("${SLF4J_JAR}")
+CLASSPATH="${CLASSES_DIR}$(printf ':%s' "${CLASSPATH_JARS[@]}")"
+
+mkdir -p "${SCRIPT_DIR}/results"
+log "Running ${BENCH_CLASS} (run-id ${RUN_ID})"
+java -cp "${CLASSPATH}" "com.example.${BENCH_CLASS}" "${BENCH_ARGS[@]}" \
+  | tee "${SCRIPT_DIR}/results/${RUN_ID}.csv"
@@ -0,0 +1,209 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.runtime.metrics.groups.TaskIOMetricGroup;
+import org.rocksdb.Env;
+import org.rocksdb.MutableDBOptions;
+import org.rocksdb.Priority;
+import org.rocksdb.RocksDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.stream.Collectors;
+
+/**
+ * TaskManager-wide budget for RocksDB flush and compaction threads. Every instance uses the process-wide
+ * default Env, whose HIGH (flush) and LOW (compaction) pools are sized here from taskmanager.cpu.cores and
+ * the slots that currently run a RocksDB instance: the cores the task threads leave free, but at least a
+ * minimum share of the cores. DB::Open and SetDBOptions only ever grow the pools, so the sizes are
+ * re-applied on attach and every period.
+ *
+ * <p>Within the pools, each instance's max_background_jobs follows its task: backpressured tasks get the
+ * minimum (one flush, one compaction) so background work does not take CPU from the records, idle tasks
+ * may use the whole pool, everything else gets a fair share. Subcompactions run on threads of their own,
+ * outside the pools, and max_subcompactions cannot change on an open DB in RocksDB 6.20; they are chosen
+ * the same way from the task's last observed state and applied to the next instance of the task.
+ *
+ * <p>Only instances whose task is known take part ({@link RocksDBInstanceHandle#taskKnown}): slots and
+ * loads are keyed by the task's allocation id and name.
+ *
+ * <p>Compaction threads also run at the lowest CPU priority, so when cores are short the task threads
+ * win and compaction CPU distorts the CPU-based scaling signal less.
+ */
+final class BackgroundThreadBudget implements Runnable, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundThreadBudget.class);
+
+    // one flush plus one compaction, RocksDB's own minimum
+    private static final int MIN_BACKGROUND_JOBS = 2;
+    private static final int MIN_TOTAL_THREADS = 2;
+    // share of the background threads in the HIGH (flush) pool
+    private static final double FLUSH_THREAD_SHARE = 0.25;
+    private static final double IDLE_THRESHOLD = 0.5;
+    private static final double BACKPRESSURE_THRESHOLD = 0.2;
+
+    enum Load {
+        IDLE,
+        NORMAL,
+        BACKPRESSURED
+    }
+
+    private static final Set<BackgroundThreadBudget> MEMBERS = new CopyOnWriteArraySet<>();
+    private static final Map<String, Load> LEARNED_LOADS = new ConcurrentHashMap<>();
+    private static final Object POOL_LOCK = new Object();
+    private static int lowPoolThreads;
+    private static int highPoolThreads;
+    private static boolean cpuPriorityLowered;
+
+    private final RocksDBInstanceHandle instance;
+    private final double cpuCores;
+    private final double minCoreFraction;
+    private final int maxSubcompactions;
+
+    private volatile Load load;
+    private volatile int maxBackgroundJobs;
+
+    /**
+     * @param minCoreFraction share of the cores kept for background work even when every core has a slot
+     */
+    BackgroundThreadBudget(RocksDBInstanceHandle instance, double cpuCores, double minCoreFraction) {
+        // max_background_jobs is set on the open DB
+        instance.requireDb("Background thread budget");
+        this.instance = instance;
+        this.cpuCores = Math.max(cpuCores, 1.0);
+        this.minCoreFraction = minCoreFraction;
+        this.load = LEARNED_LOADS.getOrDefault(instance.taskName(), Load.NORMAL);
+        MEMBERS.add(this);
+        resizePools();
+        this.maxBackgroundJobs = jobsFor(load);
+        this.maxSubcompactions = subcompactionsFor(load);
+    }
+
+    /** Initial max_background_jobs of the instance. */
+    int maxBackgroundJobs() {
+        return maxBackgroundJobs;
+    }
+
+    /** max_subcompactions of the instance, from the task's last observed load. */
+    int maxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("maxBackgroundJobs", (Gauge<Integer>) () -> maxBackgroundJobs);
+        group.gauge("maxSubcompactions", (Gauge<Integer>) () -> maxSubcompactions);
+        group.gauge("foregroundLoad", (Gauge<String>) () -> load.name());
+        group.gauge("lowPoolThreads", (Gauge<Integer>) () -> lowPoolThreads);
+        group.gauge("highPoolThreads", (Gauge<Integer>) () -> highPoolThreads);
+        group.gauge("liveSlots", (Gauge<Integer>) BackgroundThreadBudget::liveSlots);
+    }
+
+    /** Called once the DB is open: undoes the pool growth of DB::Open. */
+    void attached(RocksDB db) {
+        resizePools();
+    }
+
+    @Override
+    public void run() {
+        Optional<RocksDB> db = instance.db();
+        Optional<TaskIOMetricGroup> ioMetrics = instance.taskIoMetrics();
+        if (db.isPresent() && ioMetrics.isPresent()) {
+            Load next = classify(ioMetrics.get());
+            int jobs = jobsFor(next);
+            if (jobs != maxBackgroundJobs) {
+                try {
+                    db.get().setDBOptions(MutableDBOptions.builder().setMaxBackgroundJobs(jobs).build());
+                    LOG.debug(
+                        "max_background_jobs of RocksDB instance {} (task '{}', {}): {} -> {}",
+                        instance.id(),
+                        instance.taskName(),
+                        next,
+                        maxBackgroundJobs,
+                        jobs);
+                    maxBackgroundJobs = jobs;
+                } catch (Exception e) {
+                    LOG.debug("Unable to set max_background_jobs of RocksDB instance {}.", instance.id(), e);
+                }
+            }
+            load = next;
+            LEARNED_LOADS.put(instance.taskName(), next);
+        }
+        resizePools();
+    }
+
+    private static Load classify(TaskIOMetricGroup ioMetrics) {
+        double idle = ioMetrics.getIdleTimeMsPerSecond().getValue() / 1000.0;
+        double backPressured = ioMetrics.getBackPressuredTimeMsPerSecond() / 1000.0;
+        if (backPressured >= BACKPRESSURE_THRESHOLD) {
+            return Load.BACKPRESSURED;
+        }
+        return idle >= IDLE_THRESHOLD ? Load.IDLE : Load.NORMAL;
+    }
+
+    private int jobsFor(Load current) {
+        int total = lowPoolThreads + highPoolThreads;
+        switch (current) {
+            case IDLE:
+                return Math.max(total, MIN_BACKGROUND_JOBS);
+            case BACKPRESSURED:
+                return MIN_BACKGROUND_JOBS;
+            default:
+                int fairShare = (int) Math.ceil((double) total / Math.max(MEMBERS.size(), 1));
+                return Math.max(fairShare, MIN_BACKGROUND_JOBS);
+        }
+    }
+
+    private int subcompactionsFor(Load current) {
+        switch (current) {
+            case IDLE:
+                return Math.max(lowPoolThreads, 1);
+            case BACKPRESSURED:
+                return 1;
+            default:
+                return Math.max(lowPoolThreads / Math.max(MEMBERS.size(), 1), 1);
+        }
+    }
+
+    private static int liveSlots() {
+        return MEMBERS.stream().map(member -> member.instance.slotId()).collect(Collectors.toSet()).size();
+    }
+
+    private void resizePools() {
+        int slots = liveSlots();
+        // each slot keeps one core busy with its task thread
+        double spareCores = Math.max(cpuCores - slots, cpuCores * minCoreFraction);
+        int total = Math.max((int) Math.round(spareCores), MIN_TOTAL_THREADS);
+        int high = Math.max((int) Math.round(total * FLUSH_THREAD_SHARE), 1);
+        int low = Math.max(total - high, 1);
+        Env env = Env.getDefault();
+        synchronized (POOL_LOCK) {
+            if (low != lowPoolThreads || high != highPoolThreads) {
+                LOG.info(
+                    "RocksDB background threads: {} compaction, {} flush (cores={}, live slots={})",
+                    low,
+                    high,
+                    cpuCores,
+                    slots);
+            }
+            lowPoolThreads = low;
+            highPoolThreads = high;
+            env.setBackgroundThreads(low, Priority.LOW);
+            env.setBackgroundThreads(high, Priority.HIGH);
+            if (!cpuPriorityLowered) {
+                env.lowerThreadPoolCPUPriority(Priority.LOW);
+                cpuPriorityLowered = true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        MEMBERS.remove(this);
+    }
+}
@@ -1,5 +1,7 @@
 package com.example;
 
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.contrib.streaming.state.ConfigurableRocksDBOptionsFactory;
 import org.apache.flink.contrib.streaming.state.RocksDBNativeMetricOptions;
 import org.apache.flink.contrib.streaming.state.RocksDBOptionsFactory;
 import org.rocksdb.BlockBasedTableConfig;
@@ -16,7 +18,7 @@ import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Set;
 
-public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOptionsFactory {
+public abstract class BaseDirectIORocksDBOptionsFactory implements ConfigurableRocksDBOptionsFactory {
 
     private static final boolean USE_DIRECT_READS = true;
     private static final boolean USE_DIRECT_IO_FOR_FLUSH_AND_COMPACTION = true;
@@ -33,6 +35,10 @@ public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOption
     private static final boolean PIN_L0_FILTER_AND_INDEX_BLOCKS = true;
     private static final boolean PIN_TOP_LEVEL_INDEX_AND_FILTER = true;
 
+    // overridable through the same keys as CustomRocksDBOptionsFactory (see ColumnFamilyProfiles)
+    private int fixedPrefixBytes = FIXED_PREFIX_BYTES;
+    private double bloomFilterBitsPerKey = BLOOM_FILTER_BITS_PER_KEY;
+
     protected abstract boolean enableBloomFilters();
 
     protected abstract boolean enablePrefixFilters();
@@ -43,6 +49,14 @@ public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOption
         return CACHE_INDEX_AND_FILTER_BLOCKS;
     }
 
+    @Override
+    public RocksDBOptionsFactory configure(ReadableConfig configuration) {
+        fixedPrefixBytes = configuration.getOptional(ColumnFamilyProfiles.FIXED_PREFIX_BYTES).orElse(FIXED_PREFIX_BYTES);
+        bloomFilterBitsPerKey = configuration.getOptional(ColumnFamilyProfiles.BLOOM_FILTER_BITS_PER_KEY)
+            .orElse((double) BLOOM_FILTER_BITS_PER_KEY);
+        return this;
+    }
+
     @Override
     public DBOptions createDBOptions(DBOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
         configureDbLogDir(currentOptions);
@@ -56,7 +70,7 @@ public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOption
     public ColumnFamilyOptions createColumnOptions(
             ColumnFamilyOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
         boolean usePrefix = enablePrefixFilters();
-        boolean useBloom = enableBloomFilters() || usePrefix;
+        boolean useBloom = (enableBloomFilters() || usePrefix) && bloomFilterBitsPerKey > 0;
         boolean useIndex = enableIndexOptimization();
         boolean cacheIndexAndFilterBlocks = cacheIndexAndFilterBlocksInBlockCache();
 
@@ -78,7 +92,7 @@ public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOption
 
         if (useBloom) {
             BloomFilter bloomFilter = new BloomFilter(
-                BLOOM_FILTER_BITS_PER_KEY,
+                bloomFilterBitsPerKey,
                 BLOOM_FILTER_BLOCK_BASED_MODE);
             handlesToClose.add(bloomFilter);
             tableConfig
@@ -170,11 +184,11 @@ public abstract class BaseDirectIORocksDBOptionsFactory implements RocksDBOption
         options.setDbLogDir(ROCKSDB_LOG_DIR);
     }
 
-    private static void applyFixedPrefixExtractorIfConfigured(ColumnFamilyOptions options) {
-        if (FIXED_PREFIX_BYTES <= 0) {
+    private void applyFixedPrefixExtractorIfConfigured(ColumnFamilyOptions options) {
+        if (fixedPrefixBytes <= 0) {
             return;
         }
-        options.useFixedLengthPrefixExtractor(FIXED_PREFIX_BYTES);
+        options.useFixedLengthPrefixExtractor(fixedPrefixBytes);
         options.setOptimizeFiltersForHits(true);
     }
 }
@@ -0,0 +1,212 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodically breaks the primary block cache of one RocksDB instance down by entry role (data, index,
+ * filter, filter partitions, WBM reservations, ...) and publishes bytes and entry counts per role, summed
+ * per slot, and estimated per column family.
+ *
+ * <p>RocksDB walks the cache itself when the entry stats are read and throttles how often it does, so a
+ * short period mostly returns the previous walk. Builds with the {@code rocksdb.block-cache-entry-stats}
+ * map property report exact byte counts; 6.20 only prints the breakdown into the column family stats text
+ * (the "Block cache entry stats" line of the stats dump), with two decimals of KB/MB/GB.
+ *
+ * <p>The cache does not know which column family inserted an entry, so per column family the data, index
+ * and filter bytes are split by each column family's decayed miss volume of that block type from the
+ * block cache trace, like {@link SharedBlockCacheRegistry} splits a shared cache by slot. Without a trace
+ * only the instance and slot figures are published. Slot sums count every distinct cache of the slot's
+ * instances once; with a TaskManager-wide shared cache they are the whole cache.
+ */
+final class BlockCacheContentCollector implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockCacheContentCollector.class);
+
+    private static final String ENTRY_STATS_PROPERTY = "rocksdb.block-cache-entry-stats";
+    private static final String CF_STATS_PROPERTY = "rocksdb.cfstats-no-file-histogram";
+    // per period, how much of the previous miss volume still counts as resident
+    private static final double MISS_VOLUME_RETENTION = 0.9;
+
+    // block types the trace can attribute to a column family
+    private static final int TRACED_DATA = 0;
+    private static final int TRACED_INDEX = 1;
+    private static final int TRACED_FILTER = 2;
+    private static final int TRACED_TYPES = 3;
+
+    private static final List<BlockCacheContentCollector> COLLECTORS = new CopyOnWriteArrayList<>();
+
+    private final RocksDBInstanceHandle instance;
+    private final long cacheId;
+    private final MetricGroup group;
+    // cumulative miss bytes per column family and traced type, written by RocksDB's trace thread
+    private final Map<String, LongAdder[]> missBytes = new ConcurrentHashMap<>();
+    // only touched by the scheduler thread
+    private final Map<String, double[]> lastMissBytes = new HashMap<>();
+    private final Map<String, double[]> decayedMissBytes = new HashMap<>();
+    private final Map<String, long[]> columnFamilyBytes = new HashMap<>();
+    private boolean mapPropertyUnsupported;
+
+    private volatile CacheEntryStats breakdown = new CacheEntryStats();
+    private volatile CacheEntryStats slotBreakdown = new CacheEntryStats();
+
+    /** @param cacheId identity of the instance's primary cache, so slot sums count a shared cache once */
+    BlockCacheContentCollector(RocksDBInstanceHandle instance, long cacheId, MetricGroup group) {
+        // the cache entry stats are a DB property
+        instance.requireDb("Block cache content export");
+        this.instance = instance;
+        this.cacheId = cacheId;
+        this.group = group;
+        COLLECTORS.add(this);
+        instance.addResource(() -> COLLECTORS.remove(this));
+    }
+
+    /** Feeds the per column family estimate; without it only instance and slot figures are published. */
+    BlockCacheTraceSink.AccessListener traceListener() {
+        return access -> {
+            if (access.isCacheHit()) {
+                return;
+            }
+            int type = access.isDataBlock() ? TRACED_DATA
+                : access.isIndexBlock() ? TRACED_INDEX
+                : access.isFilterBlock() ? TRACED_FILTER
+                : -1;
+            if (type >= 0) {
+                missBytes.computeIfAbsent(access.columnFamilyName(), cf -> newAdders())[type].add(access.blockSize());
+            }
+        };
+    }
+
+    void registerMetrics() {
+        for (CacheEntryStats.Role role : CacheEntryStats.Role.values()) {
+            int i = role.ordinal();
+            MetricGroup roleGroup = group.addGroup("role", role.key());
+            roleGroup.gauge("bytes", (Gauge<Long>) () -> breakdown.bytes[i]);
+            roleGroup.gauge("entries", (Gauge<Long>) () -> breakdown.entries[i]);
+            roleGroup.gauge("slotBytes", (Gauge<Long>) () -> slotBreakdown.bytes[i]);
+            roleGroup.gauge("slotEntries", (Gauge<Long>) () -> slotBreakdown.entries[i]);
+        }
+        group.gauge("totalBytes", (Gauge<Long>) () -> breakdown.totalBytes());
+        group.gauge("dataBlockShare", (Gauge<Double>) () -> {
+            CacheEntryStats current = breakdown;
+            long total = current.totalBytes();
+            return total == 0 ? 0.0 : (double) current.bytes[CacheEntryStats.Role.DATA_BLOCK.ordinal()] / total;
+        });
+    }
+
+    @Override
+    public void run() {
+        RocksDB db = instance.db().orElse(null);
+        if (db == null) {
+            return;
+        }
+        CacheEntryStats current = read(db);
+        if (current == null) {
+            return;
+        }
+        breakdown = current;
+        slotBreakdown = sumSlot();
+        estimateColumnFamilies(current);
+    }
+
+    private CacheEntryStats read(RocksDB db) {
+        if (!mapPropertyUnsupported) {
+            try {
+                return CacheEntryStats.fromMapProperty(db.getMapProperty(ENTRY_STATS_PROPERTY));
+            } catch (RocksDBException e) {
+                mapPropertyUnsupported = true;
+                LOG.info("RocksDB has no {} property; parsing the cache entry stats from {}.",
+                    ENTRY_STATS_PROPERTY, CF_STATS_PROPERTY);
+            }
+        }
+        try {
+            CacheEntryStats parsed = CacheEntryStats.parseLine(db.getProperty(CF_STATS_PROPERTY));
+            if (parsed == null) {
+                LOG.debug("No cache entry stats in {} of RocksDB instance {}.", CF_STATS_PROPERTY, instance.id());
+            }
+            return parsed;
+        } catch (RocksDBException e) {
+            LOG.debug("Unable to read {} of RocksDB instance {}.", CF_STATS_PROPERTY, instance.id(), e);
+            return null;
+        }
+    }
+
+    private CacheEntryStats sumSlot() {
+        CacheEntryStats sum = new CacheEntryStats();
+        Set<Long> counted = new HashSet<>();
+        for (BlockCacheContentCollector collector : COLLECTORS) {
+            if (collector.instance.slotId().equals(instance.slotId()) && counted.add(collector.cacheId)) {
+                CacheEntryStats other = collector.breakdown;
+                for (int i = 0; i < sum.bytes.length; i++) {
+                    sum.bytes[i] += other.bytes[i];
+                    sum.entries[i] += other.entries[i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    private void estimateColumnFamilies(CacheEntryStats current) {
+        if (missBytes.isEmpty()) {
+            return;
+        }
+        double[] totals = new double[TRACED_TYPES];
+        for (Map.Entry<String, LongAdder[]> entry : missBytes.entrySet()) {
+            double[] last = lastMissBytes.computeIfAbsent(entry.getKey(), cf -> new double[TRACED_TYPES]);
+            double[] decayed = decayedMissBytes.computeIfAbsent(entry.getKey(), cf -> new double[TRACED_TYPES]);
+            for (int t = 0; t < TRACED_TYPES; t++) {
+                double cumulative = entry.getValue()[t].sum();
+                decayed[t] = decayed[t] * MISS_VOLUME_RETENTION + (cumulative - last[t]);
+                last[t] = cumulative;
+                totals[t] += decayed[t];
+            }
+        }
+        long[] tracedBytes = {
+            current.bytes[CacheEntryStats.Role.DATA_BLOCK.ordinal()],
+            current.bytes[CacheEntryStats.Role.INDEX_BLOCK.ordinal()],
+            current.bytes[CacheEntryStats.Role.FILTER_BLOCK.ordinal()]
+                + current.bytes[CacheEntryStats.Role.FILTER_META_BLOCK.ordinal()]
+                + current.bytes[CacheEntryStats.Role.DEPRECATED_FILTER_BLOCK.ordinal()]
+        };
+        for (Map.Entry<String, double[]> entry : decayedMissBytes.entrySet()) {
+            long[] estimate = columnFamilyBytes.computeIfAbsent(entry.getKey(), this::registerColumnFamily);
+            for (int t = 0; t < TRACED_TYPES; t++) {
+                estimate[t] = totals[t] <= 0 ? 0L : (long) (tracedBytes[t] * entry.getValue()[t] / totals[t]);
+            }
+        }
+    }
+
+    private long[] registerColumnFamily(String columnFamily) {
+        long[] estimate = new long[TRACED_TYPES];
+        MetricGroup cfGroup = group.addGroup("column_family", columnFamily);
+        cfGroup.addGroup("role", CacheEntryStats.Role.DATA_BLOCK.key())
+            .gauge("estimatedBytes", (Gauge<Long>) () -> estimate[TRACED_DATA]);
+        cfGroup.addGroup("role", CacheEntryStats.Role.INDEX_BLOCK.key())
+            .gauge("estimatedBytes", (Gauge<Long>) () -> estimate[TRACED_INDEX]);
+        // filter partitions and the partition index count as filter here
+        cfGroup.addGroup("role", CacheEntryStats.Role.FILTER_BLOCK.key())
+            .gauge("estimatedBytes", (Gauge<Long>) () -> estimate[TRACED_FILTER]);
+        return estimate;
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[TRACED_TYPES];
+        for (int t = 0; t < TRACED_TYPES; t++) {
+            adders[t] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.ClockCache;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Builds the primary block cache for the options factories.
+ *
+ * <p>CLOCK is RocksDB's ClockCache, the predecessor of HyperClockCache (which frocksdb 6.20 does not
+ * have): lookups only take a shard mutex on insert/erase, so hits do not serialize on LRU list updates.
+ * It ignores the high-priority pool. RocksDB only ships it when built with TBB; otherwise
+ * {@code NewClockCache} returns a null cache that crashes on use, so support is probed once per JVM and
+ * CLOCK falls back to LRU when it is missing.
+ */
+final class BlockCacheFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockCacheFactory.class);
+
+    enum Implementation {
+        LRU,
+        CLOCK
+    }
+
+    // HyperClockCache-style sizing: every shard should hold at least this many estimated entries
+    private static final int MIN_ENTRIES_PER_SHARD = 512;
+    private static final int MAX_SHARD_BITS = 8;
+    private static final long PROBE_CACHE_CAPACITY_BYTES = 64L * 1024 * 1024;
+
+    private static final Object PROBE_LOCK = new Object();
+    private static volatile Boolean clockCacheSupported;
+
+    private BlockCacheFactory() {
+    }
+
+    /**
+     * @param shardBits shard bits to use, or -1 to derive them from {@code estimatedEntryChargeBytes}
+     */
+    static Cache create(
+            Implementation implementation,
+            long capacityBytes,
+            int shardBits,
+            long estimatedEntryChargeBytes,
+            double highPriorityPoolRatio) {
+        int resolvedShardBits = shardBits >= 0
+            ? shardBits
+            : shardBitsForEstimatedEntryCharge(capacityBytes, estimatedEntryChargeBytes);
+        if (implementation == Implementation.CLOCK) {
+            if (isClockCacheSupported()) {
+                return new ClockCache(capacityBytes, resolvedShardBits, false);
+            }
+            LOG.warn("ClockCache is not supported by the loaded RocksDB build (no TBB); using LRUCache instead.");
+        }
+        return new LRUCache(capacityBytes, resolvedShardBits, false, highPriorityPoolRatio);
+    }
+
+    static int shardBitsForEstimatedEntryCharge(long capacityBytes, long estimatedEntryChargeBytes) {
+        long entries = capacityBytes / Math.max(estimatedEntryChargeBytes, 1L);
+        int bits = 0;
+        while (bits < MAX_SHARD_BITS && (entries >> (bits + 1)) >= MIN_ENTRIES_PER_SHARD) {
+            bits++;
+        }
+        return bits;
+    }
+
+    static boolean isClockCacheSupported() {
+        Boolean supported = clockCacheSupported;
+        if (supported != null) {
+            return supported;
+        }
+        synchronized (PROBE_LOCK) {
+            if (clockCacheSupported == null) {
+                clockCacheSupported = probeClockCache();
+            }
+            return clockCacheSupported;
+        }
+    }
+
+    // A null native cache is silently replaced by an 8 MB LRUCache in the table factory, so open a
+    // scratch DB and check that the reported capacity is the one we asked for.
+    private static boolean probeClockCache() {
+        Path dir = null;
+        try {
+            RocksDB.loadLibrary();
+            dir = Files.createTempDirectory("rocksdb-clock-cache-probe");
+            try (ClockCache cache = new ClockCache(PROBE_CACHE_CAPACITY_BYTES);
+                    Options options = new Options()
+                        .setCreateIfMissing(true)
+                        .setTableFormatConfig(new BlockBasedTableConfig().setBlockCache(cache));
+                    RocksDB db = RocksDB.open(options, dir.toString())) {
+                String capacity = db.getProperty("rocksdb.block-cache-capacity");
+                return Long.parseLong(capacity.trim()) == PROBE_CACHE_CAPACITY_BYTES;
+            }
+        } catch (Throwable t) {
+            LOG.warn("ClockCache probe failed; assuming it is unsupported.", t);
+            return false;
+        } finally {
+            deleteQuietly(dir);
+        }
+    }
+
+    private static void deleteQuietly(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (Exception e) {
+            LOG.debug("Failed to delete {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Point-lookup throughput against a fully cached DB as the number of reader threads grows, for each
+ * block cache implementation/shard layout the options factories can build. Everything fits in the
+ * cache, so the numbers isolate cache lookup cost and shard-lock contention.
+ *
+ * <p>Options: --keys, --value-bytes, --cache-mb, --threads (comma list), --seconds, --dir.
+ */
+public final class BlockCacheLookupBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final long ESTIMATED_ENTRY_CHARGE_BYTES = 8L * 1024;
+
+    private BlockCacheLookupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 500_000);
+        int valueBytes = bench.intArg("value-bytes", 256);
+        long cacheBytes = bench.longArg("cache-mb", 512) * 1024 * 1024;
+        int[] threadCounts = bench.intListArg("threads", "1,2,4,8,16");
+        long durationMillis = bench.longArg("seconds", 5) * 1000;
+
+        if (!BlockCacheFactory.isClockCacheSupported()) {
+            System.err.println("ClockCache unsupported by this RocksDB build; CLOCK rows fall back to LRU.");
+        }
+        MicrobenchSupport.printCsv("implementation", "shard_bits", "threads", "gets_per_sec", "cache_hit_ratio");
+        int autoShardBits = BlockCacheFactory.shardBitsForEstimatedEntryCharge(cacheBytes, ESTIMATED_ENTRY_CHARGE_BYTES);
+        Object[][] variants = {
+            {BlockCacheFactory.Implementation.LRU, 2},
+            {BlockCacheFactory.Implementation.LRU, 6},
+            {BlockCacheFactory.Implementation.LRU, autoShardBits},
+            {BlockCacheFactory.Implementation.CLOCK, autoShardBits},
+        };
+        for (Object[] variant : variants) {
+            run(bench, (BlockCacheFactory.Implementation) variant[0], (Integer) variant[1],
+                keys, valueBytes, cacheBytes, threadCounts, durationMillis);
+        }
+    }
+
+    private static String effectiveName(BlockCacheFactory.Implementation implementation) {
+        if (implementation == BlockCacheFactory.Implementation.CLOCK && !BlockCacheFactory.isClockCacheSupported()) {
+            return "CLOCK_FALLBACK_LRU";
+        }
+        return implementation.name();
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            BlockCacheFactory.Implementation implementation,
+            int shardBits,
+            long keys,
+            int valueBytes,
+            long cacheBytes,
+            int[] threadCounts,
+            long durationMillis) throws Exception {
+        Path dir = bench.scratchDir("block-cache-lookup");
+        try (Cache cache = BlockCacheFactory.create(
+                    implementation, cacheBytes, shardBits, ESTIMATED_ENTRY_CHARGE_BYTES, 0.1);
+                Statistics statistics = new Statistics();
+                Options options = new Options()
+                    .setCreateIfMissing(true)
+                    .setStatistics(statistics)
+                    .setTableFormatConfig(new BlockBasedTableConfig()
+                        .setBlockCache(cache)
+                        .setCacheIndexAndFilterBlocks(true));
+                RocksDB db = RocksDB.open(options, dir.toString());
+                ReadOptions readOptions = new ReadOptions()) {
+            for (long k = 0; k < keys; k++) {
+                db.put(MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS), MicrobenchSupport.value(k, valueBytes));
+            }
+            try (FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+                db.flush(flush);
+            }
+            db.compactRange();
+            // warm pass so every data block is resident
+            for (long k = 0; k < keys; k++) {
+                db.get(readOptions, MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS));
+            }
+            for (int threads : threadCounts) {
+                long hitsBefore = statistics.getTickerCount(TickerType.BLOCK_CACHE_HIT);
+                long missesBefore = statistics.getTickerCount(TickerType.BLOCK_CACHE_MISS);
+                double opsPerSec = MicrobenchSupport.runTimed(threads, durationMillis, (thread, i) -> {
+                    long k = ThreadLocalRandom.current().nextLong(keys);
+                    db.get(readOptions, MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS));
+                });
+                long hits = statistics.getTickerCount(TickerType.BLOCK_CACHE_HIT) - hitsBefore;
+                long misses = statistics.getTickerCount(TickerType.BLOCK_CACHE_MISS) - missesBefore;
+                MicrobenchSupport.printCsv(
+                    effectiveName(implementation), shardBits, threads, opsPerSec,
+                    hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            }
+        } finally {
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example;
+
+import org.rocksdb.AbstractTraceWriter;
+import org.rocksdb.Slice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Block cache trace sink that decodes every block access in memory and hands it to its listeners
+ * (SHARDS MRC, cache partition stats) instead of writing a trace file.
+ *
+ * <p>Decodes the records produced by RocksDB's BlockCacheTraceWriter (trace_replay/block_cache_tracer.cc):
+ * fixed64 timestamp, trace type, fixed32 payload length, then the length-prefixed block key, fixed64
+ * block size, fixed64 cf id, length-prefixed cf name, fixed32 level, fixed64 sst file number, caller and
+ * is_cache_hit, followed by fields we do not need. RocksDB calls {@link #write} under its trace mutex, so
+ * listeners run one record at a time.
+ */
+final class BlockCacheTraceSink extends AbstractTraceWriter {
+
+    // TraceType values from trace_replay/trace_replay.h
+    private static final int TRACE_TYPE_INDEX_BLOCK = 7;
+    private static final int TRACE_TYPE_FILTER_BLOCK = 8;
+    private static final int TRACE_TYPE_DATA_BLOCK = 9;
+    private static final int TRACE_TYPE_RANGE_DELETION_BLOCK = 11;
+
+    // TableReaderCaller values for foreground reads: kUserGet, kUserMultiGet, kUserIterator
+    private static final int CALLER_USER_GET = 1;
+    private static final int CALLER_USER_ITERATOR = 3;
+
+    private static final int RECORD_HEADER_BYTES = 8 + 1 + 4;
+
+    interface AccessListener {
+        void onBlockAccess(BlockAccess access);
+    }
+
+    /** One decoded access; reused between records, so listeners must not keep it. */
+    static final class BlockAccess {
+        private byte[] record;
+        private int keyOffset;
+        private int keyLength;
+        private int type;
+        private long blockSize;
+        private String columnFamilyName;
+        private int caller;
+        private boolean cacheHit;
+
+        long keyHash() {
+            return ShardsMrcEstimator.hashKey(record, keyOffset, keyLength);
+        }
+
+        long blockSize() {
+            return blockSize;
+        }
+
+        String columnFamilyName() {
+            return columnFamilyName;
+        }
+
+        boolean isDataBlock() {
+            return type == TRACE_TYPE_DATA_BLOCK;
+        }
+
+        boolean isIndexBlock() {
+            return type == TRACE_TYPE_INDEX_BLOCK;
+        }
+
+        /** Full filters and the partitions and top-level index of partitioned filters. */
+        boolean isFilterBlock() {
+            return type == TRACE_TYPE_FILTER_BLOCK;
+        }
+
+        boolean isUserAccess() {
+            return caller >= CALLER_USER_GET && caller <= CALLER_USER_ITERATOR;
+        }
+
+        boolean isCacheHit() {
+            return cacheHit;
+        }
+    }
+
+    private final List<AccessListener> listeners = new ArrayList<>();
+    private final Map<Long, String> columnFamilyNames = new HashMap<>();
+    private final BlockAccess access = new BlockAccess();
+
+    /** Listeners must be added before the trace starts. */
+    void addListener(AccessListener listener) {
+        listeners.add(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    @Override
+    public void write(Slice data) {
+        byte[] record = data.data();
+        if (record.length < RECORD_HEADER_BYTES) {
+            return;
+        }
+        int type = record[8] & 0xff;
+        if (type < TRACE_TYPE_INDEX_BLOCK || type > TRACE_TYPE_RANGE_DELETION_BLOCK) {
+            // header/footer records and query traces
+            return;
+        }
+
+        int[] pos = {RECORD_HEADER_BYTES};
+        int keyLength = readVarint32(record, pos);
+        int keyOffset = pos[0];
+        if (keyLength < 0 || keyOffset + keyLength + 16 > record.length) {
+            return;
+        }
+        pos[0] += keyLength;
+        long blockSize = readFixed64(record, pos[0]);
+        long columnFamilyId = readFixed64(record, pos[0] + 8);
+        pos[0] += 16;
+        int cfNameLength = readVarint32(record, pos);
+        int cfNameOffset = pos[0];
+        int callerOffset = cfNameOffset + Math.max(cfNameLength, 0) + 4 + 8; // cf_name, level, sst_fd_number
+        if (cfNameLength < 0 || callerOffset + 1 >= record.length) {
+            return;
+        }
+
+        access.record = record;
+        access.keyOffset = keyOffset;
+        access.keyLength = keyLength;
+        access.type = type;
+        access.blockSize = blockSize;
+        access.columnFamilyName = columnFamilyNames.computeIfAbsent(
+            columnFamilyId, id -> new String(record, cfNameOffset, cfNameLength, StandardCharsets.UTF_8));
+        access.caller = record[callerOffset] & 0xff;
+        access.cacheHit = record[callerOffset + 1] != 0;
+        for (AccessListener listener : listeners) {
+            listener.onBlockAccess(access);
+        }
+    }
+
+    @Override
+    public void closeWriter() {
+    }
+
+    @Override
+    public long getFileSize() {
+        // nothing is written, so RocksDB's max_trace_file_size never ends the trace
+        return 0L;
+    }
+
+    private static long readFixed64(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (buffer[offset + i] & 0xffL);
+        }
+        return value;
+    }
+
+    private static int readVarint32(byte[] buffer, int[] pos) {
+        int result = 0;
+        for (int shift = 0; shift <= 28 && pos[0] < buffer.length; shift += 7) {
+            int b = buffer[pos[0]++] & 0xff;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+}
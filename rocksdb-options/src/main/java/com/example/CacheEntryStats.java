@@ -0,0 +1,132 @@
+package com.example;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Block cache content by entry role, as RocksDB reports it from a walk over the cache: through the
+ * {@code rocksdb.block-cache-entry-stats} map property where the build has it, and as the "Block cache
+ * entry stats" line of the column family stats text (and so of the LOG stats dump) in 6.20. Used by
+ * {@link BlockCacheContentCollector} on live instances and {@link RocksDBLogParser} on LOG files.
+ */
+final class CacheEntryStats {
+
+    enum Role {
+        DATA_BLOCK("DataBlock"),
+        INDEX_BLOCK("IndexBlock"),
+        FILTER_BLOCK("FilterBlock"),
+        FILTER_META_BLOCK("FilterMetaBlock"),
+        DEPRECATED_FILTER_BLOCK("DeprecatedFilterBlock"),
+        OTHER_BLOCK("OtherBlock"),
+        // WriteBufferManager dummy entries when write buffers are charged to the cache
+        WRITE_BUFFER("WriteBuffer"),
+        // everything this RocksDB has no dedicated role for
+        MISC("Misc");
+
+        private final String dumpName;
+        private final String key;
+
+        Role(String dumpName) {
+            this.dumpName = dumpName;
+            this.key = name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        /** Role name as in the entry stats map property, e.g. {@code data-block}. */
+        String key() {
+            return key;
+        }
+
+        static Role fromKey(String key) {
+            for (Role role : values()) {
+                if (role.key.equals(key)) {
+                    return role;
+                }
+            }
+            return MISC;
+        }
+
+        static Role fromDumpName(String name) {
+            for (Role role : values()) {
+                if (role.dumpName.equals(name)) {
+                    return role;
+                }
+            }
+            return MISC;
+        }
+    }
+
+    static final String LINE_PREFIX = "Block cache entry stats(count,size,portion):";
+    // DataBlock(1734,6.77 MB,84.6%)
+    private static final Pattern LINE_ITEM = Pattern.compile("(\\w+)\\((\\d+),([\\d.]+) (KB|MB|GB|TB),[^)]*\\)");
+
+    /** Bytes and entries per {@link Role}, indexed by ordinal. */
+    final long[] bytes = new long[Role.values().length];
+    final long[] entries = new long[Role.values().length];
+
+    long totalBytes() {
+        long total = 0;
+        for (long b : bytes) {
+            total += b;
+        }
+        return total;
+    }
+
+    /** Reads the {@code count.<role>} and {@code bytes.<role>} entries of the entry stats map property. */
+    static CacheEntryStats fromMapProperty(Map<String, String> stats) {
+        CacheEntryStats result = new CacheEntryStats();
+        for (Map.Entry<String, String> entry : stats.entrySet()) {
+            String key = entry.getKey();
+            boolean count = key.startsWith("count.");
+            if (!count && !key.startsWith("bytes.")) {
+                continue;
+            }
+            int i = Role.fromKey(key.substring(key.indexOf('.') + 1)).ordinal();
+            long value = Long.parseLong(entry.getValue().trim());
+            if (count) {
+                result.entries[i] += value;
+            } else {
+                result.bytes[i] += value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the last "Block cache entry stats(count,size,portion):" line of a stats text, as printed by
+     * RocksDB 6.20 into the column family stats and the LOG stats dump; null if there is none.
+     */
+    static CacheEntryStats parseLine(String stats) {
+        int start = stats.lastIndexOf(LINE_PREFIX);
+        if (start < 0) {
+            return null;
+        }
+        int end = stats.indexOf('\n', start);
+        String line = stats.substring(start + LINE_PREFIX.length(), end < 0 ? stats.length() : end);
+        CacheEntryStats result = new CacheEntryStats();
+        Matcher matcher = LINE_ITEM.matcher(line);
+        while (matcher.find()) {
+            int i = Role.fromDumpName(matcher.group(1)).ordinal();
+            result.entries[i] += Long.parseLong(matcher.group(2));
+            result.bytes[i] += (long) (Double.parseDouble(matcher.group(3)) * unitBytes(matcher.group(4)));
+        }
+        return result;
+    }
+
+    /** Bytes in one of the units of RocksDB's BytesToHumanString (KB, MB, GB, TB; plain B otherwise). */
+    static long unitBytes(String unit) {
+        switch (unit) {
+            case "KB":
+                return 1L << 10;
+            case "MB":
+                return 1L << 20;
+            case "GB":
+                return 1L << 30;
+            case "TB":
+                return 1L << 40;
+            default:
+                return 1L;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+/**
+ * Block cache partitions of one RocksDB instance, assigned per column family (Flink state name). A
+ * dedicated partition gets its own cache carved out of the instance's block cache budget, so a scan-heavy
+ * state cannot evict the blocks of a point-lookup state; a shared partition stays on the primary cache and
+ * only changes the priority class.
+ *
+ * <p>RocksDB 6.20 inserts data blocks with low priority unconditionally; the only per-column-family
+ * priority knob is for index and filter blocks. HIGH therefore caches those in the high-priority pool and
+ * pins L0's, moving them into the cache if they were held by the table readers. LOW leaves cached index
+ * and filter blocks in the low-priority pool; where they are not cached it has nothing to act on, so a
+ * shared LOW partition is then logged and reported ({@code priorityEffective}) as doing nothing. Hits and
+ * misses per partition come from the block cache trace, keyed by column family name.
+ */
+final class ColumnFamilyCachePartitions implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnFamilyCachePartitions.class);
+
+    static final String PRIMARY_PARTITION = "primary";
+
+    enum Priority {
+        HIGH,
+        LOW
+    }
+
+    static final class PartitionSpec {
+        private final String name;
+        private final double budgetFraction;
+        private final Priority priority;
+
+        private PartitionSpec(String name, double budgetFraction, Priority priority) {
+            this.name = name;
+            this.budgetFraction = budgetFraction;
+            this.priority = priority;
+        }
+
+        /** Own cache sized at {@code budgetFraction} of the instance's block cache budget. */
+        static PartitionSpec dedicated(String name, double budgetFraction, Priority priority) {
+            return new PartitionSpec(name, budgetFraction, priority);
+        }
+
+        /** Stays on the primary cache; only the priority class differs. */
+        static PartitionSpec shared(String name, Priority priority) {
+            return new PartitionSpec(name, 0.0, priority);
+        }
+    }
+
+    /** Fraction of the block cache budget the dedicated partitions in {@code specs} take away. */
+    static double dedicatedBudgetFraction(Collection<PartitionSpec> specs) {
+        double fraction = 0;
+        for (PartitionSpec spec : specs) {
+            fraction += spec.budgetFraction;
+        }
+        return fraction;
+    }
+
+    private final Map<String, String> statePartitions;
+    private final Map<String, Partition> partitions = new LinkedHashMap<>();
+    // column family name -> partition, for the states that were actually assigned
+    private final Map<String, Partition> assignedStates = new ConcurrentHashMap<>();
+    private final List<Cache> ownedCaches = new ArrayList<>();
+    private final Partition primary;
+
+    /**
+     * @param dedicatedCacheFactory builds the cache of a dedicated partition from its capacity
+     */
+    ColumnFamilyCachePartitions(
+            Cache primaryCache,
+            long primaryCapacityBytes,
+            long blockCacheBudgetBytes,
+            Collection<PartitionSpec> specs,
+            Map<String, String> statePartitions,
+            LongFunction<Cache> dedicatedCacheFactory) {
+        this.statePartitions = statePartitions;
+        this.primary = new Partition(PRIMARY_PARTITION, primaryCache, primaryCapacityBytes, null, false);
+        partitions.put(PRIMARY_PARTITION, primary);
+        for (PartitionSpec spec : specs) {
+            Partition partition;
+            if (spec.budgetFraction > 0) {
+                long capacityBytes = Math.max((long) (blockCacheBudgetBytes * spec.budgetFraction), 1L);
+                Cache cache = dedicatedCacheFactory.apply(capacityBytes);
+                ownedCaches.add(cache);
+                partition = new Partition(spec.name, cache, capacityBytes, spec.priority, false);
+            } else {
+                partition = new Partition(spec.name, primaryCache, primaryCapacityBytes, spec.priority, true);
+            }
+            partitions.put(spec.name, partition);
+        }
+    }
+
+    static Optional<ColumnFamilyCachePartitions> find(Collection<AutoCloseable> handlesToClose) {
+        return handlesToClose.stream()
+            .filter(ColumnFamilyCachePartitions.class::isInstance)
+            .map(ColumnFamilyCachePartitions.class::cast)
+            .findFirst();
+    }
+
+    /**
+     * Points {@code tableConfig} at the partition of {@code stateName} and applies its priority class.
+     * Unknown or null state names use the primary cache and leave the table config's priorities alone.
+     * Must run after everything else that decides whether index and filter blocks are cached.
+     */
+    void apply(String stateName, BlockBasedTableConfig tableConfig) {
+        Partition partition = primary;
+        if (stateName != null) {
+            String partitionName = statePartitions.get(stateName);
+            if (partitionName != null && partitions.containsKey(partitionName)) {
+                partition = partitions.get(partitionName);
+            }
+            assignedStates.put(stateName, partition);
+            partition.states++;
+        }
+        tableConfig.setBlockCache(partition.cache);
+        if (partition.priority == Priority.HIGH) {
+            tableConfig
+                .setCacheIndexAndFilterBlocks(true)
+                .setCacheIndexAndFilterBlocksWithHighPriority(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        } else if (partition.priority == Priority.LOW) {
+            tableConfig
+                .setCacheIndexAndFilterBlocksWithHighPriority(false)
+                .setPinL0FilterAndIndexBlocksInCache(false);
+            if (!tableConfig.cacheIndexAndFilterBlocks() && partition.shared && partition.priorityEffective) {
+                partition.priorityEffective = false;
+                LOG.warn(
+                    "Cache partition '{}' shares the primary cache and only lowers the priority of index and "
+                        + "filter blocks, but those of state '{}' are not cached; the partition has no effect.",
+                    partition.name,
+                    stateName);
+            }
+        }
+    }
+
+    /** Caches of the dedicated partitions; the primary cache is not among them. */
+    List<Cache> dedicatedCaches() {
+        return new ArrayList<>(ownedCaches);
+    }
+
+    /** Counts block cache hits/misses per partition; column families we never assigned count as primary. */
+    BlockCacheTraceSink.AccessListener traceListener() {
+        return access -> {
+            Partition partition = assignedStates.getOrDefault(access.columnFamilyName(), primary);
+            if (access.isCacheHit()) {
+                partition.hits++;
+            } else {
+                partition.misses++;
+            }
+        };
+    }
+
+    /** Refreshes the usage gauges; call from the instance's scheduler so gauges never touch a closed cache. */
+    void refreshUsage() {
+        for (Partition partition : partitions.values()) {
+            partition.usageBytes = partition.cache.getUsage();
+        }
+    }
+
+    void registerMetrics(MetricGroup group) {
+        for (Partition partition : partitions.values()) {
+            MetricGroup partitionGroup = group.addGroup("partition", partition.name);
+            partitionGroup.gauge("capacityBytes", (Gauge<Long>) () -> partition.capacityBytes);
+            partitionGroup.gauge("usageBytes", (Gauge<Long>) () -> partition.usageBytes);
+            partitionGroup.gauge("states", (Gauge<Integer>) () -> partition.states);
+            partitionGroup.gauge("priorityEffective", (Gauge<Integer>) () -> partition.priorityEffective ? 1 : 0);
+            partitionGroup.gauge("hits", (Gauge<Long>) () -> partition.hits);
+            partitionGroup.gauge("misses", (Gauge<Long>) () -> partition.misses);
+            partitionGroup.gauge("hitRatio", (Gauge<Double>) partition::hitRatio);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Cache cache : ownedCaches) {
+            cache.close();
+        }
+        ownedCaches.clear();
+    }
+
+    private static final class Partition {
+        private final String name;
+        private final Cache cache;
+        private final long capacityBytes;
+        private final Priority priority;
+        // a spec'd partition on the primary cache, which only differs by its priority class
+        private final boolean shared;
+
+        private volatile int states;
+        // false once a shared LOW partition got a state whose index and filter blocks are not cached
+        private volatile boolean priorityEffective = true;
+        // single writer: the trace sink
+        private volatile long hits;
+        private volatile long misses;
+        private volatile long usageBytes;
+
+        private Partition(String name, Cache cache, long capacityBytes, Priority priority, boolean shared) {
+            this.name = name;
+            this.cache = cache;
+            this.capacityBytes = capacityBytes;
+            this.priority = priority;
+            this.shared = shared;
+        }
+
+        private double hitRatio() {
+            long h = hits;
+            long total = h + misses;
+            return total == 0 ? 0.0 : (double) h / total;
+        }
+    }
+}
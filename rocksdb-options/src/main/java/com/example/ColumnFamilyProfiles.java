@@ -0,0 +1,657 @@
+package com.example;
+
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ConfigOptions;
+import org.apache.flink.configuration.MemorySize;
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.contrib.streaming.state.RocksDBConfigurableOptions;
+import org.apache.flink.util.TimeUtils;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactionOptionsFIFO;
+import org.rocksdb.CompactionOptionsUniversal;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DataBlockIndexType;
+import org.rocksdb.HashLinkedListMemTableConfig;
+import org.rocksdb.HashSkipListMemTableConfig;
+import org.rocksdb.IndexType;
+import org.rocksdb.MemTableConfig;
+import org.rocksdb.SkipListMemTableConfig;
+import org.rocksdb.VectorMemTableConfig;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Column family tuning (prefix extractor, bloom filter, block size, memtable size, compression) read from
+ * the Flink configuration, with overrides per state name. Unset options keep the factory's built-in
+ * defaults, so a factory that is never configured behaves as before.
+ *
+ * <p>Per-state overrides are a map from state name to {@code option=value} pairs separated by {@code ;},
+ * using the option names of {@link Profile#with}:
+ *
+ * <pre>
+ *   com.example.rocksdb.state-profiles: join-left:fixed-prefix-bytes=22;bloom-bits-per-key=10,auctions:fixed-prefix-bytes=0;whole-key-filtering=true
+ * </pre>
+ *
+ * <p>{@code table=point-lookup} selects the layout for states dominated by point lookups: a hash index in
+ * every data block (kDataBlockBinaryAndHash) so a Get skips the binary search over restart points, plus a
+ * kHashSearch index when the state has a prefix extractor. Combine it with block-size and
+ * block-restart-interval to trade cache footprint against lookup cost.
+ *
+ * <p>The memtable can differ per state too: {@code memtable=hash-skiplist} buckets recent writes by prefix,
+ * so prefix seeks and Gets of join state search one small skiplist; {@code vector} suits append-only
+ * state that is read after a flush; {@code memtable-prefix-bloom-ratio} lets Gets for keys that are not
+ * in the memtable skip it. Hash memtables and the memtable bloom need a prefix extractor; without one the
+ * state keeps the skiplist. Any non-skiplist memtable turns off concurrent memtable writes for the whole
+ * instance, which Flink's single writer thread never used.
+ *
+ * <p>{@code compression=tiered} compresses per level: nothing on L0/L1, which are rewritten soon and read
+ * hot, LZ4 on the middle levels and ZSTD with a dictionary trained per file on the bottommost level, which
+ * holds most of the data. With a compressed block cache tier or the OS page cache holding the SSTs, more of
+ * the state then fits in the same memory. {@code compression-per-level} (types separated by {@code /}),
+ * {@code bottommost-compression} and {@code compression-dict-bytes} set the parts individually. With our
+ * RocksDB build a dictionary makes each block several times slower to decompress (see
+ * CompressionProfileBenchmark), so lookup-heavy states may prefer {@code compression-dict-bytes=0}.
+ *
+ * <p>{@code blob-files=true} separates keys from values (integrated BlobDB): values of at least
+ * {@code min-blob-size} go to blob files of {@code blob-file-size}, so compactions of wide join rows move
+ * only the keys and blob references, and data blocks hold many more keys per cached block. With
+ * {@code blob-gc=true} compactions rewrite the live values of the oldest {@code blob-gc-age-cutoff} share of
+ * blob files, which is what frees the space of overwritten and deleted values.
+ *
+ * <p>{@code compaction} picks the compaction style of a state. {@code universal} merges whole sorted runs
+ * and rewrites each value far fewer times than leveled compaction, at the price of up to twice the space
+ * during merges; it suits write-heavy states. For time-windowed states {@code compaction-ttl} makes
+ * compactions pick up files older than the TTL (leveled) or rewrite everything that old (universal), so the
+ * tombstones of cleared windows are dropped without waiting for the level above to fill up.
+ * {@code compaction=fifo} never rewrites data: it drops whole files once they are older than
+ * {@code compaction-ttl}, which it therefore requires. That is only correct for append-only state whose
+ * every entry is dead after the TTL (windows shorter than the TTL, with allowed lateness). RocksDB cannot
+ * open files of another style in FIFO, so switching a state to or from it needs a canonical savepoint.
+ */
+final class ColumnFamilyProfiles implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // written by benchmark/query-runner-v2/run_query_runner_v2_sweep.sh; 0 disables the prefix extractor
+    static final ConfigOption<Integer> FIXED_PREFIX_BYTES =
+        ConfigOptions.key("state.backend.rocksdb.fixed-prefix-bytes").intType().noDefaultValue();
+    // 0 disables the bloom filter
+    static final ConfigOption<Double> BLOOM_FILTER_BITS_PER_KEY = RocksDBConfigurableOptions.BLOOM_FILTER_BITS_PER_KEY;
+    static final ConfigOption<Boolean> WHOLE_KEY_FILTERING =
+        ConfigOptions.key("com.example.rocksdb.whole-key-filtering").booleanType().noDefaultValue();
+    static final ConfigOption<MemorySize> BLOCK_SIZE = RocksDBConfigurableOptions.BLOCK_SIZE;
+    static final ConfigOption<MemorySize> WRITE_BUFFER_SIZE = RocksDBConfigurableOptions.WRITE_BUFFER_SIZE;
+    static final ConfigOption<CompressionType> COMPRESSION =
+        ConfigOptions.key("com.example.rocksdb.compression").enumType(CompressionType.class).noDefaultValue();
+    // option=value list applied to every column family, after the single options above
+    static final ConfigOption<String> DEFAULT_PROFILE =
+        ConfigOptions.key("com.example.rocksdb.default-profile").stringType().noDefaultValue();
+    static final ConfigOption<Map<String, String>> STATE_PROFILES =
+        ConfigOptions.key("com.example.rocksdb.state-profiles").mapType().noDefaultValue();
+
+    // ColumnFamilyOptions setters of integrated BlobDB (RocksJava 6.24+) -> parameter type
+    private static final Map<String, Class<?>> BLOB_SETTERS = Map.of(
+        "setEnableBlobFiles", boolean.class,
+        "setMinBlobSize", long.class,
+        "setBlobFileSize", long.class,
+        "setBlobCompressionType", CompressionType.class,
+        "setEnableBlobGarbageCollection", boolean.class,
+        "setBlobGarbageCollectionAgeCutoff", double.class);
+
+    enum Memtable {
+        SKIPLIST,
+        HASH_SKIPLIST,
+        HASH_LINKEDLIST,
+        VECTOR;
+
+        MemTableConfig config() {
+            switch (this) {
+                case HASH_SKIPLIST:
+                    return new HashSkipListMemTableConfig();
+                case HASH_LINKEDLIST:
+                    return new HashLinkedListMemTableConfig();
+                case VECTOR:
+                    return new VectorMemTableConfig();
+                default:
+                    return new SkipListMemTableConfig();
+            }
+        }
+
+        boolean needsPrefixExtractor() {
+            return this == HASH_SKIPLIST || this == HASH_LINKEDLIST;
+        }
+    }
+
+    /** Immutable settings for one column family. */
+    static final class Profile implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final CompressionType[] TIERED_COMPRESSION_PER_LEVEL = {
+            CompressionType.NO_COMPRESSION, CompressionType.NO_COMPRESSION, CompressionType.LZ4_COMPRESSION
+        };
+        private static final int TIERED_COMPRESSION_DICT_BYTES = 16 * 1024;
+        // ZSTD trains the dictionary on this many sample bytes per dictionary byte
+        private static final int ZSTD_TRAIN_BYTES_PER_DICT_BYTE = 100;
+
+        // sorted runs that start a universal compaction, and the slowdown/stop multiples of it
+        private static final int UNIVERSAL_COMPACTION_TRIGGER = 8;
+        private static final int UNIVERSAL_SLOWDOWN_FACTOR = 3;
+        private static final int UNIVERSAL_STOP_FACTOR = 5;
+        // space a universal compaction may temporarily add, in percent of the live data
+        private static final int UNIVERSAL_MAX_SIZE_AMPLIFICATION_PERCENT = 200;
+        // flushed files FIFO merges in place so Gets probe fewer of them; nothing leaves L0
+        private static final int FIFO_COMPACTION_TRIGGER = 8;
+
+        // hash table entries per key of a data block; RocksDB's default
+        private static final double DATA_BLOCK_HASH_TABLE_UTIL_RATIO = 0.75;
+
+        private int fixedPrefixBytes;
+        private double bloomBitsPerKey;
+        private boolean wholeKeyFiltering;
+        // 0 keeps what Flink configured
+        private long blockSizeBytes;
+        private long writeBufferSizeBytes;
+        private int blockRestartInterval;
+        // null keeps what Flink configured
+        private CompressionType compression;
+        // the last entry also covers the deeper levels
+        private CompressionType[] compressionPerLevel;
+        private CompressionType bottommostCompression;
+        // dictionary size of the bottommost compression; 0 means no dictionary
+        private int compressionDictBytes;
+        // point-lookup table layout: hash index inside data blocks, kHashSearch index with a prefix extractor
+        private boolean dataBlockHashIndex;
+        private boolean hashSearchIndex;
+        // null keeps the skiplist; 0 keeps the factory's memtable count and no memtable bloom
+        private Memtable memtable;
+        private double memtablePrefixBloomRatio;
+        private int maxWriteBufferNumber;
+        // designated scan state: the instance's reads stop filling the block cache
+        private boolean bypassCacheFills;
+        // key-value separation; 0 sizes and a null compression keep RocksDB's defaults
+        private boolean blobFiles;
+        private long minBlobSizeBytes;
+        private long blobFileSizeBytes;
+        private CompressionType blobCompression;
+        private boolean blobGarbageCollection;
+        private double blobGarbageCollectionAgeCutoff;
+        // null keeps leveled compaction; a 0 TTL leaves the age of files out of compaction picking
+        private CompactionStyle compactionStyle;
+        private long compactionTtlSeconds;
+
+        Profile(
+                int fixedPrefixBytes,
+                double bloomBitsPerKey,
+                boolean wholeKeyFiltering,
+                long blockSizeBytes,
+                long writeBufferSizeBytes,
+                CompressionType compression) {
+            this.fixedPrefixBytes = fixedPrefixBytes;
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            this.wholeKeyFiltering = wholeKeyFiltering;
+            this.blockSizeBytes = blockSizeBytes;
+            this.writeBufferSizeBytes = writeBufferSizeBytes;
+            this.compression = compression;
+        }
+
+        private Profile(Profile other) {
+            this(other.fixedPrefixBytes, other.bloomBitsPerKey, other.wholeKeyFiltering,
+                other.blockSizeBytes, other.writeBufferSizeBytes, other.compression);
+            this.blockRestartInterval = other.blockRestartInterval;
+            this.compressionPerLevel = other.compressionPerLevel;
+            this.bottommostCompression = other.bottommostCompression;
+            this.compressionDictBytes = other.compressionDictBytes;
+            this.dataBlockHashIndex = other.dataBlockHashIndex;
+            this.hashSearchIndex = other.hashSearchIndex;
+            this.memtable = other.memtable;
+            this.memtablePrefixBloomRatio = other.memtablePrefixBloomRatio;
+            this.maxWriteBufferNumber = other.maxWriteBufferNumber;
+            this.bypassCacheFills = other.bypassCacheFills;
+            this.blobFiles = other.blobFiles;
+            this.minBlobSizeBytes = other.minBlobSizeBytes;
+            this.blobFileSizeBytes = other.blobFileSizeBytes;
+            this.blobCompression = other.blobCompression;
+            this.blobGarbageCollection = other.blobGarbageCollection;
+            this.blobGarbageCollectionAgeCutoff = other.blobGarbageCollectionAgeCutoff;
+            this.compactionStyle = other.compactionStyle;
+            this.compactionTtlSeconds = other.compactionTtlSeconds;
+        }
+
+        /**
+         * Returns a copy with one option replaced. Options: fixed-prefix-bytes, bloom-bits-per-key,
+         * whole-key-filtering, block-size, write-buffer-size (sizes as Flink memory sizes, e.g. 16kb),
+         * block-restart-interval, compression (a RocksDB {@link CompressionType} name such as LZ4_COMPRESSION or
+         * its library name such as lz4, zstd or none, or {@code tiered}), compression-per-level (types
+         * separated by {@code /}), bottommost-compression, compression-dict-bytes, data-block-hash-index, hash-index (kHashSearch, only with a prefix extractor), table
+         * ({@code point-lookup} turns on both hash indexes, {@code default} turns them off), memtable
+         * (skiplist, hash-skiplist, hash-linkedlist, vector), memtable-prefix-bloom-ratio (share of the write
+         * buffer size), max-write-buffer-number, fill-cache ({@code false} for a scan-heavy state; it
+         * turns off cache fills for every read of the state's RocksDB instance), blob-files, min-blob-size,
+         * blob-file-size, blob-compression, blob-gc and blob-gc-age-cutoff (share of the oldest blob files
+         * whose live values compactions relocate), compaction (level, universal or fifo) and compaction-ttl (a
+         * Flink duration such as 6h).
+         */
+        Profile with(String option, String value) {
+            String trimmed = value.trim();
+            Profile copy = new Profile(this);
+            switch (option.trim()) {
+                case "fixed-prefix-bytes":
+                    copy.fixedPrefixBytes = Integer.parseInt(trimmed);
+                    break;
+                case "bloom-bits-per-key":
+                    copy.bloomBitsPerKey = Double.parseDouble(trimmed);
+                    break;
+                case "whole-key-filtering":
+                    copy.wholeKeyFiltering = Boolean.parseBoolean(trimmed);
+                    break;
+                case "block-size":
+                    copy.blockSizeBytes = MemorySize.parseBytes(trimmed);
+                    break;
+                case "write-buffer-size":
+                    copy.writeBufferSizeBytes = MemorySize.parseBytes(trimmed);
+                    break;
+                case "block-restart-interval":
+                    copy.blockRestartInterval = Integer.parseInt(trimmed);
+                    break;
+                case "compression":
+                    if ("tiered".equals(trimmed)) {
+                        copy.compression = null;
+                        copy.compressionPerLevel = TIERED_COMPRESSION_PER_LEVEL;
+                        copy.bottommostCompression = CompressionType.ZSTD_COMPRESSION;
+                        copy.compressionDictBytes = TIERED_COMPRESSION_DICT_BYTES;
+                    } else {
+                        copy.compression = parseCompression(trimmed);
+                        copy.compressionPerLevel = null;
+                        copy.bottommostCompression = null;
+                        copy.compressionDictBytes = 0;
+                    }
+                    break;
+                case "compression-per-level":
+                    copy.compressionPerLevel = Arrays.stream(trimmed.split("/"))
+                        .map(ColumnFamilyProfiles::parseCompression)
+                        .toArray(CompressionType[]::new);
+                    break;
+                case "bottommost-compression":
+                    copy.bottommostCompression = parseCompression(trimmed);
+                    break;
+                case "compression-dict-bytes":
+                    copy.compressionDictBytes = Math.toIntExact(MemorySize.parseBytes(trimmed));
+                    break;
+                case "data-block-hash-index":
+                    copy.dataBlockHashIndex = Boolean.parseBoolean(trimmed);
+                    break;
+                case "hash-index":
+                    copy.hashSearchIndex = Boolean.parseBoolean(trimmed);
+                    break;
+                case "memtable":
+                    copy.memtable = Memtable.valueOf(trimmed.toUpperCase(Locale.ROOT).replace('-', '_'));
+                    break;
+                case "memtable-prefix-bloom-ratio":
+                    copy.memtablePrefixBloomRatio = Double.parseDouble(trimmed);
+                    break;
+                case "max-write-buffer-number":
+                    copy.maxWriteBufferNumber = Integer.parseInt(trimmed);
+                    break;
+                case "fill-cache":
+                    copy.bypassCacheFills = !Boolean.parseBoolean(trimmed);
+                    break;
+                case "blob-files":
+                    copy.blobFiles = Boolean.parseBoolean(trimmed);
+                    break;
+                case "min-blob-size":
+                    copy.minBlobSizeBytes = MemorySize.parseBytes(trimmed);
+                    break;
+                case "blob-file-size":
+                    copy.blobFileSizeBytes = MemorySize.parseBytes(trimmed);
+                    break;
+                case "blob-compression":
+                    copy.blobCompression = parseCompression(trimmed);
+                    break;
+                case "blob-gc":
+                    copy.blobGarbageCollection = Boolean.parseBoolean(trimmed);
+                    break;
+                case "blob-gc-age-cutoff":
+                    copy.blobGarbageCollectionAgeCutoff = Double.parseDouble(trimmed);
+                    break;
+                case "compaction":
+                    copy.compactionStyle = CompactionStyle.valueOf(trimmed.toUpperCase(Locale.ROOT));
+                    break;
+                case "compaction-ttl":
+                    copy.compactionTtlSeconds = TimeUtils.parseDuration(trimmed).getSeconds();
+                    break;
+                case "table":
+                    if (!"point-lookup".equals(trimmed) && !"default".equals(trimmed)) {
+                        throw new IllegalArgumentException("Unknown table profile '" + trimmed + "'");
+                    }
+                    copy.dataBlockHashIndex = "point-lookup".equals(trimmed);
+                    copy.hashSearchIndex = copy.dataBlockHashIndex;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column family profile option '" + option + "'");
+            }
+            return copy;
+        }
+
+        /** Applies a {@code option=value;option=value} list on top of this profile. */
+        Profile withAll(String assignments) {
+            Profile profile = this;
+            for (String assignment : assignments.split(";")) {
+                if (assignment.isBlank()) {
+                    continue;
+                }
+                int separator = assignment.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected option=value but found '" + assignment + "'");
+                }
+                profile = profile.with(assignment.substring(0, separator), assignment.substring(separator + 1));
+            }
+            return profile;
+        }
+
+        int fixedPrefixBytes() {
+            return fixedPrefixBytes;
+        }
+
+        double bloomBitsPerKey() {
+            return bloomBitsPerKey;
+        }
+
+        boolean hasCompression() {
+            return compression != null || compressionPerLevel != null || bottommostCompression != null;
+        }
+
+        boolean bypassesCacheFills() {
+            return bypassCacheFills;
+        }
+
+        boolean hasBlobFiles() {
+            return blobFiles;
+        }
+
+        /** Whether the memtable cannot take concurrent writes (allow_concurrent_memtable_write). */
+        boolean hasNonSkipListMemtable() {
+            return memtable != null && memtable != Memtable.SKIPLIST;
+        }
+
+        void applyTo(BlockBasedTableConfig tableConfig, Collection<AutoCloseable> handlesToClose) {
+            tableConfig.setWholeKeyFiltering(wholeKeyFiltering);
+            if (blockSizeBytes > 0) {
+                tableConfig.setBlockSize(blockSizeBytes);
+            }
+            if (blockRestartInterval > 0) {
+                tableConfig.setBlockRestartInterval(blockRestartInterval);
+            }
+            if (dataBlockHashIndex) {
+                tableConfig
+                    .setDataBlockIndexType(DataBlockIndexType.kDataBlockBinaryAndHash)
+                    .setDataBlockHashTableUtilRatio(DATA_BLOCK_HASH_TABLE_UTIL_RATIO);
+            }
+            // a partitioned (two-level) index chosen elsewhere wins; kHashSearch needs the prefix extractor
+            if (hashSearchIndex
+                    && fixedPrefixBytes > 0
+                    && tableConfig.indexType() == IndexType.kBinarySearch
+                    && !tableConfig.partitionFilters()) {
+                tableConfig.setIndexType(IndexType.kHashSearch);
+            }
+            if (bloomBitsPerKey > 0) {
+                BloomFilter bloomFilter = new BloomFilter(bloomBitsPerKey, false);
+                handlesToClose.add(bloomFilter);
+                tableConfig.setFilterPolicy(bloomFilter);
+            }
+        }
+
+        void applyTo(ColumnFamilyOptions options, Collection<AutoCloseable> handlesToClose) {
+            if (writeBufferSizeBytes > 0) {
+                options.setWriteBufferSize(writeBufferSizeBytes);
+            }
+            if (compression != null) {
+                options.setCompressionType(compression);
+            }
+            if (compressionPerLevel != null) {
+                List<CompressionType> levels = new ArrayList<>();
+                for (int level = 0; level < options.numLevels(); level++) {
+                    levels.add(compressionPerLevel[Math.min(level, compressionPerLevel.length - 1)]);
+                }
+                options.setCompressionPerLevel(levels);
+            }
+            if (bottommostCompression != null) {
+                options.setBottommostCompressionType(bottommostCompression);
+                if (compressionDictBytes > 0) {
+                    CompressionOptions dictionary = new CompressionOptions()
+                        .setMaxDictBytes(compressionDictBytes)
+                        .setZStdMaxTrainBytes(compressionDictBytes * ZSTD_TRAIN_BYTES_PER_DICT_BYTE)
+                        .setEnabled(true);
+                    handlesToClose.add(dictionary);
+                    options.setBottommostCompressionOptions(dictionary);
+                }
+            }
+            if (fixedPrefixBytes > 0) {
+                options.useFixedLengthPrefixExtractor(fixedPrefixBytes);
+                options.setOptimizeFiltersForHits(true);
+            }
+            if (maxWriteBufferNumber > 0) {
+                options.setMaxWriteBufferNumber(maxWriteBufferNumber);
+            }
+            if (memtable != null) {
+                boolean usable = !memtable.needsPrefixExtractor() || fixedPrefixBytes > 0;
+                options.setMemTableConfig((usable ? memtable : Memtable.SKIPLIST).config());
+            }
+            if (memtablePrefixBloomRatio > 0 && fixedPrefixBytes > 0) {
+                options.setMemtablePrefixBloomSizeRatio(memtablePrefixBloomRatio);
+            }
+            applyCompactionStyle(options, handlesToClose);
+        }
+
+        private void applyCompactionStyle(ColumnFamilyOptions options, Collection<AutoCloseable> handlesToClose) {
+            if (compactionStyle == CompactionStyle.UNIVERSAL) {
+                CompactionOptionsUniversal universal = new CompactionOptionsUniversal()
+                    .setMaxSizeAmplificationPercent(UNIVERSAL_MAX_SIZE_AMPLIFICATION_PERCENT)
+                    .setAllowTrivialMove(true);
+                handlesToClose.add(universal);
+                options
+                    .setCompactionStyle(CompactionStyle.UNIVERSAL)
+                    .setCompactionOptionsUniversal(universal)
+                    .setLevel0FileNumCompactionTrigger(UNIVERSAL_COMPACTION_TRIGGER)
+                    .setLevel0SlowdownWritesTrigger(UNIVERSAL_COMPACTION_TRIGGER * UNIVERSAL_SLOWDOWN_FACTOR)
+                    .setLevel0StopWritesTrigger(UNIVERSAL_COMPACTION_TRIGGER * UNIVERSAL_STOP_FACTOR);
+                if (compactionTtlSeconds > 0) {
+                    options.setPeriodicCompactionSeconds(compactionTtlSeconds);
+                }
+            } else if (compactionStyle == CompactionStyle.FIFO) {
+                if (compactionTtlSeconds <= 0) {
+                    throw new IllegalArgumentException(
+                        "compaction=fifo drops files by age and needs a compaction-ttl longer than the state lives");
+                }
+                // no size limit: files only go away by age
+                CompactionOptionsFIFO fifo = new CompactionOptionsFIFO()
+                    .setMaxTableFilesSize(Long.MAX_VALUE)
+                    .setAllowCompaction(true);
+                handlesToClose.add(fifo);
+                options
+                    .setCompactionStyle(CompactionStyle.FIFO)
+                    .setCompactionOptionsFIFO(fifo)
+                    .setLevel0FileNumCompactionTrigger(FIFO_COMPACTION_TRIGGER)
+                    .setTtl(compactionTtlSeconds);
+            } else if (compactionTtlSeconds > 0) {
+                options.setCompactionStyle(CompactionStyle.LEVEL).setTtl(compactionTtlSeconds);
+            } else if (compactionStyle != null) {
+                options.setCompactionStyle(compactionStyle);
+            }
+        }
+
+        /**
+         * Enables blob files on {@code current} when the profile asks for them. RocksJava 6.20 has no blob
+         * setters, so they are looked up at runtime (RocksDB 6.24+, or the same setters added to our frocksdb
+         * build); {@link #fromConfig} already rejects blob profiles on a build without them.
+         */
+        void applyBlobFiles(ColumnFamilyOptions current) {
+            if (!blobFiles) {
+                return;
+            }
+            setBlobOption(current, "setEnableBlobFiles", true);
+            if (minBlobSizeBytes > 0) {
+                setBlobOption(current, "setMinBlobSize", minBlobSizeBytes);
+            }
+            if (blobFileSizeBytes > 0) {
+                setBlobOption(current, "setBlobFileSize", blobFileSizeBytes);
+            }
+            if (blobCompression != null) {
+                setBlobOption(current, "setBlobCompressionType", blobCompression);
+            }
+            setBlobOption(current, "setEnableBlobGarbageCollection", blobGarbageCollection);
+            if (blobGarbageCollectionAgeCutoff > 0) {
+                setBlobOption(current, "setBlobGarbageCollectionAgeCutoff", blobGarbageCollectionAgeCutoff);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "fixed-prefix-bytes=" + fixedPrefixBytes
+                + ", bloom-bits-per-key=" + bloomBitsPerKey
+                + ", whole-key-filtering=" + wholeKeyFiltering
+                + ", block-size=" + blockSizeBytes
+                + ", block-restart-interval=" + blockRestartInterval
+                + ", write-buffer-size=" + writeBufferSizeBytes
+                + ", compression=" + compression
+                + ", compression-per-level=" + (compressionPerLevel == null ? "default" : Arrays.toString(compressionPerLevel))
+                + ", bottommost-compression=" + bottommostCompression
+                + ", compression-dict-bytes=" + compressionDictBytes
+                + ", data-block-hash-index=" + dataBlockHashIndex
+                + ", hash-index=" + hashSearchIndex
+                + ", memtable=" + (memtable == null ? "default" : memtable)
+                + ", memtable-prefix-bloom-ratio=" + memtablePrefixBloomRatio
+                + ", max-write-buffer-number=" + maxWriteBufferNumber
+                + ", fill-cache=" + !bypassCacheFills
+                + ", blob-files=" + blobFiles
+                + ", min-blob-size=" + minBlobSizeBytes
+                + ", blob-file-size=" + blobFileSizeBytes
+                + ", blob-compression=" + blobCompression
+                + ", blob-gc=" + blobGarbageCollection
+                + ", blob-gc-age-cutoff=" + blobGarbageCollectionAgeCutoff
+                + ", compaction=" + (compactionStyle == null ? "default" : compactionStyle)
+                + ", compaction-ttl=" + compactionTtlSeconds + "s";
+        }
+    }
+
+    private final Profile defaults;
+    private final Map<String, Profile> stateProfiles;
+
+    private ColumnFamilyProfiles(Profile defaults, Map<String, Profile> stateProfiles) {
+        this.defaults = defaults;
+        this.stateProfiles = stateProfiles;
+    }
+
+    static ColumnFamilyProfiles of(Profile defaults) {
+        return new ColumnFamilyProfiles(defaults, Collections.emptyMap());
+    }
+
+    /** Overlays the global options and then the per-state overrides of {@code config} on {@code builtIn}. */
+    static ColumnFamilyProfiles fromConfig(ReadableConfig config, Profile builtIn) {
+        Profile defaults = builtIn;
+        defaults = overlay(config, FIXED_PREFIX_BYTES, "fixed-prefix-bytes", defaults);
+        defaults = overlay(config, BLOOM_FILTER_BITS_PER_KEY, "bloom-bits-per-key", defaults);
+        defaults = overlay(config, WHOLE_KEY_FILTERING, "whole-key-filtering", defaults);
+        defaults = overlay(config, COMPRESSION, "compression", defaults);
+        if (config.getOptional(BLOCK_SIZE).isPresent()) {
+            defaults = defaults.with("block-size", String.valueOf(config.get(BLOCK_SIZE).getBytes()));
+        }
+        if (config.getOptional(WRITE_BUFFER_SIZE).isPresent()) {
+            defaults = defaults.with("write-buffer-size", String.valueOf(config.get(WRITE_BUFFER_SIZE).getBytes()));
+        }
+
+        defaults = defaults.withAll(config.getOptional(DEFAULT_PROFILE).orElse(""));
+
+        Map<String, Profile> stateProfiles = new HashMap<>();
+        for (Map.Entry<String, String> entry : config.getOptional(STATE_PROFILES).orElse(Map.of()).entrySet()) {
+            try {
+                stateProfiles.put(entry.getKey().trim(), defaults.withAll(entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid profile of state '" + entry.getKey() + "'", e);
+            }
+        }
+        ColumnFamilyProfiles profiles = new ColumnFamilyProfiles(defaults, stateProfiles);
+        if (profiles.hasBlobFiles()) {
+            checkBlobSetters();
+        }
+        return profiles;
+    }
+
+    // fails the configuration instead of every state backend build on the TaskManagers
+    private static void checkBlobSetters() {
+        for (Map.Entry<String, Class<?>> setter : BLOB_SETTERS.entrySet()) {
+            try {
+                ColumnFamilyOptions.class.getMethod(setter.getKey(), setter.getValue());
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(
+                    "blob-files=true needs ColumnFamilyOptions." + setter.getKey() + ", which the RocksJava on "
+                        + "the classpath lacks (RocksDB 6.24+ or a frocksdb build with the blob setters)",
+                    e);
+            }
+        }
+    }
+
+    /** A {@link CompressionType} name (LZ4_COMPRESSION) or library name (lz4, zstd, none). */
+    static CompressionType parseCompression(String name) {
+        String trimmed = name.trim();
+        if ("none".equalsIgnoreCase(trimmed)) {
+            return CompressionType.NO_COMPRESSION;
+        }
+        CompressionType byLibrary = CompressionType.getCompressionType(trimmed.toLowerCase(Locale.ROOT));
+        if (byLibrary != CompressionType.NO_COMPRESSION) {
+            return byLibrary;
+        }
+        return CompressionType.valueOf(trimmed.toUpperCase(Locale.ROOT));
+    }
+
+    private static void setBlobOption(ColumnFamilyOptions options, String setter, Object value) {
+        try {
+            ColumnFamilyOptions.class.getMethod(setter, BLOB_SETTERS.get(setter)).invoke(options, value);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(
+                "blob-files needs ColumnFamilyOptions." + setter + ", which this RocksJava build lacks", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to set blob option " + setter + "=" + value, e);
+        }
+    }
+
+    private static <T> Profile overlay(ReadableConfig config, ConfigOption<T> option, String name, Profile profile) {
+        return config.getOptional(option).map(value -> profile.with(name, value.toString())).orElse(profile);
+    }
+
+    /** The profile of {@code stateName}, or the defaults when it has no override or is unknown (null). */
+    Profile forState(String stateName) {
+        return stateName == null ? defaults : stateProfiles.getOrDefault(stateName, defaults);
+    }
+
+    Profile defaults() {
+        return defaults;
+    }
+
+    /** Whether any profile needs allow_concurrent_memtable_write turned off. */
+    boolean hasNonSkipListMemtable() {
+        return defaults.hasNonSkipListMemtable()
+            || stateProfiles.values().stream().anyMatch(Profile::hasNonSkipListMemtable);
+    }
+
+    /** Whether any state keeps its values in blob files. */
+    boolean hasBlobFiles() {
+        return defaults.hasBlobFiles() || stateProfiles.values().stream().anyMatch(Profile::hasBlobFiles);
+    }
+
+    Map<String, Profile> stateProfiles() {
+        return Collections.unmodifiableMap(stateProfiles);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteOptions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Write amplification and compaction CPU of the compaction styles of {@link ColumnFamilyProfiles} under
+ * windowed state: each window writes its keys (namespace = window), and once more than --live-windows
+ * windows exist the oldest is cleared key by key, the way Flink clears a fired window. Memtables are
+ * small so the data goes through several flushes and compactions. write_amp is flush plus compaction
+ * output over the bytes written by the user; ttl_write_mb is the part written by TTL and periodic
+ * compactions; compaction_cpu_s is RocksDB's CompMergeCPU. missing_live_keys samples keys of the windows
+ * that are still live and counts those that are gone, which is how a too short FIFO TTL shows up.
+ *
+ * <p>Options: --windows, --keys-per-window, --value-bytes, --live-windows, --window-millis (minimum time
+ * per window, so TTLs can expire during the run), --profiles (profile option lists separated by {@code ,},
+ * e.g. {@code compaction=universal,compaction=fifo;compaction-ttl=30s}), --dir.
+ */
+public final class CompactionStyleBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final long SMALL_WRITE_BUFFER_BYTES = 4L * 1024 * 1024;
+    private static final long SMALL_TARGET_FILE_SIZE_BYTES = 4L * 1024 * 1024;
+    private static final long SMALL_LEVEL_BASE_BYTES = 16L * 1024 * 1024;
+    private static final int LIVE_KEY_SAMPLES = 10_000;
+    private static final int QUIET_POLLS = 10;
+    private static final long POLL_MILLIS = 100;
+    private static final double BYTES_PER_MB = 1024.0 * 1024;
+
+    private CompactionStyleBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        int windows = bench.intArg("windows", 60);
+        int keysPerWindow = bench.intArg("keys-per-window", 50_000);
+        int valueBytes = bench.intArg("value-bytes", 128);
+        int liveWindows = bench.intArg("live-windows", 4);
+        long windowMillis = bench.longArg("window-millis", 0);
+        String[] profiles = bench.stringArg(
+            "profiles",
+            "compaction=level,compaction=universal,compaction=level;compaction-ttl=10s,"
+                + "compaction=universal;compaction-ttl=10s,compaction=fifo;compaction-ttl=10s").split(",");
+
+        MicrobenchSupport.printCsv(
+            "profile", "seconds", "user_mb", "flush_mb", "compact_write_mb", "write_amp", "ttl_write_mb",
+            "compaction_cpu_s", "stall_ms", "sst_mb", "missing_live_keys");
+        ColumnFamilyProfiles.Profile base = new ColumnFamilyProfiles.Profile(0, 10, true, 0, SMALL_WRITE_BUFFER_BYTES, null);
+        for (String assignments : profiles) {
+            run(bench, assignments.trim(), base.withAll(assignments), windows, keysPerWindow, valueBytes,
+                liveWindows, windowMillis);
+        }
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            String label,
+            ColumnFamilyProfiles.Profile profile,
+            int windows,
+            int keysPerWindow,
+            int valueBytes,
+            int liveWindows,
+            long windowMillis) throws Exception {
+        Path dir = bench.scratchDir("compaction-style");
+        List<AutoCloseable> handles = new ArrayList<>();
+        try (Statistics statistics = new Statistics();
+                DBOptions dbOptions = new DBOptions()
+                    .setCreateIfMissing(true)
+                    .setStatistics(statistics)
+                    .setMaxBackgroundJobs(4);
+                ColumnFamilyOptions cfOptions = configure(new ColumnFamilyOptions()
+                    .setTargetFileSizeBase(SMALL_TARGET_FILE_SIZE_BYTES)
+                    .setMaxBytesForLevelBase(SMALL_LEVEL_BASE_BYTES), profile, handles);
+                Options options = new Options(dbOptions, cfOptions);
+                RocksDB db = RocksDB.open(options, dir.toString());
+                WriteOptions writeOptions = new WriteOptions().setDisableWAL(true);
+                FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+            long began = System.nanoTime();
+            for (int window = 0; window < windows; window++) {
+                long windowBegan = System.nanoTime();
+                for (int k = 0; k < keysPerWindow; k++) {
+                    db.put(writeOptions, MicrobenchSupport.stateKey(k, window, NUM_KEY_GROUPS),
+                        MicrobenchSupport.value(k + (long) window * keysPerWindow, valueBytes));
+                }
+                int expired = window - liveWindows;
+                if (expired >= 0) {
+                    for (int k = 0; k < keysPerWindow; k++) {
+                        db.delete(writeOptions, MicrobenchSupport.stateKey(k, expired, NUM_KEY_GROUPS));
+                    }
+                }
+                long remainingMillis = windowMillis - (System.nanoTime() - windowBegan) / 1_000_000;
+                if (remainingMillis > 0) {
+                    Thread.sleep(remainingMillis);
+                }
+            }
+            db.flush(flush);
+            // files past their TTL stay pending until a flush or compaction picks them, so this waits for a
+            // quiet period rather than for no pending compaction
+            for (int quietPolls = 0; quietPolls < QUIET_POLLS; Thread.sleep(POLL_MILLIS)) {
+                quietPolls = db.getLongProperty("rocksdb.num-running-compactions") > 0 ? 0 : quietPolls + 1;
+            }
+            double seconds = (System.nanoTime() - began) / 1e9;
+
+            long missing = 0;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int firstLive = Math.max(0, windows - liveWindows);
+            for (int i = 0; i < LIVE_KEY_SAMPLES; i++) {
+                int window = firstLive + random.nextInt(windows - firstLive);
+                if (db.get(MicrobenchSupport.stateKey(random.nextInt(keysPerWindow), window, NUM_KEY_GROUPS)) == null) {
+                    missing++;
+                }
+            }
+
+            long userBytes = statistics.getTickerCount(TickerType.BYTES_WRITTEN);
+            long flushBytes = statistics.getTickerCount(TickerType.FLUSH_WRITE_BYTES);
+            long compactBytes = statistics.getTickerCount(TickerType.COMPACT_WRITE_BYTES);
+            long ttlBytes = statistics.getTickerCount(TickerType.COMPACT_WRITE_BYTES_TTL)
+                + statistics.getTickerCount(TickerType.COMPACT_WRITE_BYTES_PERIODIC);
+            String compactionCpu = db.getMapProperty("rocksdb.cfstats").getOrDefault("compaction.Sum.CompMergeCPU", "0");
+            MicrobenchSupport.printCsv(
+                label,
+                seconds,
+                userBytes / BYTES_PER_MB,
+                flushBytes / BYTES_PER_MB,
+                compactBytes / BYTES_PER_MB,
+                userBytes == 0 ? 0.0 : (double) (flushBytes + compactBytes) / userBytes,
+                ttlBytes / BYTES_PER_MB,
+                Double.parseDouble(compactionCpu),
+                statistics.getTickerCount(TickerType.STALL_MICROS) / 1000,
+                db.getLongProperty("rocksdb.total-sst-files-size") / BYTES_PER_MB,
+                missing);
+        } finally {
+            for (AutoCloseable handle : handles) {
+                handle.close();
+            }
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+
+    private static ColumnFamilyOptions configure(
+            ColumnFamilyOptions options, ColumnFamilyProfiles.Profile profile, List<AutoCloseable> handles) {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        profile.applyTo(tableConfig, handles);
+        profile.applyTo(options, handles);
+        return options.setTableFormatConfig(tableConfig);
+    }
+}
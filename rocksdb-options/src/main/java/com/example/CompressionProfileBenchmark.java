@@ -0,0 +1,214 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.StatsLevel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * On-disk size versus read cost of the compression settings of {@link ColumnFamilyProfiles}. Each profile
+ * loads the same partly compressible values through small memtables, so the data spreads over several
+ * levels the way a running job's state does, and waits for compaction. Gets then run twice: with a block
+ * cache that holds everything (hit cost) and with a 1 MB cache over files in the page cache (miss cost:
+ * block read plus decompression, no device time). miss_cost_ns is the difference, the price of every block
+ * cache miss the smaller files save memory for; cpu_per_miss_ns is the thread CPU time of a missing Get.
+ *
+ * <p>Options: --keys, --lookups, --value-bytes, --compressible-percent, --profiles (profile option lists
+ * separated by {@code ,}, e.g. {@code compression=lz4,compression=tiered}), --dir.
+ */
+public final class CompressionProfileBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final long SMALL_WRITE_BUFFER_BYTES = 8L * 1024 * 1024;
+    private static final long SMALL_LEVEL_BASE_BYTES = 32L * 1024 * 1024;
+    private static final long MISS_CACHE_BYTES = 1024L * 1024;
+    private static final long HIT_CACHE_BYTES = 4L * 1024 * 1024 * 1024;
+    private static final String TEXT = "auction bid person seller category price dateTime extra channel url ";
+
+    private CompressionProfileBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 1_000_000);
+        int lookups = bench.intArg("lookups", 200_000);
+        int valueBytes = bench.intArg("value-bytes", 256);
+        double compressible = bench.doubleArg("compressible-percent", 60) / 100;
+        String[] profiles = bench.stringArg(
+            "profiles", "compression=none,compression=lz4,compression=zstd,compression=tiered").split(",");
+
+        MicrobenchSupport.printCsv(
+            "profile", "sst_bytes", "bytes_per_key", "compression_ns_per_block", "hit_get_ns", "miss_get_ns",
+            "miss_cost_ns", "cpu_per_miss_ns", "decompression_ns_per_block");
+        ColumnFamilyProfiles.Profile base = new ColumnFamilyProfiles.Profile(0, 10, true, 0, SMALL_WRITE_BUFFER_BYTES, null);
+        for (String assignments : profiles) {
+            run(bench, assignments.trim(), base.withAll(assignments), keys, lookups, valueBytes, compressible);
+        }
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            String label,
+            ColumnFamilyProfiles.Profile profile,
+            long keys,
+            int lookups,
+            int valueBytes,
+            double compressible) throws Exception {
+        Path dir = bench.scratchDir("compression-profile");
+        try {
+            double compressionNanos = load(dir, profile, keys, valueBytes, compressible);
+            long sstBytes;
+            double hitNanos;
+            try (Reader reader = new Reader(dir, profile, HIT_CACHE_BYTES)) {
+                sstBytes = reader.db.getLongProperty("rocksdb.total-sst-files-size");
+                // warm pass so every block is cached
+                for (long k = 0; k < keys; k++) {
+                    reader.db.get(reader.readOptions, MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS));
+                }
+                hitNanos = reader.timeGets(keys, lookups)[0];
+            }
+            double[] miss;
+            double decompressionNanos;
+            try (Reader reader = new Reader(dir, profile, MISS_CACHE_BYTES)) {
+                // one pass to pull the files into the page cache, so the miss cost leaves the device out
+                reader.timeGets(keys, lookups);
+                miss = reader.timeGets(keys, lookups);
+                decompressionNanos = reader.statistics.getHistogramData(HistogramType.DECOMPRESSION_TIMES_NANOS).getAverage();
+            }
+            MicrobenchSupport.printCsv(
+                label,
+                sstBytes,
+                (double) sstBytes / keys,
+                compressionNanos,
+                hitNanos,
+                miss[0],
+                miss[0] - hitNanos,
+                miss[1],
+                decompressionNanos);
+        } finally {
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+
+    /** Loads the keys and waits for compaction; returns the mean compression time per block. */
+    private static double load(
+            Path dir,
+            ColumnFamilyProfiles.Profile profile,
+            long keys,
+            int valueBytes,
+            double compressible) throws Exception {
+        List<AutoCloseable> handles = new ArrayList<>();
+        try (Statistics statistics = new Statistics();
+                DBOptions dbOptions = new DBOptions()
+                    .setCreateIfMissing(true)
+                    .setStatistics(statistics)
+                    .setMaxBackgroundJobs(4);
+                ColumnFamilyOptions cfOptions = configure(new ColumnFamilyOptions()
+                    .setTargetFileSizeBase(SMALL_WRITE_BUFFER_BYTES)
+                    .setMaxBytesForLevelBase(SMALL_LEVEL_BASE_BYTES), profile, handles);
+                Options options = new Options(dbOptions, cfOptions);
+                RocksDB db = RocksDB.open(options, dir.toString());
+                FlushOptions flush = new FlushOptions().setWaitForFlush(true)) {
+            statistics.setStatsLevel(StatsLevel.ALL);
+            for (long k = 0; k < keys; k++) {
+                db.put(MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS), value(k, valueBytes, compressible));
+            }
+            db.flush(flush);
+            while (db.getLongProperty("rocksdb.compaction-pending") > 0
+                    || db.getLongProperty("rocksdb.num-running-compactions") > 0) {
+                Thread.sleep(100);
+            }
+            HistogramData compression = statistics.getHistogramData(HistogramType.COMPRESSION_TIMES_NANOS);
+            return compression.getAverage();
+        } finally {
+            for (AutoCloseable handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private static ColumnFamilyOptions configure(
+            ColumnFamilyOptions options, ColumnFamilyProfiles.Profile profile, List<AutoCloseable> handles) {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        profile.applyTo(tableConfig, handles);
+        profile.applyTo(options, handles);
+        return options.setTableFormatConfig(tableConfig);
+    }
+
+    /** Random bytes followed by text, so roughly {@code compressible} of each value compresses. */
+    private static byte[] value(long seed, int valueBytes, double compressible) {
+        byte[] value = MicrobenchSupport.value(seed, valueBytes);
+        for (int i = (int) (valueBytes * (1 - compressible)); i < valueBytes; i++) {
+            value[i] = (byte) TEXT.charAt((int) ((i + seed * 7) % TEXT.length()));
+        }
+        return value;
+    }
+
+    private static final class Reader implements AutoCloseable {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final List<AutoCloseable> handles = new ArrayList<>();
+        private final Cache cache;
+        private final Statistics statistics;
+        private final Options options;
+        private final RocksDB db;
+        private final ReadOptions readOptions;
+
+        private Reader(Path dir, ColumnFamilyProfiles.Profile profile, long cacheBytes) throws Exception {
+            cache = new LRUCache(cacheBytes, 0);
+            statistics = new Statistics();
+            statistics.setStatsLevel(StatsLevel.ALL);
+            BlockBasedTableConfig tableConfig = new BlockBasedTableConfig().setBlockCache(cache);
+            profile.applyTo(tableConfig, handles);
+            ColumnFamilyOptions cfOptions = new ColumnFamilyOptions();
+            handles.add(cfOptions);
+            profile.applyTo(cfOptions, handles);
+            try (DBOptions dbOptions = new DBOptions().setStatistics(statistics)) {
+                options = new Options(dbOptions, cfOptions.setTableFormatConfig(tableConfig));
+            }
+            db = RocksDB.openReadOnly(options, dir.toString());
+            readOptions = new ReadOptions();
+        }
+
+        /** Mean wall-clock and thread CPU nanoseconds per Get of a present key. */
+        private double[] timeGets(long keys, int lookups) throws Exception {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long cpuBegan = THREADS.getCurrentThreadCpuTime();
+            long began = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                db.get(readOptions, MicrobenchSupport.stateKey(random.nextLong(keys), 0, NUM_KEY_GROUPS));
+            }
+            long elapsed = System.nanoTime() - began;
+            long cpu = THREADS.getCurrentThreadCpuTime() - cpuBegan;
+            return new double[] {(double) elapsed / lookups, (double) cpu / lookups};
+        }
+
+        @Override
+        public void close() throws Exception {
+            readOptions.close();
+            db.close();
+            options.close();
+            for (AutoCloseable handle : handles) {
+                handle.close();
+            }
+            statistics.close();
+            cache.close();
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.example;
 
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ConfigOptions;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.configuration.GlobalConfiguration;
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.contrib.streaming.state.ConfigurableRocksDBOptionsFactory;
 import org.apache.flink.contrib.streaming.state.RocksDBNativeMetricOptions;
 import org.apache.flink.contrib.streaming.state.RocksDBOptionsFactory;
 import org.apache.flink.runtime.clusterframework.TaskExecutorProcessSpec;
@@ -12,10 +18,18 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
+public class CustomRocksDBOptionsFactory
+        implements ConfigurableRocksDBOptionsFactory, StateAwareRocksDBOptionsFactory {
 
     private static final Logger LOG =
         LoggerFactory.getLogger(CustomRocksDBOptionsFactory.class);
@@ -26,7 +40,13 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
         FLINK_MANAGED_FINAL_EXPERIMENTS,
         FLINK_MANAGED_INDEP,
         MANUAL_INDEP,
-        MANUAL_CHARGED
+        MANUAL_CHARGED,
+        // Flink-managed budget, independent cache + WBM, split learned online per task by MemorySplitController
+        FLINK_MANAGED_ADAPTIVE_SPLIT,
+        // like FLINK_MANAGED_INDEP / MANUAL_INDEP, but part of the block cache budget backs the primary cache
+        // with a cache of LZ4-compressed blocks
+        FLINK_MANAGED_COMPRESSED_TIER,
+        MANUAL_COMPRESSED_TIER
     }
     // private static final MemoryProvisioningMode MEMORY_MODE = MemoryProvisioningMode.MANUAL_INDEP;
     // private static final MemoryProvisioningMode MEMORY_MODE = MemoryProvisioningMode.FLINK_MANAGED;
@@ -39,10 +59,28 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
     private static final double HIGH_PRIORITY_POOL_RATIO = 0.1;
     // numShardBits = -1 means it is automatically determined: every shard will be at least 512KB and number of shard bits will not exceed 6
     private static final int DEFAULT_BLOCK_CACHE_SHARD_BITS = 6;
+    // LRU or CLOCK (ClockCache; falls back to LRU when the RocksDB build lacks it)
+    private static final BlockCacheFactory.Implementation BLOCK_CACHE_IMPLEMENTATION =
+        BlockCacheFactory.Implementation.LRU;
+    // expected charge of one cached block; sizes the shards when shard bits are set to -1
+    private static final long BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES = 8L * 1024;
     
     // For FINAL_EXPERIMENTS: override the calculated Flink-managed WBM capacity with a fixed value.
     private static final long FLINK_MANAGED_FINAL_WRITE_BUFFER_CAPACITY_BYTES = 192L * 1024 * 1024;
 
+    // For ADAPTIVE_SPLIT: WBM share of the per-slot budget before anything was learned
+    // (1/3 is what WRITE_BUFFER_RATIO = 0.5 gives in FLINK_MANAGED)
+    private static final double ADAPTIVE_SPLIT_INITIAL_WRITE_BUFFER_RATIO = 1.0 / 3;
+
+    // For COMPRESSED_TIER: share of the block cache budget given to the compressed tier. A compressed block
+    // costs roughly 1/2-1/3 of its uncompressed size, so the tier holds more of the working set per byte.
+    private static final double COMPRESSED_TIER_BUDGET_FRACTION = 0.3;
+    private static final long COMPRESSED_TIER_ESTIMATED_ENTRY_CHARGE_BYTES = 3L * 1024;
+    // the tier caches blocks as they are stored in the SST, so the SSTs have to be LZ4-compressed
+    private static final CompressionType COMPRESSED_TIER_COMPRESSION = CompressionType.LZ4_COMPRESSION;
+    private static final long COMPRESSED_TIER_STATS_PERIOD_MS = 10_000L;
+    private static final long ADAPTIVE_SPLIT_CONTROL_PERIOD_MS = 30_000L;
+
     // fallback config values used when we cannot discover real TaskExecutor settings
     private static final long FALLBACK_TOTAL_FLINK_MEMORY_BYTES = (long) (1.55 * 1024 * 1024 * 1024L);
     private static final double FALLBACK_MANAGED_MEMORY_FRACTION = 0.4;
@@ -54,6 +92,9 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
     // Manual memory provisioning
     // --------------------------
     private static final long MANUAL_BLOCK_CACHE_CAPACITY_BYTES = 130L * 1024 * 1024;
+    // overrides MANUAL_BLOCK_CACHE_CAPACITY_BYTES; written by benchmark/mrc-gen/run_block_cache_sweep.sh
+    static final ConfigOption<Long> MANUAL_BLOCK_CACHE_CAPACITY =
+        ConfigOptions.key("com.example.rocksdb.manual-block-cache-capacity-bytes").longType().noDefaultValue();
     private static final int MANUAL_BLOCK_CACHE_SHARD_BITS = 2;
     private static final long MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES = 53L * 1024 * 1024;
 
@@ -64,6 +105,11 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
     // in default Flink direct reads/writes not used. in Justin it is
     private static final boolean USE_DIRECT_READS = true;
     private static final boolean USE_DIRECT_IO_FOR_FLUSH_AND_COMPACTION = true;
+    // RocksDB 6.20 has no blob cache, so with direct reads every blob read goes to disk. Opt in to turn
+    // direct reads off for the whole instance as soon as one of its states uses blob files; the page
+    // cache then keeps the blob files and this share of the block cache budget is left to it.
+    private static final boolean BLOB_FILES_DISABLE_DIRECT_READS = false;
+    private static final double BLOB_PAGE_CACHE_BUDGET_FRACTION = 0.25;
     
     // write path and compaction settings
     private static final long WRITE_BUFFER_SIZE = 64L * 1024 * 1024; // memtable
@@ -74,10 +120,32 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
 
     private static final boolean NEW_TABLE_READER_FOR_COMPACTION_INPUTS = false;
     private static final long COMPACTION_READAHEAD_SIZE_BYTES = 0L;
+    // iterator readahead per instance from its iterator vs Get read volume (direct reads get no OS readahead)
+    private static final boolean ENABLE_SCAN_READAHEAD = false;
+    private static final long SCAN_READAHEAD_PERIOD_MS = 30_000L;
+    // stop filling the block cache from an instance whose iterators read more than this many blocks on average
+    private static final boolean ENABLE_SCAN_ADMISSION = false;
+    private static final int SCAN_ADMISSION_MAX_BLOCKS_PER_ITERATOR = 16;
+    // Flink's default block size; iterator volume is counted in uncompressed bytes
+    private static final long SCAN_ADMISSION_BLOCK_BYTES = 4L * 1024;
+    private static final long SCAN_ADMISSION_PERIOD_MS = 10_000L;
 
     // threads for compaction and background jobs
     private static final int MAX_BACKGROUND_JOBS = 2;
     private static final int MAX_SUBCOMPACTIONS = 1;
+    // replaces the two above: TaskManager-wide flush/compaction pools sized from taskmanager.cpu.cores and
+    // the live slots, with per-instance jobs/subcompactions following task idleness and backpressure
+    private static final boolean ENABLE_BACKGROUND_THREAD_BUDGET = false;
+    // share of the cores background threads keep even when every core runs a slot
+    private static final double BACKGROUND_THREAD_MIN_CORE_FRACTION = 0.25;
+    private static final long BACKGROUND_THREAD_BUDGET_PERIOD_MS = 10_000L;
+    // TaskManager-wide RateLimiter on flush/compaction writes, tuned from Get latency and compaction debt
+    private static final boolean ENABLE_SHARED_RATE_LIMITER = false;
+    private static final long RATE_LIMITER_MIN_BYTES_PER_SEC = 16L * 1024 * 1024;
+    private static final long RATE_LIMITER_MAX_BYTES_PER_SEC = 256L * 1024 * 1024;
+    // full rate above this much compaction debt; a quarter of the default soft_pending_compaction_bytes_limit
+    private static final long RATE_LIMITER_STALL_GUARD_PENDING_BYTES = 16L * 1024 * 1024 * 1024;
+    private static final long RATE_LIMITER_TUNING_PERIOD_MS = 5_000L;
 
     // read path block cache settings
     private static final boolean CACHE_INDEX_AND_FILTER_BLOCKS = false;
@@ -85,17 +153,114 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
     private static final boolean PIN_L0_FILTER_AND_INDEX_BLOCKS = false;
     private static final boolean PIN_TOP_LEVEL_INDEX_AND_FILTER = false;
     private static final boolean USE_PARTITIONED_INDEX_FILTERS = false;
+    // replaces the four flags above with a policy chosen from index/filter hit rates and footprint
+    private static final boolean ADAPTIVE_INDEX_FILTER_PINNING = false;
+    private static final long INDEX_FILTER_PINNING_PERIOD_MS = 60_000L;
+    // bloom bits per key (and bottom-level filters) sized from a share of the block cache; forces filters
+    // into the cache so they are charged to it
+    private static final boolean ENABLE_FILTER_BUDGET = false;
+    private static final double FILTER_BUDGET_FRACTION = 0.1;
+    private static final long FILTER_BUDGET_PERIOD_MS = 60_000L;
 
     // stat dumps to see histogram types
     private static final boolean ENABLE_STATS_DUMP = true;
     private static final int STATS_DUMP_PERIOD_SEC = 300;
     private static final String ROCKSDB_LOG_DIR = "/data/rocksdb_native_logs";
+    // Get/Seek/SST read/stall/compaction histograms as Flink gauges (lifetime percentiles, per-period mean
+    // and deviation), so they do not have to be read from the stats dump; needs the task metric group
+    private static final boolean ENABLE_HISTOGRAM_EXPORT = false;
+    private static final long HISTOGRAM_EXPORT_PERIOD_MS = 10_000L;
+    // bytes/entries of the primary block cache per entry role (data, index, filter, WBM, ...), per slot
+    private static final boolean ENABLE_BLOCK_CACHE_CONTENT = false;
+    // also estimates the data/index/filter bytes per column family; needs the in-memory block cache trace
+    private static final boolean BLOCK_CACHE_CONTENT_PER_COLUMN_FAMILY = false;
+    private static final long BLOCK_CACHE_CONTENT_PERIOD_MS = 60_000L;
+    // flush/compaction/write stall/background error metrics from RocksDB's event callbacks
+    private static final boolean ENABLE_EVENT_TELEMETRY = false;
+    // samples memtables, table readers and block caches of all instances against the memory layout and
+    // warns when a slot's RocksDB memory exceeds its managed memory
+    private static final boolean ENABLE_NATIVE_MEMORY_VERIFIER = false;
+    private static final long NATIVE_MEMORY_VERIFIER_PERIOD_MS = 30_000L;
+    // column family defaults; overridden globally and per state from the Flink configuration (see configure)
     private static final int FIXED_PREFIX_BYTES = 22;
     private static final int BLOOM_FILTER_BITS_PER_KEY = 10;
+    private static final boolean WHOLE_KEY_FILTERING = false;
+    private static final ColumnFamilyProfiles.Profile DEFAULT_COLUMN_FAMILY_PROFILE = new ColumnFamilyProfiles.Profile(
+        FIXED_PREFIX_BYTES,
+        BLOOM_FILTER_BITS_PER_KEY,
+        WHOLE_KEY_FILTERING,
+        0, // keep Flink's block size
+        WRITE_BUFFER_SIZE,
+        null); // keep Flink's compression
+
+    // online SHARDS MRC from an in-memory block cache trace (replaces trace files + offline SHARDS runs)
+    private static final boolean ENABLE_SHARDS_MRC = false;
+    private static final ShardsMrcEstimator.Mode SHARDS_MODE = ShardsMrcEstimator.Mode.FIXED_SIZE;
+    private static final double SHARDS_SAMPLING_RATE = 0.01; // starting rate for FIXED_SIZE
+    private static final int SHARDS_MAX_SAMPLES = 8192;
+    private static final long SHARDS_BUCKET_BYTES = 1L * 1024 * 1024;
+    private static final long SHARDS_MAX_CACHE_BYTES = 4L * 1024 * 1024 * 1024;
+    // same filtering as benchmark/offline-mrc-gen data_user_only traces
+    private static final boolean SHARDS_DATA_USER_ACCESSES_ONLY = true;
+    private static final double[] SHARDS_REPORTED_CAPACITY_FACTORS = {0.25, 0.5, 1.0, 2.0, 4.0};
+
+    // Live memory -> throughput model on top of the SHARDS MRC (requires ENABLE_SHARDS_MRC)
+    private static final boolean ENABLE_THROUGHPUT_MODEL = false;
+    // read IOPS the disk gives one instance; 0 leaves the device limit out of the model
+    private static final double THROUGHPUT_MODEL_DISK_READ_IOPS = 0.0;
+    private static final long THROUGHPUT_MODEL_PERIOD_MS = 30_000L;
+
+    // TaskManager-wide block cache + WBM (per-slot layout x slots) shared by every instance in the JVM
+    private static final boolean SHARE_BLOCK_CACHE_ACROSS_SLOTS = false;
+    // soft cap on a slot's estimated share, as a multiple of its per-slot cache capacity; 0 disables it
+    private static final double SHARED_BLOCK_CACHE_SLOT_QUOTA_FACTOR = 0.0;
+    private static final long SHARED_BLOCK_CACHE_ACCOUNTING_PERIOD_MS = 10_000L;
+
+    // Per-state block cache partitions. Dedicated partitions are carved out of the block cache budget;
+    // shared ones stay on the primary cache with a different priority class. Only takes effect when Flink
+    // passes the state name (see createColumnOptions); unlisted states use the primary cache.
+    private static final List<ColumnFamilyCachePartitions.PartitionSpec> CACHE_PARTITIONS = List.of(
+        // ColumnFamilyCachePartitions.PartitionSpec.dedicated("lookups", 0.25, ColumnFamilyCachePartitions.Priority.HIGH),
+        // ColumnFamilyCachePartitions.PartitionSpec.shared("scans", ColumnFamilyCachePartitions.Priority.LOW)
+    );
+    // Flink state name -> partition name
+    private static final Map<String, String> STATE_CACHE_PARTITIONS = Map.of(
+        // "join-left", "lookups",
+        // "window-contents", "scans"
+    );
+    private static final long CACHE_PARTITION_USAGE_PERIOD_MS = 10_000L;
+    // logged once per TaskManager when per-state settings meet a Flink build that passes no state names
+    private static final AtomicBoolean STATE_NAMES_MISSING_LOGGED = new AtomicBoolean();
+
+    private ColumnFamilyProfiles columnFamilyProfiles = ColumnFamilyProfiles.of(DEFAULT_COLUMN_FAMILY_PROFILE);
+    private long manualBlockCacheCapacityBytes = MANUAL_BLOCK_CACHE_CAPACITY_BYTES;
+    private boolean detectPrefixLength = PrefixLengthDetector.ENABLED.defaultValue();
+    private String prefixLengthStoreFile = PrefixLengthDetector.STORE_FILE.defaultValue();
+    private boolean dbCloseHook = RocksDBCloseHook.INSTALLED.defaultValue();
+
+    @Override
+    public RocksDBOptionsFactory configure(ReadableConfig configuration) {
+        columnFamilyProfiles = ColumnFamilyProfiles.fromConfig(configuration, DEFAULT_COLUMN_FAMILY_PROFILE);
+        manualBlockCacheCapacityBytes =
+            configuration.getOptional(MANUAL_BLOCK_CACHE_CAPACITY).orElse(MANUAL_BLOCK_CACHE_CAPACITY_BYTES);
+        detectPrefixLength = configuration.get(PrefixLengthDetector.ENABLED);
+        prefixLengthStoreFile = configuration.get(PrefixLengthDetector.STORE_FILE);
+        dbCloseHook = configuration.get(RocksDBCloseHook.INSTALLED);
+        LOG.info(
+            "Column family profile: default [{}], per state {}; manual block cache capacity={} bytes; "
+                + "prefix detection={}; DB close hook={}",
+            columnFamilyProfiles.defaults(),
+            columnFamilyProfiles.stateProfiles(),
+            manualBlockCacheCapacityBytes,
+            detectPrefixLength,
+            dbCloseHook);
+        return this;
+    }
 
     @Override
     public DBOptions createDBOptions(DBOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
-        MemoryLayout layout = resolveMemoryLayout();
+        RocksDBInstanceHandle instance = RocksDBInstanceHandle.register(handlesToClose, dbCloseHook);
+        MemoryLayout layout = resolveMemoryLayout(instance);
 
         // long blockCacheCapacityBytes = layout.blockCacheCapacityBytes;
         // if (MEMORY_MODE == MemoryProvisioningMode.FLINK_MANAGED_INDEP) {
@@ -103,39 +268,109 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
         //     blockCacheCapacityBytes =
         //         Math.max(1L, blockCacheCapacityBytes - layout.writeBufferManagerCapacityBytes);
         // }
-        Cache blockCache = new LRUCache(
-            layout.blockCacheCapacityBytes,
-            layout.blockCacheShardBits,
-            false,
-            HIGH_PRIORITY_POOL_RATIO
-        );
-        handlesToClose.add(new CacheHandle(blockCache, true));
-
-        Cache writeBufferChargeCache;
-        if (layout.chargeWriteBuffersToCache) {
-            writeBufferChargeCache = blockCache;
+        // dedicated cache partitions take their share of the block cache budget from the primary cache
+        boolean blobPageCache = blobPageCache(instance);
+        long primaryBlockCacheCapacityBytes = Math.max(
+            (long) (layout.blockCacheCapacityBytes
+                * (1 - ColumnFamilyCachePartitions.dedicatedBudgetFraction(CACHE_PARTITIONS))
+                * (blobPageCache ? 1 - BLOB_PAGE_CACHE_BUDGET_FRACTION : 1)),
+            1L);
+        SharedBlockCacheRegistry.Lease sharedCacheLease = null;
+        Cache blockCache;
+        WriteBufferManager writeBufferManager;
+        if (shareBlockCacheAcrossSlots()) {
+            int slots = ManagedMemoryIntrospector.resolve().taskSlotsPerTm;
+            sharedCacheLease = SharedBlockCacheRegistry.acquire(
+                layout.blockCacheImplementation,
+                primaryBlockCacheCapacityBytes * slots,
+                layout.blockCacheShardBits,
+                BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
+                HIGH_PRIORITY_POOL_RATIO,
+                layout.writeBufferManagerCapacityBytes * slots,
+                layout.chargeWriteBuffersToCache
+            );
+            handlesToClose.add(sharedCacheLease);
+            blockCache = sharedCacheLease.cache();
+            // the lease frees the shared cache once the last instance is gone
+            handlesToClose.add(new CacheHandle(blockCache, CacheRole.PRIMARY, false));
+            writeBufferManager = sharedCacheLease.writeBufferManager();
         } else {
-            writeBufferChargeCache = new LRUCache(1);
-            handlesToClose.add(new CacheHandle(writeBufferChargeCache, false));
-        }
+            blockCache = BlockCacheFactory.create(
+                layout.blockCacheImplementation,
+                primaryBlockCacheCapacityBytes,
+                layout.blockCacheShardBits,
+                BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
+                HIGH_PRIORITY_POOL_RATIO
+            );
+            handlesToClose.add(new CacheHandle(blockCache, CacheRole.PRIMARY));
 
-        WriteBufferManager writeBufferManager = new WriteBufferManager(
-            layout.writeBufferManagerCapacityBytes,
-            writeBufferChargeCache
-        );
-        handlesToClose.add(writeBufferManager);
+            Cache writeBufferChargeCache;
+            if (layout.chargeWriteBuffersToCache) {
+                writeBufferChargeCache = blockCache;
+            } else {
+                writeBufferChargeCache = new LRUCache(1);
+                handlesToClose.add(new CacheHandle(writeBufferChargeCache, CacheRole.WRITE_BUFFER_CHARGE));
+            }
+
+            writeBufferManager = new WriteBufferManager(
+                layout.writeBufferManagerCapacityBytes,
+                writeBufferChargeCache
+            );
+            handlesToClose.add(writeBufferManager);
+        }
 
         Statistics statistics = new Statistics();
         statistics.setStatsLevel(StatsLevel.ALL);
         handlesToClose.add(statistics);
 
+        enableCompressedTierIfConfigured(instance, handlesToClose, layout, statistics);
+        enableAdaptiveIndexFilterPinningIfConfigured(
+            instance, handlesToClose, primaryBlockCacheCapacityBytes, statistics);
+        enableFilterBudgetIfConfigured(
+            instance, handlesToClose, primaryBlockCacheCapacityBytes, columnFamilyProfiles.defaults().bloomBitsPerKey());
+        BlockCacheTraceSink blockCacheTrace = new BlockCacheTraceSink();
+        enableCachePartitionsIfConfigured(
+            instance, handlesToClose, layout, blockCache, primaryBlockCacheCapacityBytes, blockCacheTrace);
+        ShardsMrcEstimator mrcEstimator = enableShardsMrcIfConfigured(instance, layout, blockCacheTrace);
+        enableAdaptiveMemorySplitIfConfigured(instance, layout, statistics, mrcEstimator);
+        enableThroughputModelIfConfigured(instance, layout, statistics, mrcEstimator);
+        BackgroundThreadBudget threadBudget = enableBackgroundThreadBudgetIfConfigured(instance, handlesToClose);
+        enableSharedRateLimiterIfConfigured(instance, handlesToClose, currentOptions, statistics);
+        enableScanReadaheadIfConfigured(instance, handlesToClose, statistics);
+        enableScanAdmissionIfConfigured(instance, statistics);
+        enableHistogramExportIfConfigured(instance, statistics);
+        enableBlockCacheContentIfConfigured(instance, blockCache, blockCacheTrace);
+        enableNativeMemoryVerifierIfConfigured(instance, handlesToClose, layout, blockCache);
+        if (ENABLE_EVENT_TELEMETRY) {
+            instance.addListener(new EventTelemetryListener(instance.metricGroup().addGroup("events")));
+        }
+        if (detectPrefixLength) {
+            enablePrefixLengthDetection(instance);
+        }
+        if (sharedCacheLease != null) {
+            sharedCacheLease.track(
+                instance,
+                statistics,
+                (long) (layout.blockCacheCapacityBytes * SHARED_BLOCK_CACHE_SLOT_QUOTA_FACTOR),
+                SHARED_BLOCK_CACHE_ACCOUNTING_PERIOD_MS);
+        }
+        if (blockCacheTrace.hasListeners()) {
+            instance.addResource(blockCacheTrace);
+            instance.onAttach(db -> startBlockCacheTrace(instance, db, blockCacheTrace));
+        }
+        instance.installListeners(currentOptions);
+
         configureDbLogDir(currentOptions);
         enableStatsDump(currentOptions);
+        if (columnFamilyProfiles.hasNonSkipListMemtable()) {
+            // hash/vector memtables cannot take concurrent writes; Flink writes from one thread anyway
+            currentOptions.setAllowConcurrentMemtableWrite(false);
+        }
         return currentOptions
             // Use the WriteBufferManager instead of letting each CF allocate independently
             .setWriteBufferManager(writeBufferManager)
             // Enable direct reads so cache misses don't go through OS page cache → we measure real disk I/O
-            .setUseDirectReads(USE_DIRECT_READS)
+            .setUseDirectReads(USE_DIRECT_READS && !blobPageCache)
             // Enable direct IO for flush/compaction so RocksDB bypasses the OS page cache on write path
             .setUseDirectIoForFlushAndCompaction(USE_DIRECT_IO_FOR_FLUSH_AND_COMPACTION)
             // Disable the new table reader path
@@ -143,8 +378,8 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
             .setCompactionReadaheadSize(COMPACTION_READAHEAD_SIZE_BYTES)
 
             // RocksDB background threads
-            .setMaxBackgroundJobs(MAX_BACKGROUND_JOBS)
-            .setMaxSubcompactions(MAX_SUBCOMPACTIONS)
+            .setMaxBackgroundJobs(threadBudget == null ? MAX_BACKGROUND_JOBS : threadBudget.maxBackgroundJobs())
+            .setMaxSubcompactions(threadBudget == null ? MAX_SUBCOMPACTIONS : threadBudget.maxSubcompactions())
 
             // Attach statistics for Prometheus
             .setStatistics(statistics);
@@ -190,29 +425,65 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
     public ColumnFamilyOptions createColumnOptions(
             ColumnFamilyOptions currentOptions,
             Collection<AutoCloseable> handlesToClose) {
+        // our Flink build calls the state-aware variant for every column family, so this is stock Flink
+        if (hasPerStateSettings() && STATE_NAMES_MISSING_LOGGED.compareAndSet(false, true)) {
+            LOG.warn(
+                "Flink does not pass state names to the options factory, so the per-state settings (state "
+                    + "profiles {}, cache partitions {}, prefix detection={}, adaptive index/filter pinning={}) "
+                    + "do not apply: every column family gets the default profile and the primary block cache, "
+                    + "and dedicated cache partitions stay empty. They need our Flink build (see "
+                    + "StateAwareRocksDBOptionsFactory).",
+                columnFamilyProfiles.stateProfiles().keySet(),
+                STATE_CACHE_PARTITIONS,
+                detectPrefixLength,
+                ADAPTIVE_INDEX_FILTER_PINNING);
+        }
+        return createColumnOptions(currentOptions, handlesToClose, null);
+    }
 
-        Cache blockCache = handlesToClose.stream()
-            .filter(CacheHandle.class::isInstance)
-            .map(CacheHandle.class::cast)
-            .filter(CacheHandle::isPrimary)
-            .map(CacheHandle::cache)
-            .findFirst()
+    @Override
+    public ColumnFamilyOptions createColumnOptions(
+            ColumnFamilyOptions currentOptions,
+            Collection<AutoCloseable> handlesToClose,
+            String stateName) {
+
+        Cache blockCache = findCache(handlesToClose, CacheRole.PRIMARY)
             .orElseThrow(() -> new IllegalStateException("Block cache not found in handlesToClose"));
+        Optional<Cache> compressedBlockCache = findCache(handlesToClose, CacheRole.COMPRESSED);
+
+        ColumnFamilyProfiles.Profile profile = columnFamilyProfiles.forState(stateName);
+        if (detectPrefixLength) {
+            profile = applyDetectedPrefixLength(profile, handlesToClose, stateName);
+        }
+        profile.applyBlobFiles(currentOptions);
+        ColumnFamilyOptions baseOptions = currentOptions;
 
-        BlockBasedTableConfig tableConfig = resolveBlockBasedTableConfig(currentOptions);
+        BlockBasedTableConfig tableConfig = resolveBlockBasedTableConfig(baseOptions);
         tableConfig
             .setCacheIndexAndFilterBlocks(CACHE_INDEX_AND_FILTER_BLOCKS)
             .setCacheIndexAndFilterBlocksWithHighPriority(CACHE_INDEX_AND_FILTER_BLOCKS_WITH_HIGH_PRIORITY)
             .setPinL0FilterAndIndexBlocksInCache(PIN_L0_FILTER_AND_INDEX_BLOCKS)
             .setPinTopLevelIndexAndFilter(PIN_TOP_LEVEL_INDEX_AND_FILTER)
             .setPartitionFilters(USE_PARTITIONED_INDEX_FILTERS)
-            .setWholeKeyFiltering(false)
             .setBlockCache(blockCache);
-        applyBloomFilterIfConfigured(tableConfig, handlesToClose);
+        IndexFilterPinningController.find(handlesToClose)
+            .ifPresent(controller -> controller.apply(stateName, tableConfig));
+        Optional<FilterBudgetController> filterBudget = FilterBudgetController.find(handlesToClose);
+        if (filterBudget.isPresent()) {
+            profile = filterBudget.get().applyTo(profile, tableConfig);
+        }
+        // last: the priority class needs to know whether index and filter blocks ended up cached
+        ColumnFamilyCachePartitions.find(handlesToClose)
+            .ifPresent(partitions -> partitions.apply(stateName, tableConfig));
+        profile.applyTo(tableConfig, handlesToClose);
+        if (profile.bypassesCacheFills()) {
+            RocksDBInstanceHandle.find(handlesToClose)
+                .ifPresent(instance -> instance.vetoFillCache("scan state " + stateName, true));
+        }
+        compressedBlockCache.ifPresent(tableConfig::setBlockCacheCompressed);
 
-        ColumnFamilyOptions configured = currentOptions
+        ColumnFamilyOptions configured = baseOptions
             // Write Path Config
-            .setWriteBufferSize(WRITE_BUFFER_SIZE)
             .setMaxWriteBufferNumber(MAX_WRITE_BUFFER_NUMBER)
             .setTargetFileSizeBase(TARGET_FILE_SIZE_BASE)
 
@@ -222,19 +493,45 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
 
             // Table Format Config
             .setTableFormatConfig(tableConfig);
-        applyFixedPrefixExtractorIfConfigured(configured);
+        profile.applyTo(configured, handlesToClose);
+        filterBudget.ifPresent(controller -> controller.applyTo(configured));
+        if (compressedBlockCache.isPresent() && !profile.hasCompression()) {
+            configured.setCompressionType(COMPRESSED_TIER_COMPRESSION);
+        }
+        LOG.debug("Column family options for state '{}': {}", stateName, profile);
         return configured;
     }
 
+    private boolean hasPerStateSettings() {
+        return !columnFamilyProfiles.stateProfiles().isEmpty()
+            || !CACHE_PARTITIONS.isEmpty()
+            || detectPrefixLength
+            || ADAPTIVE_INDEX_FILTER_PINNING;
+    }
+
     @Override
     public ReadOptions createReadOptions(
             ReadOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
+        // lets the shared cache quota and the scan admission policy turn off cache fills
+        RocksDBInstanceHandle.find(handlesToClose)
+            .ifPresent(instance -> instance.addReadOptions(currentOptions));
+        ScanReadaheadController.find(handlesToClose)
+            .ifPresent(controller -> controller.addReadOptions(currentOptions));
         // Keep iterators in prefix mode so seek/startBytes can leverage the fixed-length extractor.
         return currentOptions
                 .setPrefixSameAsStart(true)
                 .setTotalOrderSeek(false);
     }
 
+    private static Optional<Cache> findCache(Collection<AutoCloseable> handlesToClose, CacheRole role) {
+        return handlesToClose.stream()
+            .filter(CacheHandle.class::isInstance)
+            .map(CacheHandle.class::cast)
+            .filter(handle -> handle.role() == role)
+            .map(CacheHandle::cache)
+            .findFirst();
+    }
+
     private static BlockBasedTableConfig resolveBlockBasedTableConfig(ColumnFamilyOptions currentOptions) {
         TableFormatConfig config = currentOptions.tableFormatConfig();
         if (config == null) {
@@ -248,7 +545,40 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
                 + config.getClass().getName());
     }
 
-    private static MemoryLayout resolveMemoryLayout() {
+    // whether blob files are read through the page cache instead of with direct reads
+    private boolean blobPageCache(RocksDBInstanceHandle instance) {
+        if (!columnFamilyProfiles.hasBlobFiles() || !USE_DIRECT_READS) {
+            return false;
+        }
+        if (!BLOB_FILES_DISABLE_DIRECT_READS) {
+            LOG.warn(
+                "A state of RocksDB instance {} uses blob files, which RocksDB 6.20 cannot cache: with direct "
+                    + "reads every blob read goes to disk. Set BLOB_FILES_DISABLE_DIRECT_READS to read them "
+                    + "through the page cache.",
+                instance.id());
+            return false;
+        }
+        LOG.warn(
+            "Turning off direct reads for all column families of RocksDB instance {} because a state uses blob "
+                + "files; {} of the block cache budget is left to the page cache.",
+            instance.id(),
+            BLOB_PAGE_CACHE_BUDGET_FRACTION);
+        return true;
+    }
+
+    private static boolean shareBlockCacheAcrossSlots() {
+        if (!SHARE_BLOCK_CACHE_ACROSS_SLOTS) {
+            return false;
+        }
+        if (MEMORY_MODE == MemoryProvisioningMode.FLINK_MANAGED_ADAPTIVE_SPLIT) {
+            // the adaptive split sizes each instance separately, which a shared cache cannot honour
+            LOG.warn("Shared block cache is not supported with FLINK_MANAGED_ADAPTIVE_SPLIT; using per-instance caches.");
+            return false;
+        }
+        return true;
+    }
+
+    private MemoryLayout resolveMemoryLayout(RocksDBInstanceHandle instance) {
         switch (MEMORY_MODE) {
             case FLINK_MANAGED:
                 return buildFlinkManagedLayout(true);
@@ -258,18 +588,34 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
                 return buildFlinkManagedLayout(false);
             case MANUAL_INDEP:
                 return new MemoryLayout(
-                    MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
+                    manualBlockCacheCapacityBytes,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     false // manual mode size definition and keep block cache + WBM fully independent
                 );
             case MANUAL_CHARGED:
                 return new MemoryLayout(
-                    MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
+                    manualBlockCacheCapacityBytes,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     true // manual mode but WBM charges against the block cache
                 );
+            case FLINK_MANAGED_ADAPTIVE_SPLIT:
+                return buildFlinkManagedAdaptiveSplitLayout(instance);
+            case FLINK_MANAGED_COMPRESSED_TIER: {
+                long perSlotManagedBytes = ManagedMemoryIntrospector.resolve().perSlotManagedMemoryBytes();
+                return buildCompressedTierLayout(
+                    calculateFlinkBlockCacheCapacity(perSlotManagedBytes),
+                    DEFAULT_BLOCK_CACHE_SHARD_BITS,
+                    calculateFlinkWriteBufferManagerCapacity(perSlotManagedBytes));
+            }
+            case MANUAL_COMPRESSED_TIER:
+                return buildCompressedTierLayout(
+                    manualBlockCacheCapacityBytes,
+                    MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES);
         }
         throw new IllegalStateException();
     }
@@ -291,6 +637,7 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
         return new MemoryLayout(
             blockCacheCapacity,
             DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
             writeBufferCapacity,
             chargeWriteBuffersToCache // false means block cache + WBM operate independently
         );
@@ -314,11 +661,377 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
         return new MemoryLayout(
             blockCacheCapacity,
             DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
             writeBufferCapacity,
             chargeWriteBuffersToCache // false means block cache + WBM operate independently
         );
     }
 
+    private static MemoryLayout buildFlinkManagedAdaptiveSplitLayout(RocksDBInstanceHandle instance) {
+        FlinkManagedMemoryStats stats = ManagedMemoryIntrospector.resolve();
+        long perSlotManagedBytes = stats.perSlotManagedMemoryBytes();
+        String taskName = instance.taskName();
+        // a split learned under the unknown task name could come from any other task
+        double writeBufferRatio = instance.taskKnown()
+            ? MemorySplitController.learnedWriteBufferRatio(taskName, ADAPTIVE_SPLIT_INITIAL_WRITE_BUFFER_RATIO)
+            : ADAPTIVE_SPLIT_INITIAL_WRITE_BUFFER_RATIO;
+        long writeBufferCapacity = (long) (perSlotManagedBytes * writeBufferRatio);
+        LOG.info(
+            "Using adaptive memory split for task '{}': perSlot={} bytes, writeBufferRatio={}, blockCache={} bytes, wbm={} bytes",
+            taskName,
+            perSlotManagedBytes,
+            writeBufferRatio,
+            perSlotManagedBytes - writeBufferCapacity,
+            writeBufferCapacity);
+        return new MemoryLayout(
+            perSlotManagedBytes - writeBufferCapacity,
+            DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
+            writeBufferCapacity,
+            false // the split itself is the budget, so the WBM must not also charge the cache
+        );
+    }
+
+    private static void enableCachePartitionsIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            MemoryLayout layout,
+            Cache primaryCache,
+            long primaryCapacityBytes,
+            BlockCacheTraceSink blockCacheTrace) {
+        if (CACHE_PARTITIONS.isEmpty()) {
+            return;
+        }
+        ColumnFamilyCachePartitions partitions = new ColumnFamilyCachePartitions(
+            primaryCache,
+            primaryCapacityBytes,
+            layout.blockCacheCapacityBytes,
+            CACHE_PARTITIONS,
+            STATE_CACHE_PARTITIONS,
+            capacityBytes -> BlockCacheFactory.create(
+                layout.blockCacheImplementation,
+                capacityBytes,
+                -1,
+                BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
+                HIGH_PRIORITY_POOL_RATIO));
+        handlesToClose.add(partitions);
+        blockCacheTrace.addListener(partitions.traceListener());
+        partitions.registerMetrics(instance.metricGroup().addGroup("cache_partitions"));
+        instance.schedulePeriodically(partitions::refreshUsage, CACHE_PARTITION_USAGE_PERIOD_MS);
+    }
+
+    private static MemoryLayout buildCompressedTierLayout(
+            long blockCacheBudgetBytes, int blockCacheShardBits, long writeBufferCapacity) {
+        long compressedCapacity = (long) (blockCacheBudgetBytes * COMPRESSED_TIER_BUDGET_FRACTION);
+        LOG.info(
+            "Using compressed block cache tier: budget={} bytes, primary={} bytes, compressed={} bytes, wbm={} bytes",
+            blockCacheBudgetBytes,
+            blockCacheBudgetBytes - compressedCapacity,
+            compressedCapacity,
+            writeBufferCapacity);
+        return new MemoryLayout(
+            Math.max(blockCacheBudgetBytes - compressedCapacity, 1L),
+            blockCacheShardBits,
+            BLOCK_CACHE_IMPLEMENTATION,
+            compressedCapacity,
+            writeBufferCapacity,
+            false // the compressed tier already comes out of the cache budget; keep the WBM independent
+        );
+    }
+
+    private static void enableCompressedTierIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            MemoryLayout layout,
+            Statistics statistics) {
+        if (layout.compressedBlockCacheCapacityBytes <= 0) {
+            return;
+        }
+        Cache compressedCache = BlockCacheFactory.create(
+            BlockCacheFactory.Implementation.LRU,
+            layout.compressedBlockCacheCapacityBytes,
+            -1,
+            COMPRESSED_TIER_ESTIMATED_ENTRY_CHARGE_BYTES,
+            0.0);
+        handlesToClose.add(new CacheHandle(compressedCache, CacheRole.COMPRESSED));
+        CompressedTierStats stats = new CompressedTierStats(
+            compressedCache, layout.compressedBlockCacheCapacityBytes, statistics);
+        stats.registerMetrics(instance.metricGroup().addGroup("compressed_block_cache"));
+        instance.schedulePeriodically(stats, COMPRESSED_TIER_STATS_PERIOD_MS);
+    }
+
+    private static void enableAdaptiveIndexFilterPinningIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            long blockCacheCapacityBytes,
+            Statistics statistics) {
+        if (!ADAPTIVE_INDEX_FILTER_PINNING) {
+            return;
+        }
+        if (!instance.taskKnown()) {
+            LOG.warn(
+                "Adaptive index/filter pinning needs the task name (Task.getCurrentTaskOrNull of our Flink build) "
+                    + "to learn a policy per task; RocksDB instance {} starts from the initial policy and learns nothing.",
+                instance.id());
+        }
+        IndexFilterPinningController controller =
+            new IndexFilterPinningController(instance, blockCacheCapacityBytes, statistics);
+        handlesToClose.add(controller);
+        controller.registerMetrics(instance.metricGroup().addGroup("index_filter_policy"));
+        instance.schedulePeriodically(controller, INDEX_FILTER_PINNING_PERIOD_MS);
+    }
+
+    private static void enableFilterBudgetIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            long blockCacheCapacityBytes,
+            double initialBitsPerKey) {
+        if (!ENABLE_FILTER_BUDGET) {
+            return;
+        }
+        if (!instance.taskKnown()) {
+            LOG.warn(
+                "Filter budget needs the task name (Task.getCurrentTaskOrNull of our Flink build) to learn "
+                    + "decisions per task; RocksDB instance {} starts from {} bits/key and learns nothing.",
+                instance.id(),
+                initialBitsPerKey);
+        }
+        FilterBudgetController controller = new FilterBudgetController(
+            instance, (long) (blockCacheCapacityBytes * FILTER_BUDGET_FRACTION), initialBitsPerKey);
+        handlesToClose.add(controller);
+        controller.registerMetrics(instance.metricGroup().addGroup("filter_budget"));
+        instance.schedulePeriodically(controller, FILTER_BUDGET_PERIOD_MS);
+    }
+
+    // returns null when the thread budget is disabled
+    private static BackgroundThreadBudget enableBackgroundThreadBudgetIfConfigured(
+            RocksDBInstanceHandle instance, Collection<AutoCloseable> handlesToClose) {
+        if (!ENABLE_BACKGROUND_THREAD_BUDGET) {
+            return null;
+        }
+        if (!instance.taskKnown()) {
+            // without the task, slots cannot be told apart and loads would be learned across tasks
+            LOG.warn(
+                "Background thread budget needs the task (Task.getCurrentTaskOrNull of our Flink build); "
+                    + "RocksDB instance {} keeps max_background_jobs={}.",
+                instance.id(),
+                MAX_BACKGROUND_JOBS);
+            return null;
+        }
+        BackgroundThreadBudget budget = new BackgroundThreadBudget(
+            instance, ManagedMemoryIntrospector.resolve().cpuCores, BACKGROUND_THREAD_MIN_CORE_FRACTION);
+        handlesToClose.add(budget);
+        budget.registerMetrics(instance.metricGroup().addGroup("background_threads"));
+        instance.onAttach(budget::attached);
+        instance.schedulePeriodically(budget, BACKGROUND_THREAD_BUDGET_PERIOD_MS);
+        return budget;
+    }
+
+    private static void enableSharedRateLimiterIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            DBOptions options,
+            Statistics statistics) {
+        if (!ENABLE_SHARED_RATE_LIMITER) {
+            return;
+        }
+        SharedRateLimiterRegistry.Lease lease = SharedRateLimiterRegistry.acquire(
+            RATE_LIMITER_MIN_BYTES_PER_SEC, RATE_LIMITER_MAX_BYTES_PER_SEC, RATE_LIMITER_STALL_GUARD_PENDING_BYTES);
+        handlesToClose.add(lease);
+        options.setRateLimiter(lease.rateLimiter());
+        lease.track(instance, statistics, RATE_LIMITER_TUNING_PERIOD_MS);
+    }
+
+    private static void enableScanReadaheadIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            Statistics statistics) {
+        if (!ENABLE_SCAN_READAHEAD) {
+            return;
+        }
+        if (!instance.taskKnown()) {
+            LOG.warn(
+                "Scan readahead needs the task name (Task.getCurrentTaskOrNull of our Flink build) to learn a "
+                    + "readahead per task; RocksDB instance {} starts at readahead_size=0 and learns nothing.",
+                instance.id());
+        }
+        ScanReadaheadController controller = new ScanReadaheadController(instance, statistics);
+        handlesToClose.add(controller);
+        controller.registerMetrics(instance.metricGroup().addGroup("scan_readahead"));
+        instance.schedulePeriodically(controller, SCAN_READAHEAD_PERIOD_MS);
+    }
+
+    private static void enableScanAdmissionIfConfigured(RocksDBInstanceHandle instance, Statistics statistics) {
+        if (!ENABLE_SCAN_ADMISSION) {
+            return;
+        }
+        ScanAdmissionController controller = new ScanAdmissionController(
+            instance, statistics, SCAN_ADMISSION_MAX_BLOCKS_PER_ITERATOR * SCAN_ADMISSION_BLOCK_BYTES);
+        controller.registerMetrics(instance.metricGroup().addGroup("scan_admission"));
+        instance.schedulePeriodically(controller, SCAN_ADMISSION_PERIOD_MS);
+    }
+
+    private static void enableHistogramExportIfConfigured(RocksDBInstanceHandle instance, Statistics statistics) {
+        if (!ENABLE_HISTOGRAM_EXPORT) {
+            return;
+        }
+        if (!instance.reportsMetrics()) {
+            throw new IllegalStateException(
+                "Histogram export only reports through the task metric group, which needs "
+                    + "Task.getCurrentTaskOrNull() and Task.getMetricGroup() of our Flink build; "
+                    + "disable ENABLE_HISTOGRAM_EXPORT on this one.");
+        }
+        HistogramExporter.track(
+            instance,
+            statistics,
+            HistogramExporter.DEFAULT_HISTOGRAMS,
+            instance.metricGroup().addGroup("histograms"),
+            HISTOGRAM_EXPORT_PERIOD_MS);
+    }
+
+    private static void enableBlockCacheContentIfConfigured(
+            RocksDBInstanceHandle instance, Cache blockCache, BlockCacheTraceSink blockCacheTrace) {
+        if (!ENABLE_BLOCK_CACHE_CONTENT) {
+            return;
+        }
+        BlockCacheContentCollector collector = new BlockCacheContentCollector(
+            instance, blockCache.getNativeHandle(), instance.metricGroup().addGroup("block_cache_content"));
+        collector.registerMetrics();
+        if (BLOCK_CACHE_CONTENT_PER_COLUMN_FAMILY) {
+            blockCacheTrace.addListener(collector.traceListener());
+        }
+        instance.schedulePeriodically(collector, BLOCK_CACHE_CONTENT_PERIOD_MS);
+    }
+
+    private static void enableNativeMemoryVerifierIfConfigured(
+            RocksDBInstanceHandle instance,
+            Collection<AutoCloseable> handlesToClose,
+            MemoryLayout layout,
+            Cache blockCache) {
+        if (!ENABLE_NATIVE_MEMORY_VERIFIER) {
+            return;
+        }
+        List<Cache> caches = new ArrayList<>();
+        caches.add(blockCache);
+        findCache(handlesToClose, CacheRole.COMPRESSED).ifPresent(caches::add);
+        ColumnFamilyCachePartitions.find(handlesToClose)
+            .ifPresent(partitions -> caches.addAll(partitions.dedicatedCaches()));
+        NativeMemoryVerifier.track(
+            instance,
+            caches,
+            layout.blockCacheCapacityBytes + layout.compressedBlockCacheCapacityBytes,
+            layout.writeBufferManagerCapacityBytes,
+            layout.chargeWriteBuffersToCache,
+            ManagedMemoryIntrospector.resolve().perSlotManagedMemoryBytes(),
+            NATIVE_MEMORY_VERIFIER_PERIOD_MS);
+    }
+
+    private static ShardsMrcEstimator enableShardsMrcIfConfigured(
+            RocksDBInstanceHandle instance, MemoryLayout layout, BlockCacheTraceSink blockCacheTrace) {
+        if (!ENABLE_SHARDS_MRC) {
+            return null;
+        }
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(
+            SHARDS_MODE,
+            SHARDS_SAMPLING_RATE,
+            SHARDS_MAX_SAMPLES,
+            SHARDS_BUCKET_BYTES,
+            SHARDS_MAX_CACHE_BYTES);
+        blockCacheTrace.addListener(access -> {
+            if (!SHARDS_DATA_USER_ACCESSES_ONLY || (access.isDataBlock() && access.isUserAccess())) {
+                estimator.recordAccess(access.keyHash(), access.blockSize());
+            }
+        });
+        registerShardsMrcMetrics(
+            instance.metricGroup().addGroup("shards_mrc"), estimator, layout.blockCacheCapacityBytes);
+        return estimator;
+    }
+
+    private static void startBlockCacheTrace(
+            RocksDBInstanceHandle instance, RocksDB db, AbstractTraceWriter traceWriter) {
+        // startBlockCacheTrace is the binding our frocksdb build adds for block-cache-trace.*;
+        // RocksDB tears the tracer down itself when the DB closes
+        try {
+            Method start = RocksDB.class.getMethod(
+                "startBlockCacheTrace", TraceOptions.class, AbstractTraceWriter.class);
+            start.invoke(db, new TraceOptions(), traceWriter);
+            LOG.info("Started in-memory block cache trace for RocksDB instance {}.", instance.id());
+        } catch (NoSuchMethodException e) {
+            LOG.warn("RocksDB build has no startBlockCacheTrace binding; SHARDS MRC and partition hit stats stay empty.");
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Failed to start block cache trace for RocksDB instance {}.", instance.id(), e);
+        }
+    }
+
+    private static void registerShardsMrcMetrics(
+            MetricGroup group, ShardsMrcEstimator estimator, long blockCacheCapacityBytes) {
+        group.gauge("samplingRate", (Gauge<Double>) estimator::samplingRate);
+        group.gauge("trackedSamples", (Gauge<Integer>) estimator::trackedSamples);
+        group.gauge("sampledAccesses", (Gauge<Long>) estimator::sampledAccesses);
+        group.gauge("totalAccesses", (Gauge<Long>) estimator::totalAccesses);
+        group.gauge("currentMissRatio", (Gauge<Double>) () -> estimator.missRatio(blockCacheCapacityBytes));
+        for (double factor : SHARDS_REPORTED_CAPACITY_FACTORS) {
+            long capacityBytes = (long) (blockCacheCapacityBytes * factor);
+            group.addGroup("cache_mb", String.valueOf(capacityBytes / (1024 * 1024)))
+                .gauge("missRatio", (Gauge<Double>) () -> estimator.missRatio(capacityBytes));
+        }
+    }
+
+    private static void enableAdaptiveMemorySplitIfConfigured(
+            RocksDBInstanceHandle instance,
+            MemoryLayout layout,
+            Statistics statistics,
+            ShardsMrcEstimator mrcEstimator) {
+        if (MEMORY_MODE != MemoryProvisioningMode.FLINK_MANAGED_ADAPTIVE_SPLIT) {
+            return;
+        }
+        if (!instance.taskKnown()) {
+            LOG.warn(
+                "Adaptive memory split needs the task name (Task.getCurrentTaskOrNull of our Flink build) to "
+                    + "learn a split per task; RocksDB instance {} keeps the initial write buffer ratio {}.",
+                instance.id(),
+                ADAPTIVE_SPLIT_INITIAL_WRITE_BUFFER_RATIO);
+            return;
+        }
+        long budgetBytes = layout.blockCacheCapacityBytes + layout.writeBufferManagerCapacityBytes;
+        MemorySplitController controller = new MemorySplitController(
+            instance.taskName(),
+            budgetBytes,
+            (double) layout.writeBufferManagerCapacityBytes / budgetBytes,
+            statistics,
+            mrcEstimator);
+        controller.registerMetrics(instance.metricGroup().addGroup("memory_split"));
+        instance.schedulePeriodically(controller, ADAPTIVE_SPLIT_CONTROL_PERIOD_MS);
+    }
+
+    private static void enableThroughputModelIfConfigured(
+            RocksDBInstanceHandle instance,
+            MemoryLayout layout,
+            Statistics statistics,
+            ShardsMrcEstimator mrcEstimator) {
+        if (!ENABLE_THROUGHPUT_MODEL) {
+            return;
+        }
+        if (mrcEstimator == null) {
+            LOG.warn("Throughput model needs the SHARDS MRC; set ENABLE_SHARDS_MRC to use it.");
+            return;
+        }
+        if (!instance.taskIoMetrics().isPresent()) {
+            // without idle and back-pressured time, idle time would be calibrated as cost per operation
+            LOG.warn(
+                "Throughput model needs the task IO metrics (Task.getMetricGroup of our Flink build); "
+                    + "disabled for RocksDB instance {}.",
+                instance.id());
+            return;
+        }
+        ThroughputModelMonitor monitor = new ThroughputModelMonitor(
+            instance,
+            mrcEstimator, statistics, layout.blockCacheCapacityBytes, THROUGHPUT_MODEL_DISK_READ_IOPS);
+        monitor.registerMetrics(
+            instance.metricGroup().addGroup("throughput_model"), SHARDS_REPORTED_CAPACITY_FACTORS);
+        instance.schedulePeriodically(monitor, THROUGHPUT_MODEL_PERIOD_MS);
+    }
+
     private static void enableStatsDump(DBOptions options) {
         if (!ENABLE_STATS_DUMP) {
             return;
@@ -344,33 +1057,43 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
         return (long) ((2 * sanitized * WRITE_BUFFER_RATIO) / 3);
     }
 
-    private static void applyFixedPrefixExtractorIfConfigured(ColumnFamilyOptions options) {
-        if (FIXED_PREFIX_BYTES <= 0) {
+    private void enablePrefixLengthDetection(RocksDBInstanceHandle instance) {
+        if (!instance.taskKnown()) {
+            // the store outlives the job: a length kept under the unknown task name would reach any other task
+            LOG.warn(
+                "Prefix length detection needs the task name (Task.getCurrentTaskOrNull of our Flink build); "
+                    + "RocksDB instance {} keeps whole-key filtering and no prefix extractor.",
+                instance.id());
             return;
         }
-        LOG.info("Enabling fixed-length prefix extractor ({} bytes) for q9_unique state CFs.", FIXED_PREFIX_BYTES);
-        options.useFixedLengthPrefixExtractor(FIXED_PREFIX_BYTES);
-        options.setOptimizeFiltersForHits(true);
+        // samples flushed keys; the result is used by the column families of the next instance
+        instance.addListener(new PrefixLengthDetector(instance.taskName(), prefixLengthStoreFile));
     }
 
-    private static void applyBloomFilterIfConfigured(
-            BlockBasedTableConfig tableConfig,
-            Collection<AutoCloseable> handlesToClose) {
-        if (BLOOM_FILTER_BITS_PER_KEY <= 0) {
-            return;
-        }
-        BloomFilter bloomFilter = new BloomFilter(BLOOM_FILTER_BITS_PER_KEY, false);
-        handlesToClose.add(bloomFilter);
-        tableConfig.setFilterPolicy(bloomFilter);
+    // Until a length is detected the state gets no extractor: a wrong guess breaks prefix iterators.
+    private ColumnFamilyProfiles.Profile applyDetectedPrefixLength(
+            ColumnFamilyProfiles.Profile profile,
+            Collection<AutoCloseable> handlesToClose,
+            String stateName) {
+        int length = RocksDBInstanceHandle.find(handlesToClose)
+            .filter(RocksDBInstanceHandle::taskKnown)
+            .map(instance -> PrefixLengthDetector.detectedLength(prefixLengthStoreFile, instance.taskName(), stateName))
+            .orElse(OptionalInt.empty())
+            .orElse(0);
+        return profile
+            .with("fixed-prefix-bytes", String.valueOf(length))
+            .with("whole-key-filtering", String.valueOf(length <= 0));
     }
 
     private static final class FlinkManagedMemoryStats {
         private final long totalManagedMemoryBytes;
         private final int taskSlotsPerTm;
+        private final double cpuCores;
 
-        private FlinkManagedMemoryStats(long totalManagedMemoryBytes, int taskSlotsPerTm) {
+        private FlinkManagedMemoryStats(long totalManagedMemoryBytes, int taskSlotsPerTm, double cpuCores) {
             this.totalManagedMemoryBytes = totalManagedMemoryBytes;
             this.taskSlotsPerTm = Math.max(taskSlotsPerTm, 1);
+            this.cpuCores = cpuCores > 0 ? cpuCores : this.taskSlotsPerTm;
         }
 
         private long perSlotManagedMemoryBytes() {
@@ -404,6 +1127,8 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
                     TaskExecutorProcessUtils.processSpecFromConfig(configuration);
                 long totalManaged = spec.getManagedMemorySize().getBytes();
                 int slots = spec.getNumSlots();
+                // taskmanager.cpu.cores, which defaults to the slot count
+                double cpuCores = spec.getCpuCores().getValue().doubleValue();
                 if (totalManaged <= 0 || slots <= 0) {
                     LOG.warn(
                         "Invalid managed memory detection (total={}, slots={}), falling back to defaults.",
@@ -412,10 +1137,11 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
                     return fallbackStats();
                 }
                 LOG.info(
-                    "Detected managed memory from Flink configuration: total={} bytes, slots={}",
+                    "Detected managed memory from Flink configuration: total={} bytes, slots={}, cores={}",
                     totalManaged,
-                    slots);
-                return new FlinkManagedMemoryStats(totalManaged, slots);
+                    slots,
+                    cpuCores);
+                return new FlinkManagedMemoryStats(totalManaged, slots, cpuCores);
             } catch (Throwable t) {
                 LOG.warn(
                     "Unable to determine Flink managed memory from configuration, falling back to defaults.",
@@ -434,48 +1160,127 @@ public class CustomRocksDBOptionsFactory implements RocksDBOptionsFactory {
 
         private static FlinkManagedMemoryStats fallbackStats() {
             return new FlinkManagedMemoryStats(
-                FALLBACK_TOTAL_MANAGED_MEMORY_BYTES, FALLBACK_TASK_SLOTS_PER_TM);
+                FALLBACK_TOTAL_MANAGED_MEMORY_BYTES, FALLBACK_TASK_SLOTS_PER_TM, FALLBACK_TASK_SLOTS_PER_TM);
         }
     }
 
     private static final class MemoryLayout {
         private final long blockCacheCapacityBytes;
         private final int blockCacheShardBits;
+        private final BlockCacheFactory.Implementation blockCacheImplementation;
+        // 0 means no compressed tier
+        private final long compressedBlockCacheCapacityBytes;
         private final long writeBufferManagerCapacityBytes;
         private final boolean chargeWriteBuffersToCache;
 
         private MemoryLayout(
                 long blockCacheCapacityBytes,
                 int blockCacheShardBits,
+                BlockCacheFactory.Implementation blockCacheImplementation,
+                long writeBufferManagerCapacityBytes,
+                boolean chargeWriteBuffersToCache) {
+            this(
+                blockCacheCapacityBytes,
+                blockCacheShardBits,
+                blockCacheImplementation,
+                0L,
+                writeBufferManagerCapacityBytes,
+                chargeWriteBuffersToCache);
+        }
+
+        private MemoryLayout(
+                long blockCacheCapacityBytes,
+                int blockCacheShardBits,
+                BlockCacheFactory.Implementation blockCacheImplementation,
+                long compressedBlockCacheCapacityBytes,
                 long writeBufferManagerCapacityBytes,
                 boolean chargeWriteBuffersToCache) {
             this.blockCacheCapacityBytes = blockCacheCapacityBytes;
             this.blockCacheShardBits = blockCacheShardBits;
+            this.blockCacheImplementation = blockCacheImplementation;
+            this.compressedBlockCacheCapacityBytes = compressedBlockCacheCapacityBytes;
             this.writeBufferManagerCapacityBytes = writeBufferManagerCapacityBytes;
             this.chargeWriteBuffersToCache = chargeWriteBuffersToCache;
         }
     }
 
+    private enum CacheRole {
+        PRIMARY,
+        // LRUCache(1) the WBM charges when it is independent of the block cache
+        WRITE_BUFFER_CHARGE,
+        COMPRESSED
+    }
+
     private static final class CacheHandle implements AutoCloseable {
         private final Cache cache;
-        private final boolean primary;
+        private final CacheRole role;
+        private final boolean owned;
 
-        private CacheHandle(Cache cache, boolean primary) {
+        private CacheHandle(Cache cache, CacheRole role) {
+            this(cache, role, true);
+        }
+
+        private CacheHandle(Cache cache, CacheRole role, boolean owned) {
             this.cache = cache;
-            this.primary = primary;
+            this.role = role;
+            this.owned = owned;
         }
 
         private Cache cache() {
             return cache;
         }
 
-        private boolean isPrimary() {
-            return primary;
+        private CacheRole role() {
+            return role;
         }
 
         @Override
         public void close() {
-            cache.close();
+            if (owned) {
+                cache.close();
+            }
+        }
+    }
+
+    // Polls the compressed tier; gauges only read these fields, never the native cache or statistics.
+    private static final class CompressedTierStats implements Runnable {
+        private final Cache cache;
+        private final long capacityBytes;
+        private final Statistics statistics;
+
+        private volatile long usageBytes;
+        private volatile long hits;
+        private volatile long misses;
+        private volatile long adds;
+        private volatile long addFailures;
+
+        private CompressedTierStats(Cache cache, long capacityBytes, Statistics statistics) {
+            this.cache = cache;
+            this.capacityBytes = capacityBytes;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void run() {
+            usageBytes = cache.getUsage();
+            hits = statistics.getTickerCount(TickerType.BLOCK_CACHE_COMPRESSED_HIT);
+            misses = statistics.getTickerCount(TickerType.BLOCK_CACHE_COMPRESSED_MISS);
+            adds = statistics.getTickerCount(TickerType.BLOCK_CACHE_COMPRESSED_ADD);
+            addFailures = statistics.getTickerCount(TickerType.BLOCK_CACHE_COMPRESSED_ADD_FAILURES);
+        }
+
+        private void registerMetrics(MetricGroup group) {
+            group.gauge("capacityBytes", (Gauge<Long>) () -> capacityBytes);
+            group.gauge("usageBytes", (Gauge<Long>) () -> usageBytes);
+            group.gauge("hits", (Gauge<Long>) () -> hits);
+            group.gauge("misses", (Gauge<Long>) () -> misses);
+            group.gauge("inserts", (Gauge<Long>) () -> adds);
+            group.gauge("insertFailures", (Gauge<Long>) () -> addFailures);
+            group.gauge("hitRatio", (Gauge<Double>) () -> {
+                long h = hits;
+                long total = h + misses;
+                return total == 0 ? 0.0 : (double) h / total;
+            });
         }
     }
 }
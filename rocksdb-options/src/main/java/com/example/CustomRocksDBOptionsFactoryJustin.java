@@ -40,6 +40,11 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
     private static final double HIGH_PRIORITY_POOL_RATIO = 0.1;
     // numShardBits = -1 means it is automatically determined: every shard will be at least 512KB and number of shard bits will not exceed 6
     private static final int DEFAULT_BLOCK_CACHE_SHARD_BITS = 2;
+    // LRU or CLOCK (ClockCache; falls back to LRU when the RocksDB build lacks it)
+    private static final BlockCacheFactory.Implementation BLOCK_CACHE_IMPLEMENTATION =
+        BlockCacheFactory.Implementation.LRU;
+    // expected charge of one cached block; sizes the shards when shard bits are set to -1
+    private static final long BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES = 8L * 1024;
 
     // fallback config values used when we cannot discover real TaskExecutor settings
     private static final long FALLBACK_TOTAL_FLINK_MEMORY_BYTES = (long) (3.35 * 1024 * 1024 * 1024L);
@@ -93,10 +98,11 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
     public DBOptions createDBOptions(DBOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
         MemoryLayout layout = resolveMemoryLayout();
 
-        Cache blockCache = new LRUCache(
+        Cache blockCache = BlockCacheFactory.create(
+            layout.blockCacheImplementation,
             layout.blockCacheCapacityBytes,
             layout.blockCacheShardBits,
-            false,
+            BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
             HIGH_PRIORITY_POOL_RATIO
         );
         handlesToClose.add(new CacheHandle(blockCache, true));
@@ -220,6 +226,7 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
                 return new MemoryLayout(
                     MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     false // manual mode size definition and keep block cache + WBM fully independent
                 );
@@ -227,6 +234,7 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
                 return new MemoryLayout(
                     MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     true // manual mode but WBM charges against the block cache
                 );
@@ -251,6 +259,7 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
             return new MemoryLayout(
                 blockCacheCapacity,
                 DEFAULT_BLOCK_CACHE_SHARD_BITS,
+                BLOCK_CACHE_IMPLEMENTATION,
                 writeBufferCapacity,
                 chargeWriteBuffersToCache
             );
@@ -272,6 +281,7 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
         return new MemoryLayout(
             blockCacheCapacity,
             DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
             writeBufferCapacity,
             chargeWriteBuffersToCache // false means block cache + WBM operate independently
         );
@@ -403,16 +413,19 @@ public class CustomRocksDBOptionsFactoryJustin implements RocksDBOptionsFactory
     private static final class MemoryLayout {
         private final long blockCacheCapacityBytes;
         private final int blockCacheShardBits;
+        private final BlockCacheFactory.Implementation blockCacheImplementation;
         private final long writeBufferManagerCapacityBytes;
         private final boolean chargeWriteBuffersToCache;
 
         private MemoryLayout(
                 long blockCacheCapacityBytes,
                 int blockCacheShardBits,
+                BlockCacheFactory.Implementation blockCacheImplementation,
                 long writeBufferManagerCapacityBytes,
                 boolean chargeWriteBuffersToCache) {
             this.blockCacheCapacityBytes = blockCacheCapacityBytes;
             this.blockCacheShardBits = blockCacheShardBits;
+            this.blockCacheImplementation = blockCacheImplementation;
             this.writeBufferManagerCapacityBytes = writeBufferManagerCapacityBytes;
             this.chargeWriteBuffersToCache = chargeWriteBuffersToCache;
         }
@@ -43,6 +43,11 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
     private static final double HIGH_PRIORITY_POOL_RATIO = 0.1;
     // numShardBits = -1 means it is automatically determined: every shard will be at least 512KB and number of shard bits will not exceed 6
     private static final int DEFAULT_BLOCK_CACHE_SHARD_BITS = 6;
+    // LRU or CLOCK (ClockCache; falls back to LRU when the RocksDB build lacks it)
+    private static final BlockCacheFactory.Implementation BLOCK_CACHE_IMPLEMENTATION =
+        BlockCacheFactory.Implementation.LRU;
+    // expected charge of one cached block; sizes the shards when shard bits are set to -1
+    private static final long BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES = 8L * 1024;
 
     // For FINAL_EXPERIMENTS: keep write-path budget fixed and size only the block cache from the current slot.
     private static final long FLINK_MANAGED_FINAL_WRITE_BUFFER_CAPACITY_BYTES = 92L * 1024 * 1024;
@@ -101,10 +106,11 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
     public DBOptions createDBOptions(DBOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
         MemoryLayout layout = resolveMemoryLayout();
 
-        Cache blockCache = new LRUCache(
+        Cache blockCache = BlockCacheFactory.create(
+            layout.blockCacheImplementation,
             layout.blockCacheCapacityBytes,
             layout.blockCacheShardBits,
-            false,
+            BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
             HIGH_PRIORITY_POOL_RATIO
         );
         handlesToClose.add(new CacheHandle(blockCache, true));
@@ -239,6 +245,7 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
                 return new MemoryLayout(
                     MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     false
                 );
@@ -246,6 +253,7 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
                 return new MemoryLayout(
                     MANUAL_BLOCK_CACHE_CAPACITY_BYTES,
                     MANUAL_BLOCK_CACHE_SHARD_BITS,
+                    BLOCK_CACHE_IMPLEMENTATION,
                     MANUAL_WRITE_BUFFER_MANAGER_CAPACITY_BYTES,
                     true
                 );
@@ -270,6 +278,7 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
         return new MemoryLayout(
             blockCacheCapacity,
             DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
             writeBufferCapacity,
             chargeWriteBuffersToCache
         );
@@ -303,6 +312,7 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
         return new MemoryLayout(
             blockCacheCapacity,
             DEFAULT_BLOCK_CACHE_SHARD_BITS,
+            BLOCK_CACHE_IMPLEMENTATION,
             FLINK_MANAGED_FINAL_WRITE_BUFFER_CAPACITY_BYTES,
             chargeWriteBuffersToCache
         );
@@ -538,16 +548,19 @@ public class CustomRocksDBOptionsFactoryKubernetesJustin implements RocksDBOptio
     private static final class MemoryLayout {
         private final long blockCacheCapacityBytes;
         private final int blockCacheShardBits;
+        private final BlockCacheFactory.Implementation blockCacheImplementation;
         private final long writeBufferManagerCapacityBytes;
         private final boolean chargeWriteBuffersToCache;
 
         private MemoryLayout(
                 long blockCacheCapacityBytes,
                 int blockCacheShardBits,
+                BlockCacheFactory.Implementation blockCacheImplementation,
                 long writeBufferManagerCapacityBytes,
                 boolean chargeWriteBuffersToCache) {
             this.blockCacheCapacityBytes = blockCacheCapacityBytes;
             this.blockCacheShardBits = blockCacheShardBits;
+            this.blockCacheImplementation = blockCacheImplementation;
             this.writeBufferManagerCapacityBytes = writeBufferManagerCapacityBytes;
             this.chargeWriteBuffersToCache = chargeWriteBuffersToCache;
         }
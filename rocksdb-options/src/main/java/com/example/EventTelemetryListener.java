@@ -0,0 +1,253 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.AbstractEventListener;
+import org.rocksdb.BackgroundErrorReason;
+import org.rocksdb.CompactionJobInfo;
+import org.rocksdb.CompactionJobStats;
+import org.rocksdb.CompactionReason;
+import org.rocksdb.FlushJobInfo;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Status;
+import org.rocksdb.WriteStallCondition;
+import org.rocksdb.WriteStallInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flush, compaction, write stall and background error telemetry of one RocksDB instance, from RocksDB's
+ * event callbacks instead of the native LOG. Callbacks run on RocksDB's background threads and only bump
+ * lock-free counters and histograms (the write stall clock locks, stall changes are rare). Metric groups
+ * for a column family or compaction reason are created the first time one shows up.
+ *
+ * <p>Per column family it publishes flush count, bytes and duration, the flushes that triggered a write
+ * slowdown or stop, and the time spent delayed and stopped (including a stall that is still on). Per
+ * column family and compaction reason it publishes compaction count, failures, input/output bytes and
+ * duration. FlushJobInfo has no duration, so flushes are timed from onFlushBegin by job id.
+ */
+final class EventTelemetryListener extends AbstractEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventTelemetryListener.class);
+
+    private final MetricGroup group;
+    private final Map<String, ColumnFamilyEvents> columnFamilies = new ConcurrentHashMap<>();
+    private final Map<String, CompactionEvents> compactions = new ConcurrentHashMap<>();
+    private final Map<BackgroundErrorReason, LongAdder> backgroundErrors = new ConcurrentHashMap<>();
+    // job id -> System.nanoTime() at onFlushBegin
+    private final Map<Integer, Long> runningFlushes = new ConcurrentHashMap<>();
+
+    EventTelemetryListener(MetricGroup group) {
+        super(
+            EnabledEventCallback.ON_FLUSH_BEGIN,
+            EnabledEventCallback.ON_FLUSH_COMPLETED,
+            EnabledEventCallback.ON_COMPACTION_COMPLETED,
+            EnabledEventCallback.ON_STALL_CONDITIONS_CHANGED,
+            EnabledEventCallback.ON_BACKGROUND_ERROR);
+        this.group = group;
+    }
+
+    @Override
+    public void onFlushBegin(RocksDB db, FlushJobInfo flushJobInfo) {
+        runningFlushes.put(flushJobInfo.getJobId(), System.nanoTime());
+    }
+
+    @Override
+    public void onFlushCompleted(RocksDB db, FlushJobInfo flushJobInfo) {
+        ColumnFamilyEvents events = columnFamily(flushJobInfo.getColumnFamilyName());
+        events.flushes.increment();
+        events.flushBytes.add(flushJobInfo.getTableProperties().getDataSize());
+        if (flushJobInfo.isTriggeredWritesSlowdown()) {
+            events.flushesTriggeringSlowdown.increment();
+        }
+        if (flushJobInfo.isTriggeredWritesStop()) {
+            events.flushesTriggeringStop.increment();
+        }
+        Long begin = runningFlushes.remove(flushJobInfo.getJobId());
+        if (begin != null) {
+            events.flushMillis.record((System.nanoTime() - begin) / 1_000_000);
+        }
+    }
+
+    @Override
+    public void onCompactionCompleted(RocksDB db, CompactionJobInfo compactionJobInfo) {
+        // unlike FlushJobInfo, RocksJava 6.20 hands out the column family name as raw bytes
+        String columnFamily = new String(compactionJobInfo.columnFamilyName(), StandardCharsets.UTF_8);
+        CompactionEvents events = compaction(columnFamily, compactionJobInfo.compactionReason());
+        events.compactions.increment();
+        if (compactionJobInfo.status() != null && compactionJobInfo.status().getCode() != Status.Code.Ok) {
+            events.failed.increment();
+        }
+        // a fresh native copy per call, so fetch it once
+        CompactionJobStats stats = compactionJobInfo.stats();
+        if (stats == null) {
+            return;
+        }
+        try (stats) {
+            events.inputBytes.add(stats.totalInputBytes());
+            events.outputBytes.add(stats.totalOutputBytes());
+            events.millis.record(stats.elapsedMicros() / 1_000);
+        }
+    }
+
+    @Override
+    public void onStallConditionsChanged(WriteStallInfo writeStallInfo) {
+        columnFamily(writeStallInfo.getColumnFamilyName()).stallChanged(writeStallInfo.getCurrentCondition());
+    }
+
+    @Override
+    public void onBackgroundError(BackgroundErrorReason reason, Status backgroundError) {
+        backgroundErrors.computeIfAbsent(reason, r -> {
+            LongAdder errors = new LongAdder();
+            group.addGroup("background_error", r.name().toLowerCase(Locale.ROOT))
+                .gauge("errors", (Gauge<Long>) errors::sum);
+            return errors;
+        }).increment();
+        LOG.warn(
+            "RocksDB background error during {}: {}",
+            reason,
+            backgroundError == null ? "unknown" : backgroundError.getCodeString() + " " + backgroundError.getState());
+    }
+
+    private ColumnFamilyEvents columnFamily(String name) {
+        return columnFamilies.computeIfAbsent(name, n -> new ColumnFamilyEvents(group.addGroup("column_family", n)));
+    }
+
+    private CompactionEvents compaction(String columnFamily, CompactionReason reason) {
+        String reasonName = reason == null ? "unknown" : reason.name().toLowerCase(Locale.ROOT);
+        return compactions.computeIfAbsent(
+            columnFamily + '/' + reasonName,
+            key -> new CompactionEvents(
+                columnFamily(columnFamily).group.addGroup("compaction_reason", reasonName)));
+    }
+
+    private static final class ColumnFamilyEvents {
+        private final MetricGroup group;
+        private final LongAdder flushes = new LongAdder();
+        private final LongAdder flushBytes = new LongAdder();
+        private final LongAdder flushesTriggeringSlowdown = new LongAdder();
+        private final LongAdder flushesTriggeringStop = new LongAdder();
+        private final LatencyHistogram flushMillis = new LatencyHistogram();
+        private final LongAdder stallTransitions = new LongAdder();
+
+        // stall transitions are rare, so the stall clock simply locks
+        private WriteStallCondition condition = WriteStallCondition.NORMAL;
+        private long conditionSinceNanos = System.nanoTime();
+        private long delayedNanos;
+        private long stoppedNanos;
+
+        private ColumnFamilyEvents(MetricGroup group) {
+            this.group = group;
+            group.gauge("flushes", (Gauge<Long>) flushes::sum);
+            group.gauge("flushBytes", (Gauge<Long>) flushBytes::sum);
+            group.gauge("flushesTriggeringSlowdown", (Gauge<Long>) flushesTriggeringSlowdown::sum);
+            group.gauge("flushesTriggeringStop", (Gauge<Long>) flushesTriggeringStop::sum);
+            flushMillis.registerMetrics(group.addGroup("flush_millis"));
+            group.gauge("stallTransitions", (Gauge<Long>) stallTransitions::sum);
+            // 0 normal, 1 delayed, 2 stopped
+            group.gauge("stallCondition", (Gauge<Integer>) this::stallConditionCode);
+            group.gauge("delayedMillis", (Gauge<Long>) () -> stallMillis(WriteStallCondition.DELAYED));
+            group.gauge("stoppedMillis", (Gauge<Long>) () -> stallMillis(WriteStallCondition.STOPPED));
+        }
+
+        private synchronized void stallChanged(WriteStallCondition next) {
+            long now = System.nanoTime();
+            long elapsed = now - conditionSinceNanos;
+            if (condition == WriteStallCondition.DELAYED) {
+                delayedNanos += elapsed;
+            } else if (condition == WriteStallCondition.STOPPED) {
+                stoppedNanos += elapsed;
+            }
+            conditionSinceNanos = now;
+            condition = next;
+            stallTransitions.increment();
+        }
+
+        private synchronized int stallConditionCode() {
+            return condition == WriteStallCondition.STOPPED ? 2 : condition == WriteStallCondition.DELAYED ? 1 : 0;
+        }
+
+        private synchronized long stallMillis(WriteStallCondition of) {
+            long total = of == WriteStallCondition.DELAYED ? delayedNanos : stoppedNanos;
+            if (condition == of) {
+                total += System.nanoTime() - conditionSinceNanos;
+            }
+            return total / 1_000_000;
+        }
+    }
+
+    private static final class CompactionEvents {
+        private final LongAdder compactions = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder inputBytes = new LongAdder();
+        private final LongAdder outputBytes = new LongAdder();
+        private final LatencyHistogram millis = new LatencyHistogram();
+
+        private CompactionEvents(MetricGroup group) {
+            group.gauge("compactions", (Gauge<Long>) compactions::sum);
+            group.gauge("failed", (Gauge<Long>) failed::sum);
+            group.gauge("inputBytes", (Gauge<Long>) inputBytes::sum);
+            group.gauge("outputBytes", (Gauge<Long>) outputBytes::sum);
+            millis.registerMetrics(group.addGroup("duration_millis"));
+        }
+    }
+
+    /**
+     * Lock-free histogram with power-of-two buckets. Percentiles are the upper bound of the bucket they
+     * fall in, so they are accurate to a factor of two; enough to tell a 50 ms flush from a 2 s one.
+     */
+    static final class LatencyHistogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        void record(long value) {
+            long v = Math.max(value, 0L);
+            // 0 -> bucket 0, [2^(i-1), 2^i) -> bucket i
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        long percentile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0L : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void registerMetrics(MetricGroup group) {
+            group.gauge("count", (Gauge<Long>) count::sum);
+            group.gauge("sum", (Gauge<Long>) sum::sum);
+            group.gauge("p50", (Gauge<Long>) () -> percentile(0.5));
+            group.gauge("p99", (Gauge<Long>) () -> percentile(0.99));
+            group.gauge("max", (Gauge<Long>) max::get);
+        }
+    }
+}
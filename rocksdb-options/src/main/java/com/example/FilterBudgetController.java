@@ -0,0 +1,172 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.RocksDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sizes the bloom filters of one RocksDB instance from a filter-memory budget carved out of its block
+ * cache. Filters are cached (so they are charged to the cache) and built with the format_version 5 bloom
+ * and optimize_filters_for_memory. Bits per key are the budget spread over the estimated key count. When
+ * that drops below {@link #MIN_BITS_PER_KEY}, the bottom level goes without filters
+ * (optimize_filters_for_hits): it holds most of the keys, and a lookup reaching it usually hits. The
+ * upper levels then get the budget, which keeps the negative-lookup savings of join probes.
+ *
+ * <p>Like {@link IndexFilterPinningController}, table options cannot change on an open column family, so
+ * a decision applies to column families created later and is remembered per task for the next instance.
+ * Instances whose task is unknown ({@link RocksDBInstanceHandle#taskKnown}) neither use nor remember one.
+ */
+final class FilterBudgetController implements Runnable, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilterBudgetController.class);
+
+    private static final double MIN_BITS_PER_KEY = 5.0;
+    private static final double MAX_BITS_PER_KEY = 16.0;
+    // share of the keys in the bottom level of a leveled LSM with the default 10x level multiplier
+    private static final double BOTTOM_LEVEL_KEY_SHARE = 0.9;
+    private static final int FILTER_FORMAT_VERSION = 5;
+    private static final long MIN_KEYS_FOR_DECISION = 10_000L;
+
+    static final class Decision {
+        private final double bitsPerKey;
+        private final boolean skipBottomLevel;
+
+        Decision(double bitsPerKey, boolean skipBottomLevel) {
+            this.bitsPerKey = bitsPerKey;
+            this.skipBottomLevel = skipBottomLevel;
+        }
+
+        double bitsPerKey() {
+            return bitsPerKey;
+        }
+
+        boolean skipBottomLevel() {
+            return skipBottomLevel;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f bits/key%s", bitsPerKey, skipBottomLevel ? ", no bottom-level filters" : "");
+        }
+    }
+
+    private static final Map<String, Decision> LEARNED_DECISIONS = new ConcurrentHashMap<>();
+
+    private final RocksDBInstanceHandle instance;
+    private final long budgetBytes;
+    private final boolean learns;
+
+    private volatile Decision decision;
+    private volatile long estimatedKeys;
+
+    /** @param initialBitsPerKey bits per key used before anything was learned for the task */
+    FilterBudgetController(RocksDBInstanceHandle instance, long budgetBytes, double initialBitsPerKey) {
+        // the key count is a DB property
+        instance.requireDb("Filter budget");
+        this.instance = instance;
+        this.budgetBytes = Math.max(budgetBytes, 1L);
+        this.learns = instance.taskKnown();
+        Decision initial =
+            new Decision(Math.min(Math.max(initialBitsPerKey, MIN_BITS_PER_KEY), MAX_BITS_PER_KEY), false);
+        this.decision = learns ? LEARNED_DECISIONS.getOrDefault(instance.taskName(), initial) : initial;
+    }
+
+    static Optional<FilterBudgetController> find(Collection<AutoCloseable> handlesToClose) {
+        return handlesToClose.stream()
+            .filter(FilterBudgetController.class::isInstance)
+            .map(FilterBudgetController.class::cast)
+            .findFirst();
+    }
+
+    /** Budgeted copy of {@code profile}; a profile without filters stays without them. */
+    ColumnFamilyProfiles.Profile applyTo(ColumnFamilyProfiles.Profile profile, BlockBasedTableConfig tableConfig) {
+        if (profile.bloomBitsPerKey() <= 0) {
+            return profile;
+        }
+        tableConfig
+            .setCacheIndexAndFilterBlocks(true)
+            .setCacheIndexAndFilterBlocksWithHighPriority(true)
+            .setFormatVersion(Math.max(tableConfig.formatVersion(), FILTER_FORMAT_VERSION))
+            .setOptimizeFiltersForMemory(true);
+        return profile.with("bloom-bits-per-key", String.valueOf(decision.bitsPerKey));
+    }
+
+    /** Must run after the profile was applied: it owns optimize_filters_for_hits. */
+    void applyTo(ColumnFamilyOptions options) {
+        options.setOptimizeFiltersForHits(decision.skipBottomLevel);
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("budgetBytes", (Gauge<Long>) () -> budgetBytes);
+        group.gauge("estimatedKeys", (Gauge<Long>) () -> estimatedKeys);
+        group.gauge("bitsPerKey", (Gauge<Double>) () -> decision.bitsPerKey);
+        group.gauge("skipBottomLevel", (Gauge<Integer>) () -> decision.skipBottomLevel ? 1 : 0);
+        group.gauge("estimatedFilterBytes", (Gauge<Long>) () -> filterBytes(decision, estimatedKeys));
+    }
+
+    @Override
+    public void run() {
+        Optional<RocksDB> db = instance.db();
+        if (!db.isPresent()) {
+            return;
+        }
+        try {
+            estimatedKeys = db.get().getAggregatedLongProperty("rocksdb.estimate-num-keys");
+        } catch (Exception e) {
+            LOG.debug("Unable to read the key count of RocksDB instance {}.", instance.id(), e);
+            return;
+        }
+        if (estimatedKeys < MIN_KEYS_FOR_DECISION) {
+            return;
+        }
+        Decision next = decide(budgetBytes, estimatedKeys);
+        Decision current = decision;
+        if (next.skipBottomLevel != current.skipBottomLevel || Math.abs(next.bitsPerKey - current.bitsPerKey) >= 0.5) {
+            LOG.info(
+                "Filter budget of task '{}' (RocksDB instance {}): {} -> {} (budget={} bytes, keys={})",
+                instance.taskName(),
+                instance.id(),
+                current,
+                next,
+                budgetBytes,
+                estimatedKeys);
+            decision = next;
+        }
+        if (learns) {
+            LEARNED_DECISIONS.put(instance.taskName(), decision);
+        }
+    }
+
+    static Decision decide(long budgetBytes, long keys) {
+        double allLevelsBits = budgetBytes * 8.0 / Math.max(keys, 1L);
+        if (allLevelsBits >= MIN_BITS_PER_KEY) {
+            return new Decision(round(Math.min(allLevelsBits, MAX_BITS_PER_KEY)), false);
+        }
+        double upperLevelBits = allLevelsBits / (1 - BOTTOM_LEVEL_KEY_SHARE);
+        // over budget even without the bottom level: keep the smallest useful filter on the upper levels
+        return new Decision(round(Math.min(Math.max(upperLevelBits, MIN_BITS_PER_KEY), MAX_BITS_PER_KEY)), true);
+    }
+
+    private static double round(double bitsPerKey) {
+        return Math.round(bitsPerKey * 2) / 2.0;
+    }
+
+    private static long filterBytes(Decision decision, long keys) {
+        double filteredKeys = decision.skipBottomLevel ? keys * (1 - BOTTOM_LEVEL_KEY_SHARE) : keys;
+        return (long) (filteredKeys * decision.bitsPerKey / 8);
+    }
+
+    @Override
+    public void close() {
+        // nothing native; the controller sits in handlesToClose only so createColumnOptions can find it
+    }
+}
@@ -0,0 +1,135 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TableProperties;
+import org.rocksdb.TickerType;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * False-positive rate versus filter memory for the bloom filter layouts {@link FilterBudgetController}
+ * chooses between: bits per key, legacy (format_version 4) versus format_version 5 blooms, and filters on
+ * every level versus none on the bottom level. The DB holds {@code --keys} even user keys, 90% of them
+ * compacted into the bottom level and the rest flushed on top. Every probe is for an absent (odd) key,
+ * so each filter "maybe" is a false positive and every data block read is wasted.
+ *
+ * <p>Options: --keys, --probes, --bits (comma list), --value-bytes, --dir.
+ */
+public final class FilterFprBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final double BOTTOM_LEVEL_KEY_SHARE = 0.9;
+
+    private FilterFprBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 1_000_000);
+        long probes = bench.longArg("probes", 200_000);
+        int[] bitsPerKey = bench.intListArg("bits", "4,6,8,10,12,16");
+        int valueBytes = bench.intArg("value-bytes", 64);
+
+        MicrobenchSupport.printCsv(
+            "bits_per_key", "format_version", "bottom_level_filters", "filter_bytes", "filter_bits_per_key",
+            "false_positive_rate", "data_blocks_per_probe", "probe_ns");
+        for (int bits : bitsPerKey) {
+            for (int formatVersion : new int[] {4, 5}) {
+                for (boolean bottomLevelFilters : new boolean[] {true, false}) {
+                    run(bench, bits, formatVersion, bottomLevelFilters, keys, probes, valueBytes);
+                }
+            }
+        }
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            int bitsPerKey,
+            int formatVersion,
+            boolean bottomLevelFilters,
+            long keys,
+            long probes,
+            int valueBytes) throws Exception {
+        Path dir = bench.scratchDir("filter-fpr");
+        try (Cache cache = new LRUCache(1024L * 1024 * 1024);
+                BloomFilter bloomFilter = new BloomFilter(bitsPerKey, false);
+                Statistics statistics = new Statistics();
+                Options options = new Options()
+                    .setCreateIfMissing(true)
+                    .setStatistics(statistics)
+                    .setOptimizeFiltersForHits(!bottomLevelFilters)
+                    .setTableFormatConfig(new BlockBasedTableConfig()
+                        .setBlockCache(cache)
+                        .setCacheIndexAndFilterBlocks(true)
+                        .setFormatVersion(formatVersion)
+                        .setOptimizeFiltersForMemory(formatVersion >= 5)
+                        .setFilterPolicy(bloomFilter));
+                RocksDB db = RocksDB.open(options, dir.toString());
+                FlushOptions flush = new FlushOptions().setWaitForFlush(true);
+                // rewrite instead of trivially moving the flushed file, so bottom-level filters are dropped
+                CompactRangeOptions compact = new CompactRangeOptions()
+                    .setBottommostLevelCompaction(CompactRangeOptions.BottommostLevelCompaction.kForce);
+                ReadOptions readOptions = new ReadOptions()) {
+            long bottomKeys = (long) (keys * BOTTOM_LEVEL_KEY_SHARE);
+            for (long k = 0; k < bottomKeys; k++) {
+                db.put(MicrobenchSupport.stateKey(2 * k, 0, NUM_KEY_GROUPS), MicrobenchSupport.value(k, valueBytes));
+            }
+            db.flush(flush);
+            db.compactRange(db.getDefaultColumnFamily(), null, null, compact);
+            for (long k = bottomKeys; k < keys; k++) {
+                db.put(MicrobenchSupport.stateKey(2 * k, 0, NUM_KEY_GROUPS), MicrobenchSupport.value(k, valueBytes));
+            }
+            db.flush(flush);
+
+            long filterBytes = 0;
+            for (TableProperties properties : db.getPropertiesOfAllTables().values()) {
+                filterBytes += properties.getFilterSize();
+            }
+            // warm pass: filters, index and data blocks resident, so probe time is CPU only
+            for (long i = 0; i < probes; i++) {
+                db.get(readOptions, absentKey(keys));
+            }
+            long usefulBefore = statistics.getTickerCount(TickerType.BLOOM_FILTER_USEFUL);
+            long positiveBefore = statistics.getTickerCount(TickerType.BLOOM_FILTER_FULL_POSITIVE);
+            long dataBlocksBefore = dataBlockAccesses(statistics);
+            long began = System.nanoTime();
+            for (long i = 0; i < probes; i++) {
+                db.get(readOptions, absentKey(keys));
+            }
+            long elapsedNanos = System.nanoTime() - began;
+            long useful = statistics.getTickerCount(TickerType.BLOOM_FILTER_USEFUL) - usefulBefore;
+            long positive = statistics.getTickerCount(TickerType.BLOOM_FILTER_FULL_POSITIVE) - positiveBefore;
+            long dataBlocks = dataBlockAccesses(statistics) - dataBlocksBefore;
+            MicrobenchSupport.printCsv(
+                bitsPerKey,
+                formatVersion,
+                bottomLevelFilters,
+                filterBytes,
+                filterBytes * 8.0 / keys,
+                useful + positive == 0 ? 0.0 : (double) positive / (useful + positive),
+                (double) dataBlocks / probes,
+                (double) elapsedNanos / probes);
+        } finally {
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+
+    private static byte[] absentKey(long keys) {
+        return MicrobenchSupport.stateKey(2 * ThreadLocalRandom.current().nextLong(keys) + 1, 0, NUM_KEY_GROUPS);
+    }
+
+    private static long dataBlockAccesses(Statistics statistics) {
+        return statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_HIT)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_MISS);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Exports the latency histograms of the RocksDB instances' own {@link Statistics} as Flink gauges, per
+ * histogram and instance: p50, p95, p99 and max over the instance's lifetime, the count, and the mean and
+ * standard deviation of the last period. One task per TaskManager polls every tracked instance, and
+ * gauges only read the last snapshot, so a metric reporter never calls into RocksDB.
+ *
+ * <p>RocksDB histograms are cumulative since the DB was opened and RocksJava exposes no buckets, so
+ * per-period percentiles cannot be derived; the lifetime ones say little about the current workload and
+ * are named for it. The period mean and deviation follow from the deltas of count, sum and sum of
+ * squares, which RocksDB keeps alongside the percentiles. Those are what a model can use, the way
+ * ThroughputModelMonitor takes its per-miss latency from SST read deltas; resetting the Statistics
+ * instead would break the ticker deltas of the other controllers.
+ */
+final class HistogramExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HistogramExporter.class);
+
+    static final List<HistogramType> DEFAULT_HISTOGRAMS = List.of(
+        HistogramType.DB_GET,
+        HistogramType.DB_SEEK,
+        HistogramType.SST_READ_MICROS,
+        HistogramType.READ_BLOCK_GET_MICROS,
+        HistogramType.DB_WRITE_STALL,
+        HistogramType.COMPACTION_TIME);
+
+    private static final Object LOCK = new Object();
+    private static final List<Member> MEMBERS = new CopyOnWriteArrayList<>();
+    private static ScheduledFuture<?> poller;
+
+    private HistogramExporter() {
+    }
+
+    /**
+     * Registers gauges for {@code histograms} of {@code instance} under {@code group} and adds the instance
+     * to the TaskManager-wide poller. The first instance sets the poll period.
+     */
+    static void track(
+            RocksDBInstanceHandle instance,
+            Statistics statistics,
+            List<HistogramType> histograms,
+            MetricGroup group,
+            long periodMillis) {
+        Member member = new Member(instance, statistics, histograms);
+        member.registerMetrics(group);
+        synchronized (LOCK) {
+            MEMBERS.add(member);
+            if (poller == null) {
+                poller = RocksDBInstanceHandle.scheduleShared(HistogramExporter::pollAll, periodMillis);
+                LOG.info("Started RocksDB histogram poller with a period of {} ms.", periodMillis);
+            }
+        }
+        instance.addResource(() -> untrack(member));
+    }
+
+    private static void untrack(Member member) {
+        synchronized (LOCK) {
+            MEMBERS.remove(member);
+            if (MEMBERS.isEmpty() && poller != null) {
+                poller.cancel(false);
+                poller = null;
+            }
+        }
+    }
+
+    private static void pollAll() {
+        for (Member member : MEMBERS) {
+            member.instance.runIfOpen(member::poll);
+        }
+    }
+
+    /** Metric group name of a histogram, e.g. {@code db_get} or {@code sst_read_micros}. */
+    static String metricName(HistogramType type) {
+        return type.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Member {
+        private final RocksDBInstanceHandle instance;
+        private final Statistics statistics;
+        private final HistogramType[] types;
+        private final Snapshot[] snapshots;
+
+        private Member(RocksDBInstanceHandle instance, Statistics statistics, List<HistogramType> types) {
+            this.instance = instance;
+            this.statistics = statistics;
+            this.types = types.toArray(new HistogramType[0]);
+            this.snapshots = new Snapshot[this.types.length];
+            for (int i = 0; i < snapshots.length; i++) {
+                snapshots[i] = new Snapshot();
+            }
+        }
+
+        private void poll() {
+            for (int i = 0; i < types.length; i++) {
+                snapshots[i].update(statistics.getHistogramData(types[i]));
+            }
+        }
+
+        private void registerMetrics(MetricGroup group) {
+            for (int i = 0; i < types.length; i++) {
+                Snapshot snapshot = snapshots[i];
+                MetricGroup histogram = group.addGroup("histogram", metricName(types[i]));
+                histogram.gauge("lifetimeP50", (Gauge<Double>) () -> snapshot.p50);
+                histogram.gauge("lifetimeP95", (Gauge<Double>) () -> snapshot.p95);
+                histogram.gauge("lifetimeP99", (Gauge<Double>) () -> snapshot.p99);
+                histogram.gauge("lifetimeMax", (Gauge<Long>) () -> snapshot.max);
+                histogram.gauge("count", (Gauge<Long>) () -> snapshot.count);
+                histogram.gauge("periodMean", (Gauge<Double>) () -> snapshot.periodMean);
+                histogram.gauge("periodStdDev", (Gauge<Double>) () -> snapshot.periodStdDev);
+            }
+        }
+    }
+
+    // written by the poller thread only
+    private static final class Snapshot {
+        private volatile double p50;
+        private volatile double p95;
+        private volatile double p99;
+        private volatile long max;
+        private volatile long count;
+        private volatile double periodMean;
+        private volatile double periodStdDev;
+        private long sum;
+        private double sumSquares;
+
+        private void update(HistogramData data) {
+            long deltaCount = data.getCount() - count;
+            long deltaSum = data.getSum() - sum;
+            double totalSumSquares = sumSquares(data);
+            p50 = data.getMedian();
+            p95 = data.getPercentile95();
+            p99 = data.getPercentile99();
+            max = data.getMax();
+            // keep the last mean and deviation through idle periods
+            if (deltaCount > 0) {
+                double mean = (double) deltaSum / deltaCount;
+                double variance = (totalSumSquares - sumSquares) / deltaCount - mean * mean;
+                periodMean = mean;
+                periodStdDev = Math.sqrt(Math.max(variance, 0.0));
+            }
+            count = data.getCount();
+            sum = data.getSum();
+            sumSquares = totalSumSquares;
+        }
+
+        // RocksDB's deviation is sqrt((sumSquares * count - sum^2) / count^2), which gives back the sum of squares
+        private static double sumSquares(HistogramData data) {
+            if (data.getCount() == 0) {
+                return 0.0;
+            }
+            double deviation = data.getStandardDeviation();
+            double total = data.getSum();
+            return (deviation * deviation * data.getCount() * data.getCount() + total * total) / data.getCount();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.IndexType;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses where index and filter blocks live for one RocksDB instance. The choice is made from the
+ * metadata footprint relative to the block cache and from how often index/filter lookups miss: metadata
+ * that is small next to the cache is pinned so lookups never miss, metadata that would crowd a small cache
+ * out is partitioned so only the top level stays resident.
+ *
+ * <p>Table options cannot be changed on an open column family, so a decision applies to the column
+ * families created after it and is remembered per task (and state, when the name is known) for the next
+ * instance. The tickers are DB-wide, so all column families of an instance share one evaluation. An
+ * instance whose task is unknown ({@link RocksDBInstanceHandle#taskKnown}) starts from the initial policy
+ * and keeps its decisions to itself: under the shared unknown task name they would reach any other task.
+ */
+final class IndexFilterPinningController implements Runnable, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexFilterPinningController.class);
+
+    enum Policy {
+        // index/filter held by the table readers outside the cache: no misses, memory not budgeted
+        TABLE_READER,
+        // cached with high priority; L0 and top-level partitions pinned
+        CACHED_PINNED,
+        // cached with high priority; only L0 pinned
+        CACHED,
+        // two-level index + partitioned filters; only the top level pinned
+        PARTITIONED;
+
+        void apply(BlockBasedTableConfig tableConfig) {
+            boolean cached = this != TABLE_READER;
+            boolean partitioned = this == PARTITIONED;
+            tableConfig
+                .setCacheIndexAndFilterBlocks(cached)
+                .setCacheIndexAndFilterBlocksWithHighPriority(cached)
+                .setPinL0FilterAndIndexBlocksInCache(this == CACHED_PINNED || this == CACHED)
+                .setPinTopLevelIndexAndFilter(cached)
+                .setPartitionFilters(partitioned)
+                .setIndexType(partitioned ? IndexType.kTwoLevelIndexSearch : IndexType.kBinarySearch);
+        }
+    }
+
+    // metadata / cache capacity thresholds between the policies
+    private static final double TABLE_READER_MAX_FOOTPRINT_RATIO = 0.02;
+    private static final double PINNED_MAX_FOOTPRINT_RATIO = 0.1;
+    private static final double CACHED_MAX_FOOTPRINT_RATIO = 0.3;
+    // above this index/filter miss ratio, move one step towards pinning if the footprint allows it
+    private static final double MAX_METADATA_MISS_RATIO = 0.05;
+    // caches below this start out partitioned, larger ones with the table readers (the factory default)
+    private static final long SMALL_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final long MIN_METADATA_LOOKUPS_PER_PERIOD = 1_000L;
+
+    private static final Map<String, Policy> LEARNED_POLICIES = new ConcurrentHashMap<>();
+
+    private final RocksDBInstanceHandle instance;
+    private final long cacheCapacityBytes;
+    private final Statistics statistics;
+    private final boolean learns;
+    private final Map<String, Boolean> columnFamilyKeys = new ConcurrentHashMap<>();
+
+    private volatile Policy policy;
+    private volatile long footprintBytes;
+    private volatile double metadataMissRatio;
+
+    private long lastLookups;
+    private long lastMisses;
+    private long lastInsertBytes;
+
+    IndexFilterPinningController(RocksDBInstanceHandle instance, long cacheCapacityBytes, Statistics statistics) {
+        // the table reader footprint is only a DB property
+        instance.requireDb("Adaptive index/filter pinning");
+        this.instance = instance;
+        this.cacheCapacityBytes = Math.max(cacheCapacityBytes, 1L);
+        this.statistics = statistics;
+        this.learns = instance.taskKnown();
+        Policy initial = cacheCapacityBytes < SMALL_CACHE_BYTES ? Policy.PARTITIONED : Policy.TABLE_READER;
+        this.policy = learns ? LEARNED_POLICIES.getOrDefault(instance.taskName(), initial) : initial;
+    }
+
+    static Optional<IndexFilterPinningController> find(Collection<AutoCloseable> handlesToClose) {
+        return handlesToClose.stream()
+            .filter(IndexFilterPinningController.class::isInstance)
+            .map(IndexFilterPinningController.class::cast)
+            .findFirst();
+    }
+
+    /** Applies the policy for a new column family; a null state name means the task-level policy. */
+    void apply(String stateName, BlockBasedTableConfig tableConfig) {
+        Policy chosen = policy;
+        if (stateName != null && learns) {
+            String key = stateKey(stateName);
+            chosen = LEARNED_POLICIES.getOrDefault(key, chosen);
+            columnFamilyKeys.put(key, Boolean.TRUE);
+        }
+        chosen.apply(tableConfig);
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("policy", (Gauge<String>) () -> policy.name());
+        group.gauge("footprintBytes", (Gauge<Long>) () -> footprintBytes);
+        group.gauge("footprintRatio", (Gauge<Double>) () -> (double) footprintBytes / cacheCapacityBytes);
+        group.gauge("metadataMissRatio", (Gauge<Double>) () -> metadataMissRatio);
+    }
+
+    @Override
+    public void run() {
+        long lookups = statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_HIT)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_MISS)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_HIT)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_MISS);
+        long misses = statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_MISS)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_MISS);
+        long insertBytes = statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_BYTES_INSERT)
+            + statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_BYTES_INSERT);
+        long deltaLookups = lookups - lastLookups;
+        long deltaMisses = misses - lastMisses;
+        long deltaInsertBytes = insertBytes - lastInsertBytes;
+        lastLookups = lookups;
+        lastMisses = misses;
+        lastInsertBytes = insertBytes;
+
+        Optional<RocksDB> db = instance.db();
+        long tableReadersBytes = 0;
+        if (db.isPresent()) {
+            try {
+                tableReadersBytes = db.get().getAggregatedLongProperty("rocksdb.estimate-table-readers-mem");
+            } catch (Exception e) {
+                LOG.debug("Unable to read table reader memory of RocksDB instance {}.", instance.id(), e);
+            }
+        }
+        // Outside the cache the table readers hold all of it; inside, what was (re)loaded in one period is
+        // a lower bound of the working set.
+        footprintBytes = Math.max(tableReadersBytes, deltaInsertBytes);
+        if (policy != Policy.TABLE_READER && deltaLookups < MIN_METADATA_LOOKUPS_PER_PERIOD) {
+            return;
+        }
+        metadataMissRatio = deltaLookups == 0 ? 0.0 : (double) deltaMisses / deltaLookups;
+
+        Policy next = decide((double) footprintBytes / cacheCapacityBytes, metadataMissRatio);
+        if (next == Policy.TABLE_READER && policy != Policy.TABLE_READER) {
+            // only a lower bound is known while cached, so never move the metadata back out of the cache
+            next = Policy.CACHED_PINNED;
+        }
+        if (next != policy) {
+            LOG.info(
+                "Index/filter policy of task '{}' (RocksDB instance {}): {} -> {} (footprint={} bytes, cache={} bytes, missRatio={})",
+                instance.taskName(),
+                instance.id(),
+                policy,
+                next,
+                footprintBytes,
+                cacheCapacityBytes,
+                metadataMissRatio);
+            policy = next;
+        }
+        if (!learns) {
+            return;
+        }
+        LEARNED_POLICIES.put(instance.taskName(), next);
+        for (String key : columnFamilyKeys.keySet()) {
+            LEARNED_POLICIES.put(key, next);
+        }
+    }
+
+    private static Policy decide(double footprintRatio, double missRatio) {
+        Policy bySize;
+        if (footprintRatio <= TABLE_READER_MAX_FOOTPRINT_RATIO) {
+            bySize = Policy.TABLE_READER;
+        } else if (footprintRatio <= PINNED_MAX_FOOTPRINT_RATIO) {
+            bySize = Policy.CACHED_PINNED;
+        } else if (footprintRatio <= CACHED_MAX_FOOTPRINT_RATIO) {
+            bySize = Policy.CACHED;
+        } else {
+            bySize = Policy.PARTITIONED;
+        }
+        if (missRatio > MAX_METADATA_MISS_RATIO
+                && bySize != Policy.TABLE_READER
+                && footprintRatio <= CACHED_MAX_FOOTPRINT_RATIO) {
+            return Policy.values()[bySize.ordinal() - 1];
+        }
+        return bySize;
+    }
+
+    private String stateKey(String stateName) {
+        return instance.taskName() + "/" + stateName;
+    }
+
+    @Override
+    public void close() {
+        columnFamilyKeys.clear();
+    }
+}
@@ -0,0 +1,157 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hill-climbing controller for the block cache / write buffer manager split of one RocksDB instance.
+ * The managed-memory budget stays constant; each step moves {@link #STEP_RATIO} of it towards whichever
+ * side currently pays off: the cache when the live MRC still has a steep slope at the current capacity
+ * and reads dominate, the write buffers when the instance is stalling on memtables or writes dominate.
+ *
+ * <p>RocksJava 6.20 can neither resize an LRUCache nor a WriteBufferManager, so the decision is learned
+ * per task (operator chain) and used by the next instance that task opens (restore, rescale). Instances
+ * whose task is unknown ({@link RocksDBInstanceHandle#taskKnown}) neither learn nor use a split.
+ *
+ * <p>Because the running instance keeps its split, its stalls, write mix and MRC never respond to a step:
+ * stepping again on the same signals would only walk the ratio to a clamp bound. Each instance therefore
+ * takes at most one step, measured against the split it actually runs with; the next step needs the next
+ * instance, which runs with the learned split and measures its effect.
+ */
+final class MemorySplitController implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemorySplitController.class);
+
+    private static final double MIN_WRITE_BUFFER_RATIO = 0.1;
+    private static final double MAX_WRITE_BUFFER_RATIO = 0.6;
+    private static final double STEP_RATIO = 0.05;
+    // fraction of wall time spent in write stalls that always favours the write buffers
+    private static final double STALL_FRACTION_THRESHOLD = 0.01;
+    // miss-ratio drop per STEP_RATIO of extra cache that is still worth taking from the write buffers
+    private static final double MIN_MARGINAL_HIT_GAIN = 0.005;
+    private static final double WRITE_HEAVY_FRACTION = 0.5;
+
+    private static final Map<String, Double> LEARNED_WRITE_BUFFER_RATIOS = new ConcurrentHashMap<>();
+
+    private final String taskName;
+    private final long budgetBytes;
+    private final Statistics statistics;
+    private final ShardsMrcEstimator estimator;
+    // the split the instance runs with; writeBufferRatio is the one learned for the next instance
+    private final double runningWriteBufferRatio;
+
+    private volatile double writeBufferRatio;
+    private volatile double marginalHitGain;
+    private volatile double stallFraction;
+    private volatile double writeFraction;
+    private volatile boolean stepped;
+
+    private long lastKeysRead;
+    private long lastKeysWritten;
+    private long lastStallMicros;
+    private long lastSampleNanos;
+
+    /** @param estimator live MRC of the instance, or null to steer on write pressure alone */
+    MemorySplitController(
+            String taskName,
+            long budgetBytes,
+            double initialWriteBufferRatio,
+            Statistics statistics,
+            ShardsMrcEstimator estimator) {
+        this.taskName = taskName;
+        this.budgetBytes = budgetBytes;
+        this.statistics = statistics;
+        this.estimator = estimator;
+        this.runningWriteBufferRatio = clampRatio(initialWriteBufferRatio);
+        this.writeBufferRatio = runningWriteBufferRatio;
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    static double learnedWriteBufferRatio(String taskName, double defaultRatio) {
+        return clampRatio(LEARNED_WRITE_BUFFER_RATIOS.getOrDefault(taskName, defaultRatio));
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("targetWriteBufferRatio", (Gauge<Double>) () -> writeBufferRatio);
+        group.gauge("targetBlockCacheBytes", (Gauge<Long>) this::targetBlockCacheBytes);
+        group.gauge("targetWriteBufferBytes", (Gauge<Long>) this::targetWriteBufferBytes);
+        group.gauge("marginalHitGain", (Gauge<Double>) () -> marginalHitGain);
+        group.gauge("stallFraction", (Gauge<Double>) () -> stallFraction);
+        group.gauge("writeFraction", (Gauge<Double>) () -> writeFraction);
+    }
+
+    long targetBlockCacheBytes() {
+        return budgetBytes - targetWriteBufferBytes();
+    }
+
+    long targetWriteBufferBytes() {
+        return (long) (budgetBytes * writeBufferRatio);
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long keysRead = statistics.getTickerCount(TickerType.NUMBER_KEYS_READ);
+        long keysWritten = statistics.getTickerCount(TickerType.NUMBER_KEYS_WRITTEN);
+        long stallMicros = statistics.getTickerCount(TickerType.STALL_MICROS);
+
+        long readDelta = keysRead - lastKeysRead;
+        long writeDelta = keysWritten - lastKeysWritten;
+        long elapsedMicros = Math.max((now - lastSampleNanos) / 1000, 1L);
+        stallFraction = (double) (stallMicros - lastStallMicros) / elapsedMicros;
+        writeFraction = readDelta + writeDelta == 0 ? 0.0 : (double) writeDelta / (readDelta + writeDelta);
+        marginalHitGain = estimateMarginalHitGain();
+
+        lastKeysRead = keysRead;
+        lastKeysWritten = keysWritten;
+        lastStallMicros = stallMicros;
+        lastSampleNanos = now;
+
+        if (stepped || readDelta + writeDelta == 0) {
+            return;
+        }
+        double previous = writeBufferRatio;
+        double next = previous;
+        if (stallFraction > STALL_FRACTION_THRESHOLD) {
+            next = previous + STEP_RATIO;
+        } else if (writeFraction < WRITE_HEAVY_FRACTION && marginalHitGain > MIN_MARGINAL_HIT_GAIN) {
+            next = previous - STEP_RATIO;
+        } else if (writeFraction >= WRITE_HEAVY_FRACTION && marginalHitGain <= MIN_MARGINAL_HIT_GAIN) {
+            next = previous + STEP_RATIO;
+        }
+        next = clampRatio(next);
+        if (next != previous) {
+            stepped = true;
+            writeBufferRatio = next;
+            LEARNED_WRITE_BUFFER_RATIOS.put(taskName, next);
+            LOG.info(
+                "Memory split for task '{}': writeBufferRatio {} -> {} (stallFraction={}, writeFraction={}, marginalHitGain={})",
+                taskName,
+                previous,
+                next,
+                stallFraction,
+                writeFraction,
+                marginalHitGain);
+        }
+    }
+
+    private double estimateMarginalHitGain() {
+        if (estimator == null || estimator.sampledAccesses() == 0) {
+            return 0.0;
+        }
+        long step = (long) (budgetBytes * STEP_RATIO);
+        long cacheBytes = budgetBytes - (long) (budgetBytes * runningWriteBufferRatio);
+        return estimator.missRatio(cacheBytes) - estimator.missRatio(cacheBytes + step);
+    }
+
+    private static double clampRatio(double ratio) {
+        return Math.max(MIN_WRITE_BUFFER_RATIO, Math.min(MAX_WRITE_BUFFER_RATIO, ratio));
+    }
+}
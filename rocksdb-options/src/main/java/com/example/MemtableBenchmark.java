@@ -0,0 +1,155 @@
+package com.example;
+
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteOptions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Insert, Get and prefix-scan cost of the memtable choices of {@link ColumnFamilyProfiles}, with all data
+ * still in the memtable (one large write buffer, no WAL, no flush). Each user key has
+ * {@code --namespaces} entries, so a prefix of key group plus user key selects a few entries the way a
+ * keyed window or join state does. Absent Gets are the lookups that fall through the memtable to the SST
+ * files in a real job; memtable_misses and the Get time show how cheaply each layout rules them out.
+ *
+ * <p>The vector memtable sorts a copy of itself for every read, so it is only run when listed in
+ * {@code --layouts}, with few lookups.
+ *
+ * <p>Options: --keys, --namespaces, --lookups, --scans, --value-bytes, --absent-percent,
+ * --bloom-ratio, --layouts (comma list of skiplist, skiplist-bloom, hash-skiplist, hash-linkedlist,
+ * vector), --dir.
+ */
+public final class MemtableBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final int PREFIX_BYTES = MicrobenchSupport.KEY_GROUP_PREFIX_BYTES + MicrobenchSupport.USER_KEY_BYTES;
+    // large enough that nothing is flushed during a run
+    private static final long WRITE_BUFFER_BYTES = 4L * 1024 * 1024 * 1024;
+
+    private MemtableBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 500_000);
+        int namespaces = bench.intArg("namespaces", 4);
+        int lookups = bench.intArg("lookups", 500_000);
+        int scans = bench.intArg("scans", 100_000);
+        int valueBytes = bench.intArg("value-bytes", 64);
+        double absentFraction = bench.doubleArg("absent-percent", 50) / 100;
+        double bloomRatio = bench.doubleArg("bloom-ratio", 0.1);
+        String[] layouts = bench.stringArg("layouts", "skiplist,skiplist-bloom,hash-skiplist,hash-linkedlist").split(",");
+
+        MicrobenchSupport.printCsv(
+            "layout", "entries", "insert_ns", "mean_get_ns", "p99_get_ns", "memtable_hits", "memtable_misses",
+            "scan_ns", "memtable_bytes");
+        ColumnFamilyProfiles.Profile base = new ColumnFamilyProfiles.Profile(
+            PREFIX_BYTES, 0, true, 0, WRITE_BUFFER_BYTES, null);
+        for (String layout : layouts) {
+            ColumnFamilyProfiles.Profile profile;
+            switch (layout.trim()) {
+                case "skiplist-bloom":
+                    profile = base.with("memtable", "skiplist")
+                        .with("memtable-prefix-bloom-ratio", String.valueOf(bloomRatio));
+                    break;
+                default:
+                    profile = base.with("memtable", layout.trim());
+            }
+            run(bench, layout.trim(), profile, keys, namespaces, lookups, scans, valueBytes, absentFraction);
+        }
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            String layout,
+            ColumnFamilyProfiles.Profile profile,
+            long keys,
+            int namespaces,
+            int lookups,
+            int scans,
+            int valueBytes,
+            double absentFraction) throws Exception {
+        Path dir = bench.scratchDir("memtable");
+        try (Statistics statistics = new Statistics();
+                DBOptions dbOptions = new DBOptions()
+                    .setCreateIfMissing(true)
+                    .setStatistics(statistics)
+                    .setAllowConcurrentMemtableWrite(!profile.hasNonSkipListMemtable());
+                ColumnFamilyOptions cfOptions = new ColumnFamilyOptions();
+                Options options = new Options(dbOptions, applied(profile, cfOptions));
+                RocksDB db = RocksDB.open(options, dir.toString());
+                WriteOptions writeOptions = new WriteOptions().setDisableWAL(true);
+                ReadOptions readOptions = new ReadOptions();
+                ReadOptions scanOptions = new ReadOptions().setPrefixSameAsStart(true)) {
+            // even user keys exist, odd ones are the absent probes
+            long entries = keys * namespaces;
+            long began = System.nanoTime();
+            for (long k = 0; k < keys; k++) {
+                for (int n = 0; n < namespaces; n++) {
+                    db.put(writeOptions, MicrobenchSupport.stateKey(2 * k, n, NUM_KEY_GROUPS),
+                        MicrobenchSupport.value(k, valueBytes));
+                }
+            }
+            double insertNanos = (double) (System.nanoTime() - began) / entries;
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long hitsBefore = statistics.getTickerCount(TickerType.MEMTABLE_HIT);
+            long missesBefore = statistics.getTickerCount(TickerType.MEMTABLE_MISS);
+            long[] latencies = new long[lookups];
+            for (int i = 0; i < lookups; i++) {
+                long k = 2 * random.nextLong(keys) + (random.nextDouble() < absentFraction ? 1 : 0);
+                byte[] key = MicrobenchSupport.stateKey(k, random.nextInt(namespaces), NUM_KEY_GROUPS);
+                long start = System.nanoTime();
+                db.get(readOptions, key);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            long hits = statistics.getTickerCount(TickerType.MEMTABLE_HIT) - hitsBefore;
+            long misses = statistics.getTickerCount(TickerType.MEMTABLE_MISS) - missesBefore;
+
+            long scanned = 0;
+            began = System.nanoTime();
+            try (RocksIterator iterator = db.newIterator(scanOptions)) {
+                for (int i = 0; i < scans; i++) {
+                    iterator.seek(MicrobenchSupport.stateKey(2 * random.nextLong(keys), 0, NUM_KEY_GROUPS));
+                    for (; iterator.isValid(); iterator.next()) {
+                        scanned++;
+                    }
+                }
+            }
+            double scanNanos = scans == 0 ? 0 : (double) (System.nanoTime() - began) / scans;
+            if (scans > 0 && scanned != (long) scans * namespaces) {
+                throw new IllegalStateException(
+                    layout + ": prefix scans returned " + scanned + " entries, expected " + (long) scans * namespaces);
+            }
+            MicrobenchSupport.printCsv(
+                layout,
+                entries,
+                insertNanos,
+                lookups == 0 ? 0 : Arrays.stream(latencies).average().orElse(0),
+                lookups == 0 ? 0 : latencies[(int) (lookups * 0.99)],
+                hits,
+                misses,
+                scanNanos,
+                db.getLongProperty("rocksdb.cur-size-all-mem-tables"));
+        } finally {
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+
+    private static ColumnFamilyOptions applied(ColumnFamilyProfiles.Profile profile, ColumnFamilyOptions options) {
+        // memtable profiles own no native handles
+        profile.applyTo(options, new ArrayList<>());
+        return options;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example;
+
+import org.rocksdb.RocksDB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Shared plumbing for the standalone RocksDB micro-benchmarks in this module (run them through
+ * benchmark/rocksdb-microbench/run_microbench.sh). Results are printed as CSV on stdout.
+ */
+final class MicrobenchSupport {
+
+    // Flink's RocksDB key layout: 2 key-group bytes + serialized key + serialized namespace
+    static final int KEY_GROUP_PREFIX_BYTES = 2;
+    static final int USER_KEY_BYTES = 8;
+    static final int NAMESPACE_BYTES = 8;
+
+    interface Operation {
+        void run(int threadIndex, long iteration) throws Exception;
+    }
+
+    private final Map<String, String> arguments;
+
+    private MicrobenchSupport(Map<String, String> arguments) {
+        this.arguments = arguments;
+    }
+
+    static MicrobenchSupport parse(String[] args) {
+        MicrobenchSupport support = parseArguments(args);
+        RocksDB.loadLibrary();
+        return support;
+    }
+
+    /** Like {@link #parse} but without loading RocksDB, for offline tools. */
+    static MicrobenchSupport parseArguments(String[] args) {
+        Map<String, String> parsed = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            parsed.put(name, hasValue ? args[++i] : "true");
+        }
+        return new MicrobenchSupport(parsed);
+    }
+
+    long longArg(String name, long defaultValue) {
+        String value = arguments.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    int intArg(String name, int defaultValue) {
+        return (int) longArg(name, defaultValue);
+    }
+
+    double doubleArg(String name, double defaultValue) {
+        String value = arguments.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    String stringArg(String name, String defaultValue) {
+        return arguments.getOrDefault(name, defaultValue);
+    }
+
+    int[] intListArg(String name, String defaultValue) {
+        String[] parts = stringArg(name, defaultValue).split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    Path scratchDir(String name) throws IOException {
+        Path base = new File(stringArg("dir", System.getProperty("java.io.tmpdir"))).toPath();
+        Files.createDirectories(base);
+        return Files.createTempDirectory(base, name);
+    }
+
+    static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + dir + ": " + e);
+        }
+    }
+
+    /** Flink-shaped state key: key group, user key, then namespace. */
+    static byte[] stateKey(long userKey, long namespace, int numKeyGroups) {
+        ByteBuffer buffer = ByteBuffer.allocate(KEY_GROUP_PREFIX_BYTES + USER_KEY_BYTES + NAMESPACE_BYTES);
+        buffer.putShort((short) Math.floorMod(Long.hashCode(userKey), numKeyGroups));
+        buffer.putLong(userKey);
+        buffer.putLong(namespace);
+        return buffer.array();
+    }
+
+    static byte[] value(long seed, int valueBytes) {
+        byte[] value = new byte[valueBytes];
+        long x = seed * 0x9e3779b97f4a7c15L + 1;
+        for (int i = 0; i < valueBytes; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            value[i] = (byte) x;
+        }
+        return value;
+    }
+
+    /** Runs {@code operation} on {@code threads} threads for {@code durationMillis}; returns ops/sec. */
+    static double runTimed(int threads, long durationMillis, Operation operation) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads; t++) {
+            final int threadIndex = t;
+            Thread worker = new Thread(() -> {
+                long iteration = 0;
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        operation.run(threadIndex, iteration++);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+                counts[threadIndex] = iteration;
+            }, "microbench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMillis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+        if (failure[0] != null) {
+            throw new IllegalStateException("Benchmark operation failed", failure[0]);
+        }
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total / seconds;
+    }
+
+    static void printCsv(Object... columns) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Object column = columns[i];
+            line.append(column instanceof Double ? String.format("%.3f", (Double) column) : column);
+        }
+        System.out.println(line);
+    }
+}
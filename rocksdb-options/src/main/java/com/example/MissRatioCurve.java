@@ -0,0 +1,84 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Immutable miss ratio curve over cache size in bytes, stored as a step function: the miss ratio at a
+ * size is the one of the largest point at or below it.
+ */
+final class MissRatioCurve {
+
+    // online_mrc writes size_t header fields and {u64, f64} entries in host (x86, little-endian) order
+    private static final int ONLINE_MRC_HEADER_BYTES = 16;
+    private static final int ONLINE_MRC_ENTRY_BYTES = 16;
+
+    private final long[] cacheBytes;
+    private final double[] missRatios;
+
+    /** @param cacheBytes ascending cache sizes; {@code missRatios[i]} applies from {@code cacheBytes[i]} on */
+    MissRatioCurve(long[] cacheBytes, double[] missRatios) {
+        if (cacheBytes.length == 0 || cacheBytes.length != missRatios.length) {
+            throw new IllegalArgumentException("MRC needs the same, non-zero number of sizes and miss ratios");
+        }
+        for (int i = 1; i < cacheBytes.length; i++) {
+            if (cacheBytes[i] < cacheBytes[i - 1]) {
+                throw new IllegalArgumentException("MRC cache sizes must be ascending");
+            }
+        }
+        this.cacheBytes = cacheBytes.clone();
+        this.missRatios = missRatios.clone();
+    }
+
+    static MissRatioCurve fromEstimator(ShardsMrcEstimator estimator) {
+        double[] curve = estimator.missRatioCurve();
+        long[] sizes = new long[curve.length];
+        for (int i = 0; i < curve.length; i++) {
+            sizes[i] = i * estimator.bucketBytes();
+        }
+        return new MissRatioCurve(sizes, curve);
+    }
+
+    /**
+     * Reads a {@code *-mrc.bin} written by online_mrc's MissRateCurve__save. Its x-axis counts unique
+     * blocks, so it is scaled by {@code bytesPerBlock} (the average data block size of the trace).
+     */
+    static MissRatioCurve readOnlineMrc(Path file, double bytesPerBlock) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < ONLINE_MRC_HEADER_BYTES + ONLINE_MRC_ENTRY_BYTES) {
+            throw new IOException("Not an online_mrc MRC file: " + file);
+        }
+        buffer.getLong(); // num_bins
+        buffer.getLong(); // bin_size; entries already carry the scaled index
+        int entries = buffer.remaining() / ONLINE_MRC_ENTRY_BYTES;
+        long[] sizes = new long[entries];
+        double[] ratios = new double[entries];
+        for (int i = 0; i < entries; i++) {
+            sizes[i] = (long) (buffer.getLong() * bytesPerBlock);
+            ratios[i] = buffer.getDouble();
+        }
+        return new MissRatioCurve(sizes, ratios);
+    }
+
+    double missRatio(long bytes) {
+        int index = Arrays.binarySearch(cacheBytes, bytes);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // equal sizes can repeat after scaling; the last one wins
+            while (index + 1 < cacheBytes.length && cacheBytes[index + 1] == bytes) {
+                index++;
+            }
+        }
+        return index < 0 ? 1.0 : missRatios[index];
+    }
+
+    /** Largest cache size the curve has a point for. */
+    long maxCacheBytes() {
+        return cacheBytes[cacheBytes.length - 1];
+    }
+}
@@ -0,0 +1,263 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.Cache;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
+import org.rocksdb.RocksDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Checks what the RocksDB instances of the TaskManager actually allocate against the memory layout they
+ * were given. One task per TaskManager samples every live instance: memtables and table readers through
+ * {@link MemoryUtil#getApproximateMemoryUsageByType}, and the usage and pinned usage of each block cache.
+ * Per slot the components are summed and compared with the slot's managed memory; crossing it logs a
+ * warning once and sets the {@code slotOverBudget} gauge until the slot is back under.
+ *
+ * <p>Table readers (index and filter blocks that are not in the block cache, e.g. with
+ * CACHE_INDEX_AND_FILTER_BLOCKS off) have no budget at all, which is what this mostly catches. Memtables
+ * count separately only when the WBM does not charge them to the block cache; charged, they already are
+ * cache usage. A cache used by several instances is counted once per slot, and a TaskManager-wide shared
+ * cache is split evenly between the slots using it. Process RSS is published for comparison with the
+ * container limit; it includes the JVM heap and everything else outside RocksDB.
+ */
+final class NativeMemoryVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NativeMemoryVerifier.class);
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    private static final Object LOCK = new Object();
+    private static final List<Member> MEMBERS = new CopyOnWriteArrayList<>();
+    private static final Map<String, SlotUsage> SLOTS = new ConcurrentHashMap<>();
+    private static ScheduledFuture<?> sampler;
+    private static volatile long processRssBytes;
+    private static volatile long taskManagerTotalBytes;
+
+    private NativeMemoryVerifier() {
+    }
+
+    /**
+     * Starts verifying {@code instance}, whose block caches are {@code caches}. The first instance sets the
+     * sample period.
+     *
+     * @param cacheBudgetBytes block cache budget of the instance, including any compressed tier
+     * @param writeBufferBudgetBytes WBM capacity of the instance
+     * @param writeBuffersChargedToCache whether the WBM charges memtables to one of {@code caches}
+     * @param slotManagedBytes managed memory of the instance's slot
+     */
+    static void track(
+            RocksDBInstanceHandle instance,
+            List<Cache> caches,
+            long cacheBudgetBytes,
+            long writeBufferBudgetBytes,
+            boolean writeBuffersChargedToCache,
+            long slotManagedBytes,
+            long periodMillis) {
+        // memtable and table reader usage come from MemoryUtil on the DB
+        instance.requireDb("Native memory verifier");
+        Member member = new Member(
+            instance, caches, cacheBudgetBytes, writeBufferBudgetBytes, writeBuffersChargedToCache, slotManagedBytes);
+        member.registerMetrics(instance.metricGroup().addGroup("native_memory"));
+        synchronized (LOCK) {
+            MEMBERS.add(member);
+            if (sampler == null) {
+                sampler = RocksDBInstanceHandle.scheduleShared(NativeMemoryVerifier::sampleAll, periodMillis);
+                LOG.info("Started native memory verifier with a period of {} ms.", periodMillis);
+            }
+        }
+        instance.addResource(() -> untrack(member));
+    }
+
+    private static void untrack(Member member) {
+        synchronized (LOCK) {
+            MEMBERS.remove(member);
+            if (MEMBERS.isEmpty() && sampler != null) {
+                sampler.cancel(false);
+                sampler = null;
+            }
+        }
+    }
+
+    private static void sampleAll() {
+        for (Member member : MEMBERS) {
+            member.instance.runIfOpen(member::sample);
+        }
+        processRssBytes = readProcessRssBytes();
+
+        // cache id -> slots using it, so a shared cache is split between them
+        Map<Long, Set<String>> cacheSlots = new HashMap<>();
+        for (Member member : MEMBERS) {
+            for (Long cacheId : member.cacheUsage.keySet()) {
+                cacheSlots.computeIfAbsent(cacheId, id -> new HashSet<>()).add(member.instance.slotId());
+            }
+        }
+        Map<String, SlotUsage> slots = new HashMap<>();
+        Map<String, Set<Long>> countedCaches = new HashMap<>();
+        for (Member member : MEMBERS) {
+            String slotId = member.instance.slotId();
+            SlotUsage slot = slots.computeIfAbsent(slotId, id -> new SlotUsage(member.slotManagedBytes));
+            Set<Long> counted = countedCaches.computeIfAbsent(slotId, id -> new HashSet<>());
+            slot.tableReaderBytes += member.tableReaderBytes;
+            if (!member.writeBuffersChargedToCache) {
+                slot.memTableBytes += member.memTableBytes;
+            }
+            for (Map.Entry<Long, long[]> cache : member.cacheUsage.entrySet()) {
+                if (counted.add(cache.getKey())) {
+                    int sharingSlots = Math.max(cacheSlots.getOrDefault(cache.getKey(), Set.of()).size(), 1);
+                    slot.cacheBytes += cache.getValue()[0] / sharingSlots;
+                }
+            }
+        }
+        long total = 0;
+        for (Map.Entry<String, SlotUsage> entry : slots.entrySet()) {
+            SlotUsage slot = entry.getValue();
+            SlotUsage previous = SLOTS.get(entry.getKey());
+            slot.overBudget = slot.totalBytes() > slot.managedBytes;
+            if (slot.overBudget && (previous == null || !previous.overBudget)) {
+                LOG.warn(
+                    "RocksDB native memory of slot {} exceeds its managed memory: total={} bytes > managed={} bytes "
+                        + "(block caches={}, memtables outside the cache={}, table readers={}); process RSS={} bytes",
+                    entry.getKey(),
+                    slot.totalBytes(),
+                    slot.managedBytes,
+                    slot.cacheBytes,
+                    slot.memTableBytes,
+                    slot.tableReaderBytes,
+                    processRssBytes);
+            } else if (!slot.overBudget && previous != null && previous.overBudget) {
+                LOG.info("RocksDB native memory of slot {} is back within its managed memory.", entry.getKey());
+            }
+            total += slot.totalBytes();
+        }
+        SLOTS.keySet().retainAll(slots.keySet());
+        SLOTS.putAll(slots);
+        taskManagerTotalBytes = total;
+    }
+
+    // VmRSS of this process, 0 where /proc is not available
+    private static long readProcessRssBytes() {
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS)) {
+                if (line.startsWith("VmRSS:")) {
+                    // "VmRSS:	  123456 kB"
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOG.debug("Unable to read the process RSS from {}.", PROC_STATUS, e);
+        }
+        return 0L;
+    }
+
+    private static final class SlotUsage {
+        private final long managedBytes;
+        private long cacheBytes;
+        private long memTableBytes;
+        private long tableReaderBytes;
+        private boolean overBudget;
+
+        private SlotUsage(long managedBytes) {
+            this.managedBytes = managedBytes;
+        }
+
+        private long totalBytes() {
+            return cacheBytes + memTableBytes + tableReaderBytes;
+        }
+    }
+
+    private static final class Member {
+        private final RocksDBInstanceHandle instance;
+        private final List<Cache> caches;
+        private final long cacheBudgetBytes;
+        private final long writeBufferBudgetBytes;
+        private final boolean writeBuffersChargedToCache;
+        private final long slotManagedBytes;
+        // cache id -> {usage, pinned usage}; replaced on every sample
+        private volatile Map<Long, long[]> cacheUsage = Collections.emptyMap();
+        private volatile long memTableBytes;
+        private volatile long tableReaderBytes;
+
+        private Member(
+                RocksDBInstanceHandle instance,
+                List<Cache> caches,
+                long cacheBudgetBytes,
+                long writeBufferBudgetBytes,
+                boolean writeBuffersChargedToCache,
+                long slotManagedBytes) {
+            this.instance = instance;
+            this.caches = caches;
+            this.cacheBudgetBytes = cacheBudgetBytes;
+            this.writeBufferBudgetBytes = writeBufferBudgetBytes;
+            this.writeBuffersChargedToCache = writeBuffersChargedToCache;
+            this.slotManagedBytes = slotManagedBytes;
+        }
+
+        // runs while the instance is open and the close hook has not detached the DB, so neither the DB nor
+        // its caches are freed underneath
+        private void sample() {
+            Map<Long, long[]> usage = new HashMap<>();
+            for (Cache cache : caches) {
+                usage.put(cache.getNativeHandle(), new long[] {cache.getUsage(), cache.getPinnedUsage()});
+            }
+            cacheUsage = usage;
+            RocksDB db = instance.db().orElse(null);
+            if (db == null) {
+                return;
+            }
+            // no caches here: they are counted once per slot above, not once per DB
+            Map<MemoryUsageType, Long> byType =
+                MemoryUtil.getApproximateMemoryUsageByType(List.of(db), Collections.emptySet());
+            memTableBytes = byType.getOrDefault(MemoryUsageType.kMemTableTotal, 0L);
+            tableReaderBytes = byType.getOrDefault(MemoryUsageType.kTableReadersTotal, 0L);
+        }
+
+        private long cacheBytes() {
+            return cacheUsage.values().stream().mapToLong(u -> u[0]).sum();
+        }
+
+        private long pinnedBytes() {
+            return cacheUsage.values().stream().mapToLong(u -> u[1]).sum();
+        }
+
+        private SlotUsage slot() {
+            return SLOTS.get(instance.slotId());
+        }
+
+        private void registerMetrics(MetricGroup group) {
+            group.gauge("cacheBytes", (Gauge<Long>) this::cacheBytes);
+            group.gauge("cacheBudgetBytes", (Gauge<Long>) () -> cacheBudgetBytes);
+            group.gauge("cachePinnedBytes", (Gauge<Long>) this::pinnedBytes);
+            group.gauge("memTableBytes", (Gauge<Long>) () -> memTableBytes);
+            group.gauge("memTableBudgetBytes", (Gauge<Long>) () -> writeBufferBudgetBytes);
+            group.gauge("tableReaderBytes", (Gauge<Long>) () -> tableReaderBytes);
+            group.gauge("slotTotalBytes", (Gauge<Long>) () -> {
+                SlotUsage slot = slot();
+                return slot == null ? 0L : slot.totalBytes();
+            });
+            group.gauge("slotManagedBytes", (Gauge<Long>) () -> slotManagedBytes);
+            group.gauge("slotOverBudget", (Gauge<Integer>) () -> {
+                SlotUsage slot = slot();
+                return slot != null && slot.overBudget ? 1 : 0;
+            });
+            group.gauge("taskManagerTotalBytes", (Gauge<Long>) () -> taskManagerTotalBytes);
+            group.gauge("processRssBytes", (Gauge<Long>) () -> processRssBytes);
+        }
+    }
+}
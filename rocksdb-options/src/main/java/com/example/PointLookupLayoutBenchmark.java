@@ -0,0 +1,162 @@
+package com.example;
+
+import org.apache.flink.configuration.Configuration;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.TableProperties;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
+
+/**
+ * Get latency and block cache footprint of the point-lookup table profile ({@code table=point-lookup} in
+ * {@link ColumnFamilyProfiles}) against the layout of {@link BaseDirectIORocksDBOptionsFactory} (two-level
+ * index, partitioned bloom filters, prefix extractor), for several block sizes. The cache holds the whole
+ * DB, so the latency is the in-memory lookup path and the footprint is everything a Get touches.
+ *
+ * <p>Options: --keys, --lookups, --value-bytes, --block-kb (comma list), --restart-interval,
+ * --prefix-bytes, --absent-percent, --dir.
+ */
+public final class PointLookupLayoutBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+    private static final long CACHE_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private PointLookupLayoutBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 1_000_000);
+        int lookups = bench.intArg("lookups", 500_000);
+        int valueBytes = bench.intArg("value-bytes", 128);
+        int[] blockKb = bench.intListArg("block-kb", "4,16");
+        int restartInterval = bench.intArg("restart-interval", 16);
+        int prefixBytes = bench.intArg("prefix-bytes", MicrobenchSupport.KEY_GROUP_PREFIX_BYTES + MicrobenchSupport.USER_KEY_BYTES);
+        double absentFraction = bench.doubleArg("absent-percent", 0) / 100;
+
+        MicrobenchSupport.printCsv(
+            "layout", "block_kb", "restart_interval", "mean_get_ns", "p99_get_ns", "cache_bytes",
+            "data_bytes", "index_bytes", "filter_bytes");
+
+        Configuration baseConfig = new Configuration();
+        baseConfig.set(ColumnFamilyProfiles.FIXED_PREFIX_BYTES, prefixBytes);
+        BaseDirectIORocksDBOptionsFactory baseFactory = new DirectIORocksDBOptionsFactoryIndexBloomPrefix();
+        baseFactory.configure(baseConfig);
+
+        for (int kb : blockKb) {
+            long blockBytes = kb * 1024L;
+            run(bench, "base-direct-io", kb, 16, keys, lookups, valueBytes, absentFraction,
+                (options, handles) -> baseFactory.createColumnOptions(options, handles), blockBytes);
+            ColumnFamilyProfiles.Profile binary = new ColumnFamilyProfiles.Profile(
+                    prefixBytes, 10, true, blockBytes, 64L * 1024 * 1024, null)
+                .with("block-restart-interval", String.valueOf(restartInterval));
+            run(bench, "profile-binary", kb, restartInterval, keys, lookups, valueBytes, absentFraction,
+                profileLayout(binary), blockBytes);
+            run(bench, "profile-data-block-hash", kb, restartInterval, keys, lookups, valueBytes, absentFraction,
+                profileLayout(binary.with("data-block-hash-index", "true")), blockBytes);
+            run(bench, "profile-point-lookup", kb, restartInterval, keys, lookups, valueBytes, absentFraction,
+                profileLayout(binary.with("table", "point-lookup")), blockBytes);
+        }
+    }
+
+    private static BiFunction<ColumnFamilyOptions, List<AutoCloseable>, ColumnFamilyOptions> profileLayout(
+            ColumnFamilyProfiles.Profile profile) {
+        return (options, handles) -> {
+            BlockBasedTableConfig tableConfig = (BlockBasedTableConfig) options.tableFormatConfig();
+            // same index/filter caching as the base layout, so the footprints compare
+            tableConfig
+                .setCacheIndexAndFilterBlocks(true)
+                .setCacheIndexAndFilterBlocksWithHighPriority(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+            profile.applyTo(tableConfig, handles);
+            profile.applyTo(options, handles);
+            return options.setTableFormatConfig(tableConfig);
+        };
+    }
+
+    private static void run(
+            MicrobenchSupport bench,
+            String layout,
+            int blockKb,
+            int restartInterval,
+            long keys,
+            int lookups,
+            int valueBytes,
+            double absentFraction,
+            BiFunction<ColumnFamilyOptions, List<AutoCloseable>, ColumnFamilyOptions> columnOptions,
+            long blockBytes) throws Exception {
+        Path dir = bench.scratchDir("point-lookup-layout");
+        List<AutoCloseable> handles = new ArrayList<>();
+        try (Cache cache = new LRUCache(CACHE_BYTES, -1, false, 0.1);
+                DBOptions dbOptions = new DBOptions().setCreateIfMissing(true);
+                ColumnFamilyOptions cfOptions = columnOptions.apply(
+                    new ColumnFamilyOptions().setTableFormatConfig(new BlockBasedTableConfig()
+                        .setBlockCache(cache)
+                        .setBlockSize(blockBytes)),
+                    handles);
+                Options options = new Options(dbOptions, cfOptions);
+                RocksDB db = RocksDB.open(options, dir.toString());
+                FlushOptions flush = new FlushOptions().setWaitForFlush(true);
+                CompactRangeOptions compact = new CompactRangeOptions()
+                    .setBottommostLevelCompaction(CompactRangeOptions.BottommostLevelCompaction.kForce);
+                ReadOptions readOptions = new ReadOptions()) {
+            // even user keys exist, odd ones are the absent probes
+            for (long k = 0; k < keys; k++) {
+                db.put(MicrobenchSupport.stateKey(2 * k, 0, NUM_KEY_GROUPS), MicrobenchSupport.value(k, valueBytes));
+            }
+            db.flush(flush);
+            db.compactRange(db.getDefaultColumnFamily(), null, null, compact);
+
+            long dataBytes = 0;
+            long indexBytes = 0;
+            long filterBytes = 0;
+            for (TableProperties properties : db.getPropertiesOfAllTables().values()) {
+                dataBytes += properties.getDataSize();
+                indexBytes += properties.getIndexSize();
+                filterBytes += properties.getFilterSize();
+            }
+            // warm pass so every block a Get needs is resident
+            for (long k = 0; k < keys; k++) {
+                db.get(readOptions, MicrobenchSupport.stateKey(2 * k, 0, NUM_KEY_GROUPS));
+            }
+            long[] latencies = new long[lookups];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < lookups; i++) {
+                long k = 2 * random.nextLong(keys) + (random.nextDouble() < absentFraction ? 1 : 0);
+                byte[] key = MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS);
+                long began = System.nanoTime();
+                db.get(readOptions, key);
+                latencies[i] = System.nanoTime() - began;
+            }
+            Arrays.sort(latencies);
+            MicrobenchSupport.printCsv(
+                layout,
+                blockKb,
+                restartInterval,
+                Arrays.stream(latencies).average().orElse(0),
+                latencies[(int) (lookups * 0.99)],
+                cache.getUsage(),
+                dataBytes,
+                indexBytes,
+                filterBytes);
+        } finally {
+            for (AutoCloseable handle : handles) {
+                handle.close();
+            }
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example;
+
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ConfigOptions;
+import org.rocksdb.AbstractEventListener;
+import org.rocksdb.FlushJobInfo;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.SstFileReader;
+import org.rocksdb.SstFileReaderIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Derives the fixed prefix length of each state from keys sampled out of the SST files its first flushes
+ * write. Flink keys are key group + key + namespace (+ map user key), so the entries of one state key
+ * share a prefix that iterators seek to. Past the key-group prefix, the number of distinct prefixes grows
+ * over the varying bytes of the key and stops growing where the key ends; behind that plateau only the
+ * namespace and map user keys follow. The first plateau is the only candidate: a length past it could
+ * cover user-key bytes and put Flink's seek targets outside the extractor's domain. It is used when its
+ * groups are selective (2 to 64 sampled entries on average) and finer than the key groups alone, so a
+ * state with few keys and many user keys gets no prefix at all. States without such a length (value
+ * states, variable-length keys) get whole-key filtering.
+ *
+ * <p>Column families are configured before anything is flushed, so a detection applies to the next
+ * instance of the task (restore, rescale). Decisions are kept in a properties file so every restore on
+ * the TaskManager uses the same length; until then a state gets whole-key filtering and no extractor.
+ * The file outlives jobs, so only instances whose task is known ({@link RocksDBInstanceHandle#taskKnown})
+ * detect or use a length.
+ */
+final class PrefixLengthDetector extends AbstractEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefixLengthDetector.class);
+
+    static final ConfigOption<Boolean> ENABLED =
+        ConfigOptions.key("com.example.rocksdb.prefix-detection.enabled").booleanType().defaultValue(false);
+    static final ConfigOption<String> STORE_FILE =
+        ConfigOptions.key("com.example.rocksdb.prefix-detection.store-file")
+            .stringType()
+            .defaultValue("/data/rocksdb_options/detected-prefix-lengths.properties");
+
+    private static final int MIN_SAMPLES = 2_048;
+    private static final int MAX_SAMPLES = 8_192;
+    private static final int MAX_SAMPLES_PER_FILE = 1_024;
+    // a stable length: one more byte adds at most this share of distinct prefixes
+    private static final double MAX_SPLIT_GROWTH = 0.02;
+    // selective groups: between 2 and 64 sampled entries per prefix on average
+    private static final double MAX_DISTINCT_FRACTION = 0.5;
+    private static final double MIN_DISTINCT_FRACTION = 1.0 / 64;
+    // Flink's key-group prefix: 1 byte up to 128 key groups, 2 above
+    private static final int MAX_KEY_GROUP_PREFIX_BYTES = 2;
+    private static final String DEFAULT_COLUMN_FAMILY = "default";
+
+    // "task/state" -> detected length, 0 meaning no stable prefix
+    private static final Map<String, Integer> DETECTED = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> LOADED_STORES = new ConcurrentHashMap<>();
+
+    private final String taskName;
+    private final Path storeFile;
+    private final Map<String, List<byte[]>> samples = new ConcurrentHashMap<>();
+
+    PrefixLengthDetector(String taskName, String storeFile) {
+        super(EnabledEventCallback.ON_FLUSH_COMPLETED);
+        this.taskName = taskName;
+        this.storeFile = Paths.get(storeFile);
+        loadStore(this.storeFile);
+    }
+
+    /**
+     * Detected length for {@code stateName}, or for the whole task when the name is unknown (the shortest
+     * length detected for any of its states, 0 if one of them has none). Empty while nothing is known.
+     */
+    static OptionalInt detectedLength(String storeFile, String taskName, String stateName) {
+        loadStore(Paths.get(storeFile));
+        if (stateName != null) {
+            Integer length = DETECTED.get(key(taskName, stateName));
+            return length == null ? OptionalInt.empty() : OptionalInt.of(length);
+        }
+        String taskPrefix = taskName + "/";
+        return DETECTED.entrySet().stream()
+            .filter(entry -> entry.getKey().startsWith(taskPrefix))
+            .mapToInt(Map.Entry::getValue)
+            .min();
+    }
+
+    @Override
+    public void onFlushCompleted(RocksDB db, FlushJobInfo flushJobInfo) {
+        String stateName = flushJobInfo.getColumnFamilyName();
+        if (DEFAULT_COLUMN_FAMILY.equals(stateName) || DETECTED.containsKey(key(taskName, stateName))) {
+            return;
+        }
+        List<byte[]> stateSamples = samples.computeIfAbsent(stateName, name -> new ArrayList<>());
+        int length;
+        synchronized (stateSamples) {
+            try {
+                sampleFile(flushJobInfo.getFilePath(), stateSamples);
+            } catch (RocksDBException e) {
+                LOG.debug("Unable to sample keys of {} for prefix detection.", flushJobInfo.getFilePath(), e);
+                return;
+            }
+            if (stateSamples.size() < MIN_SAMPLES || samples.remove(stateName) == null) {
+                return;
+            }
+            length = detect(stateSamples);
+        }
+        DETECTED.put(key(taskName, stateName), length);
+        LOG.info(
+            "Detected fixed prefix length of state '{}' in task '{}': {}",
+            stateName,
+            taskName,
+            length > 0 ? length + " bytes" : "none, using whole-key filtering");
+        saveStore(storeFile);
+    }
+
+    private static void sampleFile(String filePath, List<byte[]> stateSamples) throws RocksDBException {
+        try (Options options = new Options();
+             SstFileReader reader = new SstFileReader(options);
+             ReadOptions readOptions = new ReadOptions().setFillCache(false)) {
+            reader.open(filePath);
+            long entries = reader.getTableProperties().getNumEntries();
+            // every entry with probability MAX_SAMPLES_PER_FILE / entries, up to the overall cap
+            double rate = Math.min(1.0, (double) MAX_SAMPLES_PER_FILE / Math.max(entries, 1L));
+            try (SstFileReaderIterator iterator = reader.newIterator(readOptions)) {
+                for (iterator.seekToFirst(); iterator.isValid() && stateSamples.size() < MAX_SAMPLES; iterator.next()) {
+                    if (ThreadLocalRandom.current().nextDouble() < rate) {
+                        stateSamples.add(iterator.key());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the first plateau past the key-group prefix if it groups the sampled keys
+     * selectively, or 0. Never longer than that plateau.
+     */
+    static int detect(List<byte[]> keys) {
+        byte[][] sorted = keys.toArray(new byte[0][]);
+        Arrays.sort(sorted, Arrays::compareUnsigned);
+        int unique = 0;
+        int minLength = Integer.MAX_VALUE;
+        for (byte[] key : sorted) {
+            if (unique == 0 || Arrays.compareUnsigned(sorted[unique - 1], key) != 0) {
+                sorted[unique++] = key;
+                minLength = Math.min(minLength, key.length);
+            }
+        }
+        if (unique < 2 || minLength <= MAX_KEY_GROUP_PREFIX_BYTES + 1) {
+            return 0;
+        }
+        // splits[p] = adjacent pairs that differ within the first p bytes; distinct p-prefixes = 1 + splits[p]
+        int[] splits = new int[minLength + 1];
+        for (int i = 1; i < unique; i++) {
+            int lcp = commonPrefixLength(sorted[i - 1], sorted[i]);
+            for (int p = lcp + 1; p <= minLength; p++) {
+                splits[p]++;
+            }
+        }
+        int keyGroupDistinct = 1 + splits[MAX_KEY_GROUP_PREFIX_BYTES];
+        // shorter than the shortest key: a prefix equal to the whole key is just whole-key filtering
+        for (int p = MAX_KEY_GROUP_PREFIX_BYTES + 1; p < minLength; p++) {
+            if (isConstant(sorted, unique, p - 1)) {
+                // e.g. the high zero bytes of a numeric key: no key ends on a byte every key shares
+                continue;
+            }
+            int distinct = 1 + splits[p];
+            int distinctNext = 1 + splits[p + 1];
+            if (distinctNext - distinct > distinct * MAX_SPLIT_GROWTH) {
+                continue;
+            }
+            boolean selective = distinct >= unique * MIN_DISTINCT_FRACTION && distinct <= unique * MAX_DISTINCT_FRACTION;
+            boolean finerThanKeyGroups = distinct > keyGroupDistinct * (1 + MAX_SPLIT_GROWTH);
+            return selective && finerThanKeyGroups ? p : 0;
+        }
+        return 0;
+    }
+
+    private static boolean isConstant(byte[][] keys, int count, int index) {
+        byte value = keys[0][index];
+        for (int i = 1; i < count; i++) {
+            if (keys[i][index] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int commonPrefixLength(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch < 0 ? Math.min(a.length, b.length) : mismatch;
+    }
+
+    private static String key(String taskName, String stateName) {
+        return taskName + "/" + stateName;
+    }
+
+    private static void loadStore(Path storeFile) {
+        if (LOADED_STORES.putIfAbsent(storeFile.toString(), Boolean.TRUE) != null || !Files.isRegularFile(storeFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(storeFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.warn("Unable to read detected prefix lengths from {}.", storeFile, e);
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                DETECTED.putIfAbsent(name, Integer.parseInt(properties.getProperty(name).trim()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid prefix length '{}' for {} in {}.", properties.getProperty(name), name, storeFile);
+            }
+        }
+    }
+
+    private static synchronized void saveStore(Path storeFile) {
+        Properties properties = new Properties();
+        DETECTED.forEach((name, length) -> properties.setProperty(name, String.valueOf(length)));
+        try {
+            Path dir = storeFile.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, "fixed prefix lengths detected by PrefixLengthDetector (task/state=bytes)");
+            }
+            Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to persist detected prefix lengths to {}.", storeFile, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example;
+
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ConfigOptions;
+
+import java.util.Collection;
+
+/**
+ * Pre-close hook for our Flink build. Flink closes a RocksDB instance before the handles its options
+ * factory added to handlesToClose, so a periodic task of this factory could otherwise call into a freed
+ * DB. The build calls {@link #beforeClose} with the instance's handlesToClose right before every {@code
+ * db.close()} of the keyed state backend (dispose and the failure path of the backend builder); see
+ * instructions.md. Features that poll the DB refuse to start unless {@link #INSTALLED} is set.
+ */
+public final class RocksDBCloseHook {
+
+    /** Declares that the running Flink build calls {@link #beforeClose}. */
+    public static final ConfigOption<Boolean> INSTALLED =
+        ConfigOptions.key("com.example.rocksdb.db-close-hook.installed").booleanType().defaultValue(false);
+
+    private RocksDBCloseHook() {
+    }
+
+    /**
+     * Detaches the options factory from the DB whose handlesToClose are given. Returns once no periodic
+     * task uses the DB anymore; later ones skip it.
+     */
+    public static void beforeClose(Collection<AutoCloseable> handlesToClose) {
+        RocksDBInstanceHandle.find(handlesToClose).ifPresent(RocksDBInstanceHandle::beforeDbClose);
+    }
+}
@@ -0,0 +1,400 @@
+package com.example;
+
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.groups.UnregisteredMetricsGroup;
+import org.apache.flink.runtime.metrics.groups.TaskIOMetricGroup;
+import org.apache.flink.runtime.metrics.groups.TaskMetricGroup;
+import org.apache.flink.runtime.taskmanager.Task;
+import org.rocksdb.AbstractEventListener;
+import org.rocksdb.CompactionJobInfo;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushJobInfo;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One RocksDB state backend instance as seen from an options factory. It sits in handlesToClose, so it
+ * is closed together with the instance's cache and WBM handles (after Flink closed the DB itself).
+ * Register it before any other handle: Flink closes handles in insertion order, and periodic tasks must
+ * stop before the Statistics/Cache objects they read are freed.
+ *
+ * <p>Options factories never see the opened DB, so the native handle is captured from the first flush
+ * or compaction callback and handed to the callbacks registered through {@link #onAttach}. Flink closes
+ * the DB before this handle, so features that call into the DB from periodic tasks ({@link #db()}) must
+ * declare it through {@link #requireDb}: that only works with a Flink build that calls
+ * {@link RocksDBCloseHook} before it closes the DB.
+ */
+final class RocksDBInstanceHandle implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RocksDBInstanceHandle.class);
+
+    private static final String METRIC_GROUP_NAME = "rocksdb_options";
+    private static final AtomicInteger NEXT_INSTANCE_ID = new AtomicInteger();
+    private static final String UNKNOWN_TASK_NAME = "unknown";
+    private static final AtomicBoolean NO_METRIC_GROUP_LOGGED = new AtomicBoolean();
+
+    // one daemon thread per TaskManager for every periodic controller/poller
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rocksdb-options-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface AttachCallback {
+        void attached(RocksDB db) throws RocksDBException;
+    }
+
+    private final int id;
+    private final boolean dbCloseHook;
+    private final String taskName;
+    private final String slotId;
+    private final MetricGroup metricGroup;
+    private final boolean reportsMetrics;
+    // null without a task metric group
+    private final TaskIOMetricGroup taskIoMetrics;
+    private final List<AttachCallback> attachCallbacks = new ArrayList<>();
+    private final List<AbstractEventListener> listeners = new ArrayList<>();
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    private final List<ReadOptions> readOptions = new CopyOnWriteArrayList<>();
+    private final Set<String> fillCacheVetoes = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+    // held while a periodic task runs so close() never races with native calls on closed handles
+    private final Object runLock = new Object();
+    private volatile RocksDB db;
+    private volatile boolean dbRequired;
+    // set by RocksDBCloseHook before Flink closes the DB; later callbacks must not attach again
+    private volatile boolean dbClosing;
+    private volatile boolean closed;
+
+    /** @param taskMetricGroup null when metrics cannot be reported */
+    private RocksDBInstanceHandle(
+            int id, boolean dbCloseHook, String taskName, String slotId, MetricGroup taskMetricGroup) {
+        this.id = id;
+        this.dbCloseHook = dbCloseHook;
+        this.taskName = taskName;
+        this.slotId = slotId;
+        this.reportsMetrics = taskMetricGroup != null;
+        this.metricGroup = (taskMetricGroup == null ? new UnregisteredMetricsGroup() : taskMetricGroup)
+            .addGroup(METRIC_GROUP_NAME)
+            .addGroup("instance", String.valueOf(id));
+        this.taskIoMetrics = taskMetricGroup instanceof TaskMetricGroup
+            ? ((TaskMetricGroup) taskMetricGroup).getIOMetricGroup()
+            : null;
+    }
+
+    /**
+     * @param dbCloseHook whether the Flink build calls {@link RocksDBCloseHook#beforeClose} before it closes
+     *     the DB ({@link RocksDBCloseHook#INSTALLED})
+     */
+    static RocksDBInstanceHandle register(Collection<AutoCloseable> handlesToClose, boolean dbCloseHook) {
+        Task task = currentTask();
+        int id = NEXT_INSTANCE_ID.getAndIncrement();
+        RocksDBInstanceHandle handle = new RocksDBInstanceHandle(
+            id,
+            dbCloseHook,
+            task == null ? UNKNOWN_TASK_NAME : task.getTaskInfo().getTaskName(),
+            // without a task, every instance counts as its own slot
+            task == null ? "instance-" + id : task.getAllocationId().toString(),
+            resolveTaskMetricGroup(task));
+        handlesToClose.add(handle);
+        return handle;
+    }
+
+    static Optional<RocksDBInstanceHandle> find(Collection<AutoCloseable> handlesToClose) {
+        return handlesToClose.stream()
+            .filter(RocksDBInstanceHandle.class::isInstance)
+            .map(RocksDBInstanceHandle.class::cast)
+            .findFirst();
+    }
+
+    int id() {
+        return id;
+    }
+
+    /** Task (operator chain) name without the subtask index, stable across rescaling. */
+    String taskName() {
+        return taskName;
+    }
+
+    /**
+     * Whether the owning task could be resolved (our Flink build only). Without it every instance has the
+     * same task name and its own slot, so nothing may be learned per task or budgeted per slot.
+     */
+    boolean taskKnown() {
+        return !UNKNOWN_TASK_NAME.equals(taskName);
+    }
+
+    /** Allocation id of the slot the owning task runs in. */
+    String slotId() {
+        return slotId;
+    }
+
+    MetricGroup metricGroup() {
+        return metricGroup;
+    }
+
+    /** Whether {@link #metricGroup} reaches a reporter; without our Flink build it is unregistered. */
+    boolean reportsMetrics() {
+        return reportsMetrics;
+    }
+
+    /** Idle and backpressured time of the owning task. */
+    Optional<TaskIOMetricGroup> taskIoMetrics() {
+        return Optional.ofNullable(taskIoMetrics);
+    }
+
+    /**
+     * Declares that {@code feature} calls into the DB through {@link #db()}, which makes the instance
+     * capture it. Fails unless the Flink build detaches the DB before closing it; call it from
+     * createDBOptions, before {@link #installListeners}.
+     */
+    void requireDb(String feature) {
+        if (!dbCloseHook) {
+            throw new IllegalStateException(feature + " calls into the RocksDB instance from a periodic task, "
+                + "which needs the pre-close hook of our Flink build: Flink closes the DB before the options "
+                + "factory's handles. Set " + RocksDBCloseHook.INSTALLED.key() + ": true on a Flink build that "
+                + "calls RocksDBCloseHook.beforeClose, or disable " + feature + ".");
+        }
+        dbRequired = true;
+    }
+
+    /**
+     * The opened DB, once captured and until Flink starts closing it. Only for features that called
+     * {@link #requireDb}, and only from tasks run through {@link #runIfOpen} or {@link #schedulePeriodically}:
+     * the close hook waits for those, so the DB stays open while they use it.
+     */
+    Optional<RocksDB> db() {
+        if (!dbRequired) {
+            throw new IllegalStateException("db() of RocksDB instance " + id + " without requireDb()");
+        }
+        return closed || dbClosing ? Optional.empty() : Optional.ofNullable(db);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void onAttach(AttachCallback callback) {
+        RocksDB attached;
+        synchronized (lock) {
+            attached = db;
+            if (attached == null) {
+                attachCallbacks.add(callback);
+                return;
+            }
+        }
+        runAttachCallback(callback, attached);
+    }
+
+    /** Registers a ReadOptions Flink got for this instance, so features can change it in place later. */
+    void addReadOptions(ReadOptions options) {
+        synchronized (lock) {
+            readOptions.add(options);
+            options.setFillCache(fillCacheVetoes.isEmpty());
+        }
+    }
+
+    /**
+     * Turns cache fills of the instance's reads off while at least one feature vetoes them. Lookups still
+     * hit the cache; only the inserts after a miss are skipped.
+     */
+    void vetoFillCache(String reason, boolean veto) {
+        synchronized (lock) {
+            boolean changed = veto ? fillCacheVetoes.add(reason) : fillCacheVetoes.remove(reason);
+            if (!changed || closed) {
+                return;
+            }
+            for (ReadOptions options : readOptions) {
+                options.setFillCache(fillCacheVetoes.isEmpty());
+            }
+        }
+    }
+
+    boolean fillsCache() {
+        return fillCacheVetoes.isEmpty();
+    }
+
+    void addListener(AbstractEventListener listener) {
+        listeners.add(listener);
+        addResource(listener);
+    }
+
+    /** Runs {@code task} on the shared scheduler until the instance is closed. */
+    void schedulePeriodically(Runnable task, long periodMillis) {
+        ScheduledFuture<?> future = scheduleShared(() -> runIfOpen(task), periodMillis);
+        addResource(() -> future.cancel(false));
+    }
+
+    /**
+     * Runs {@code task} now unless the instance is closed; close() waits for it. For TaskManager-wide tasks
+     * that visit several instances from one schedule.
+     */
+    void runIfOpen(Runnable task) {
+        synchronized (runLock) {
+            if (closed) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.warn("Periodic task failed for RocksDB instance {}.", id, t);
+            }
+        }
+    }
+
+    /** Runs {@code task} on the shared scheduler, independent of any instance; the caller cancels it. */
+    static ScheduledFuture<?> scheduleShared(Runnable task, long periodMillis) {
+        return SCHEDULER.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.warn("Shared periodic task failed.", t);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Closed in reverse registration order when the instance goes away. */
+    void addResource(AutoCloseable resource) {
+        synchronized (lock) {
+            resources.push(resource);
+        }
+    }
+
+    /** Must be called last in createDBOptions, once every feature registered its callbacks. */
+    void installListeners(DBOptions options) {
+        if (dbRequired || !attachCallbacks.isEmpty()) {
+            addListener(new AttachListener());
+        }
+        if (!listeners.isEmpty()) {
+            options.setListeners(listeners);
+        }
+    }
+
+    private void attach(RocksDB candidate) {
+        List<AttachCallback> pending;
+        synchronized (lock) {
+            if (db != null || dbClosing || closed) {
+                return;
+            }
+            db = candidate;
+            pending = new ArrayList<>(attachCallbacks);
+            attachCallbacks.clear();
+        }
+        LOG.info("Attached to RocksDB instance {}.", id);
+        for (AttachCallback callback : pending) {
+            runAttachCallback(callback, candidate);
+        }
+    }
+
+    private void runAttachCallback(AttachCallback callback, RocksDB attached) {
+        try {
+            callback.attached(attached);
+        } catch (Throwable t) {
+            LOG.warn("Attach callback failed for RocksDB instance {}.", id, t);
+        }
+    }
+
+    /**
+     * Called through {@link RocksDBCloseHook} right before Flink closes the DB. Waits for a running periodic
+     * task and keeps later ones away from the DB; the factory-owned handles stay usable until close().
+     */
+    void beforeDbClose() {
+        synchronized (runLock) {
+            dbClosing = true;
+        }
+        synchronized (lock) {
+            db = null;
+            attachCallbacks.clear();
+        }
+        LOG.info("Detached from RocksDB instance {} before Flink closes it.", id);
+    }
+
+    @Override
+    public void close() {
+        Deque<AutoCloseable> toClose;
+        synchronized (runLock) {
+            closed = true;
+        }
+        synchronized (lock) {
+            db = null;
+            attachCallbacks.clear();
+            readOptions.clear();
+            toClose = new ArrayDeque<>(resources);
+            resources.clear();
+        }
+        for (AutoCloseable resource : toClose) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOG.debug("Failed to close resource of RocksDB instance {}.", id, e);
+            }
+        }
+    }
+
+    private static Task currentTask() {
+        try {
+            // Task.getCurrentTaskOrNull() only exists in our Flink build
+            Object task = Task.class.getMethod("getCurrentTaskOrNull").invoke(null);
+            return task instanceof Task ? (Task) task : null;
+        } catch (Throwable t) {
+            LOG.debug("Unable to resolve the current task.", t);
+            return null;
+        }
+    }
+
+    // null without one
+    private static MetricGroup resolveTaskMetricGroup(Task task) {
+        if (task != null) {
+            try {
+                // Task.getMetricGroup() only exists in our Flink build
+                Object group = Task.class.getMethod("getMetricGroup").invoke(task);
+                if (group instanceof MetricGroup) {
+                    return (MetricGroup) group;
+                }
+            } catch (Throwable t) {
+                LOG.debug("Unable to resolve the metric group of the current task.", t);
+            }
+        }
+        if (NO_METRIC_GROUP_LOGGED.compareAndSet(false, true)) {
+            LOG.warn(
+                "No task metric group: the options factory metrics need Task.getCurrentTaskOrNull() and "
+                    + "Task.getMetricGroup() of our Flink build and are not reported on this one.");
+        }
+        return null;
+    }
+
+    private final class AttachListener extends AbstractEventListener {
+        private AttachListener() {
+            super(EnabledEventCallback.ON_FLUSH_BEGIN, EnabledEventCallback.ON_COMPACTION_BEGIN);
+        }
+
+        @Override
+        public void onFlushBegin(RocksDB db, FlushJobInfo flushJobInfo) {
+            attach(db);
+        }
+
+        @Override
+        public void onCompactionBegin(RocksDB db, CompactionJobInfo compactionJobInfo) {
+            attach(db);
+        }
+    }
+}
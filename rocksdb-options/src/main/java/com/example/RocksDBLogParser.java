@@ -0,0 +1,386 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming parser for the periodic stats dumps ({@code stats_dump_period_sec}) in a RocksDB LOG file. Every
+ * value of a dump becomes one sample of {@code (time, instance, column family, section, row, metric)}:
+ *
+ * <ul>
+ *   <li>{@code db_stats}: uptime, cumulative/interval writes, WAL and write stall time of the DB;
+ *   <li>{@code compaction_levels} and {@code compaction_priority}: the compaction stats tables, one row per
+ *       level (L0.., Sum, Int) or thread priority, one metric per column;
+ *   <li>{@code cf_stats}: flush and compaction volume, AddFile, blob files and the Stalls(count) counters;
+ *   <li>{@code block_cache}: capacity and collection stats per cache, and bytes/entries per entry role;
+ *   <li>{@code statistics}: ticker and histogram lines, where the build prints them into the dump.
+ * </ul>
+ *
+ * <p>The file is memory-mapped in windows and read in a single pass. Only dump lines are decoded (as
+ * Latin-1); the flush and compaction lines between dumps are skipped at the byte level, so a multi-GB LOG
+ * takes seconds to tens of seconds. Lines of a dump carry no timestamp; every sample gets the time of the
+ * "DUMPING STATS" line that opened it (ISO-8601, in the TaskManager's local time). Human-readable values
+ * are scaled back: K/M/G counts by 1000, KB/MB/GB sizes by 1024 (size columns become {@code *_bytes}),
+ * H:M:S durations to seconds.
+ */
+final class RocksDBLogParser {
+
+    interface Sink {
+        void sample(
+            String time, String instance, String columnFamily, String section, String row, String metric, double value);
+    }
+
+    private static final String DUMP_MARKER = "------- DUMPING STATS -------";
+    private static final String STATISTICS_MARKER = "STATISTICS:";
+    private static final byte[][] MARKER_BYTES = {
+        DUMP_MARKER.getBytes(StandardCharsets.ISO_8859_1), STATISTICS_MARKER.getBytes(StandardCharsets.ISO_8859_1)
+    };
+    private static final long MAP_WINDOW_BYTES = 256L * 1024 * 1024;
+
+    // 1734K writes | 0.20 MB/s | 1.0 writes per commit group
+    private static final Pattern VALUE_FIRST = Pattern.compile("^([\\d.]+)([KMG]?)\\s+(.+)$");
+    // ingest: 0.12 GB | cumulative 0.123 | interval 0 total count
+    private static final Pattern NAME_FIRST = Pattern.compile("^([A-Za-z][\\w ()/-]*?):?\\s+([\\d.]+)\\s*(.*)$");
+    // GB write -> write_gb, like ingest: 0.12 GB
+    private static final Pattern UNIT_FIRST = Pattern.compile("^([KMG]B(?:/s)?) (.+)$");
+    // 00:00:1.234 H:M:S
+    private static final Pattern HMS = Pattern.compile("^(\\d+):(\\d+):([\\d.]+) H:M:S$");
+    // capacity: 8.00 MB | last_secs: 4.2e-05
+    private static final Pattern CACHE_PAIR = Pattern.compile("(\\w+): ([\\d.e+-]+)(?: (KB|MB|GB|TB)\\b)?");
+    // rocksdb.db.get.micros P50 : 1.2 P95 : 3.4 ... COUNT : 12 SUM : 34
+    private static final Pattern STATISTICS_PAIR = Pattern.compile("(\\w+) : ([\\d.]+)");
+    private static final Pattern CF_HEADER = Pattern.compile("^\\*\\* Compaction Stats \\[(.*)\\] \\*\\*$");
+
+    private enum Section {
+        NONE,
+        DB_STATS,
+        TABLE_HEADER,
+        TABLE,
+        CF_STATS,
+        SKIPPED
+    }
+
+    private final Sink sink;
+
+    // state of the dump being read
+    private String instance;
+    private boolean inDump;
+    private String time;
+    private String columnFamily;
+    private Section section = Section.NONE;
+    private String tableName;
+    private String[] tableColumns;
+    private long dumps;
+
+    RocksDBLogParser(Sink sink) {
+        this.sink = sink;
+    }
+
+    /** Parses {@code logFile}, reporting its samples under {@code instanceName}; returns the dumps read. */
+    long parse(Path logFile, String instanceName) throws IOException {
+        instance = instanceName;
+        inDump = false;
+        section = Section.NONE;
+        long dumpsBefore = dumps;
+        byte[] scratch = new byte[4096];
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long windowBytes = Math.min(MAP_WINDOW_BYTES, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowBytes);
+                boolean last = position + windowBytes >= size;
+                int limit = (int) windowBytes;
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        scratch = line(window, lineStart, i, scratch);
+                        lineStart = i + 1;
+                    }
+                }
+                if (last || lineStart == 0) {
+                    // the final line without a newline, or a line longer than a whole window
+                    if (lineStart < limit) {
+                        scratch = line(window, lineStart, limit, scratch);
+                    }
+                    position += windowBytes;
+                } else {
+                    // the partial line at the end starts the next window
+                    position += lineStart;
+                }
+            }
+        }
+        return dumps - dumpsBefore;
+    }
+
+    private byte[] line(MappedByteBuffer window, int start, int end, byte[] scratch) {
+        int length = end - start;
+        if (length > 0 && window.get(end - 1) == '\r') {
+            length--;
+        }
+        if (!inDump && !endsWithMarker(window, start, start + length)) {
+            // most of a LOG is flush and compaction chatter between dumps: not even decoded
+            return scratch;
+        }
+        byte[] buffer = scratch.length >= length ? scratch : new byte[Math.max(length, scratch.length * 2)];
+        window.position(start);
+        window.get(buffer, 0, length);
+        parseLine(new String(buffer, 0, length, StandardCharsets.ISO_8859_1));
+        return buffer;
+    }
+
+    private static boolean endsWithMarker(MappedByteBuffer window, int start, int end) {
+        for (byte[] marker : MARKER_BYTES) {
+            int from = end - marker.length;
+            if (from < start) {
+                continue;
+            }
+            int i = 0;
+            while (i < marker.length && window.get(from + i) == marker[i]) {
+                i++;
+            }
+            if (i == marker.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Feeds one line of a LOG; {@link #parse} calls this for every line of the file. */
+    void parseLine(String line) {
+        if (isTimestamped(line)) {
+            if (line.endsWith(DUMP_MARKER)) {
+                inDump = true;
+                dumps++;
+                time = isoTime(line);
+                columnFamily = "";
+                section = Section.NONE;
+            } else if (message(line).equals(STATISTICS_MARKER)) {
+                // the tickers and histograms of the Statistics object, printed after the dump or on close
+                if (!inDump) {
+                    inDump = true;
+                    time = isoTime(line);
+                }
+                columnFamily = "";
+                section = Section.NONE;
+            } else if (inDump && !message(line).isEmpty()) {
+                // the stats message itself starts with an empty log line; anything else ends the dump
+                inDump = false;
+            }
+            return;
+        }
+        if (!inDump) {
+            return;
+        }
+        String trimmed = line.trim();
+        if (trimmed.startsWith("** ")) {
+            startSection(trimmed);
+            return;
+        }
+        switch (section) {
+            case TABLE_HEADER:
+                tableHeader(trimmed);
+                break;
+            case TABLE:
+                if (trimmed.isEmpty()) {
+                    section = Section.CF_STATS;
+                } else if (!trimmed.startsWith("---")) {
+                    tableRow(trimmed);
+                }
+                break;
+            case DB_STATS:
+                statsLine("db_stats", trimmed);
+                break;
+            case CF_STATS:
+                statsLine("cf_stats", trimmed);
+                break;
+            default:
+                if (trimmed.startsWith("rocksdb.")) {
+                    statisticsLine(trimmed);
+                }
+                break;
+        }
+    }
+
+    private void startSection(String header) {
+        Matcher cf = CF_HEADER.matcher(header);
+        if (cf.matches()) {
+            columnFamily = cf.group(1);
+            section = Section.TABLE_HEADER;
+        } else if (header.startsWith("** DB Stats")) {
+            columnFamily = "";
+            section = Section.DB_STATS;
+        } else {
+            // per-level read latency histograms and anything newer
+            section = Section.SKIPPED;
+        }
+    }
+
+    private void tableHeader(String header) {
+        if (header.startsWith("Level") || header.startsWith("Priority")) {
+            tableName = header.startsWith("Level") ? "compaction_levels" : "compaction_priority";
+            tableColumns = header.split("\\s+");
+            section = Section.TABLE;
+        }
+    }
+
+    // L0  2/0  12.34 MB  0.5  0.0 ...: the size spans two tokens, the other columns one
+    private void tableRow(String row) {
+        String[] tokens = row.split("\\s+");
+        String rowName = tokens[0];
+        int token = 1;
+        for (int column = 1; column < tableColumns.length && token < tokens.length; column++) {
+            String name = tableColumns[column];
+            if ("Files".equals(name)) {
+                String[] files = tokens[token++].split("/");
+                emit(tableName, rowName, "files", parseNumber(files[0]));
+                if (files.length > 1) {
+                    emit(tableName, rowName, "files_compacting", parseNumber(files[1]));
+                }
+            } else if ("Size".equals(name) && token + 1 < tokens.length) {
+                emit(tableName, rowName, "size_bytes",
+                    Math.round(parseNumber(tokens[token]) * CacheEntryStats.unitBytes(tokens[token + 1])));
+                token += 2;
+            } else {
+                emit(tableName, rowName, normalize(name), parseNumber(tokens[token++]));
+            }
+        }
+    }
+
+    private void statsLine(String statsSection, String line) {
+        if (line.startsWith(CacheEntryStats.LINE_PREFIX)) {
+            CacheEntryStats stats = CacheEntryStats.parseLine(line);
+            for (CacheEntryStats.Role role : CacheEntryStats.Role.values()) {
+                emit("block_cache", role.key(), "bytes", stats.bytes[role.ordinal()]);
+                emit("block_cache", role.key(), "entries", stats.entries[role.ordinal()]);
+            }
+        } else if (line.startsWith("Block cache ")) {
+            // Block cache LRUCache@0x5581e6a0 capacity: 8.00 MB collections: 1 last_copies: 0 ...
+            String[] tokens = line.split("\\s+", 4);
+            String cache = tokens.length > 2 ? tokens[2] : "";
+            Matcher pair = CACHE_PAIR.matcher(line);
+            while (pair.find()) {
+                String unit = pair.group(3);
+                if (unit == null) {
+                    emit("block_cache", cache, pair.group(1), parseNumber(pair.group(2)));
+                } else {
+                    emit("block_cache", cache, pair.group(1) + "_bytes",
+                        Math.round(parseNumber(pair.group(2)) * CacheEntryStats.unitBytes(unit)));
+                }
+            }
+        } else if (line.startsWith("rocksdb.")) {
+            statisticsLine(line);
+        } else {
+            int colon = line.indexOf(": ");
+            if (colon > 0) {
+                labelledLine(statsSection, normalize(line.substring(0, colon)), line.substring(colon + 2));
+            }
+        }
+    }
+
+    // "Cumulative writes: 1234K writes, 1234K keys, ..., ingest: 0.12 GB, 0.20 MB/s"
+    private void labelledLine(String statsSection, String label, String items) {
+        for (String item : items.split(",")) {
+            String value = item.trim();
+            Matcher matcher = HMS.matcher(value);
+            if (matcher.matches()) {
+                emit(statsSection, label, "seconds", Long.parseLong(matcher.group(1)) * 3600
+                    + Long.parseLong(matcher.group(2)) * 60 + Double.parseDouble(matcher.group(3)));
+                continue;
+            }
+            matcher = VALUE_FIRST.matcher(value);
+            if (matcher.matches()) {
+                Matcher unit = UNIT_FIRST.matcher(matcher.group(3));
+                String metric = unit.matches() ? unit.group(2) + "_" + unit.group(1) : matcher.group(3);
+                emit(statsSection, label, normalize(metric), parseNumber(matcher.group(1) + matcher.group(2)));
+                continue;
+            }
+            matcher = NAME_FIRST.matcher(value);
+            if (matcher.matches()) {
+                String metric = matcher.group(3).isEmpty()
+                    ? matcher.group(1)
+                    : matcher.group(1) + "_" + matcher.group(3);
+                emit(statsSection, label, normalize(metric), parseNumber(matcher.group(2)));
+            } else if (isNumber(value)) {
+                // "Blob file count: 0"
+                emit(statsSection, label, "value", parseNumber(value));
+            }
+        }
+    }
+
+    private void statisticsLine(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return;
+        }
+        String name = line.substring(0, space);
+        Matcher pair = STATISTICS_PAIR.matcher(line.substring(space));
+        while (pair.find()) {
+            emit("statistics", name, pair.group(1).toLowerCase(Locale.ROOT), parseNumber(pair.group(2)));
+        }
+    }
+
+    private void emit(String sampleSection, String row, String metric, double value) {
+        sink.sample(time, instance, columnFamily, sampleSection, row, metric, value);
+    }
+
+    // 2024/01/31-12:00:00.123456 7f2c3a7fe700 [db/db_impl/db_impl.cc:901] message
+    private static boolean isTimestamped(String line) {
+        return line.length() >= 26
+            && line.charAt(4) == '/'
+            && line.charAt(7) == '/'
+            && line.charAt(10) == '-'
+            && line.charAt(13) == ':'
+            && Character.isDigit(line.charAt(0));
+    }
+
+    // 2024/01/31-12:00:00.123456 -> 2024-01-31T12:00:00.123456
+    private static String isoTime(String line) {
+        int end = line.indexOf(' ');
+        return line.substring(0, 10).replace('/', '-') + 'T' + line.substring(11, end < 0 ? line.length() : end);
+    }
+
+    private static String message(String line) {
+        int end = line.indexOf("] ");
+        return end < 0 ? line : line.substring(end + 2).trim();
+    }
+
+    private static boolean isNumber(String value) {
+        return !value.isEmpty() && value.chars().allMatch(c -> Character.isDigit(c) || c == '.');
+    }
+
+    // plain numbers and NumberToHumanString's K/M/G suffixes; unparsable values become NaN
+    private static double parseNumber(String value) {
+        if (value.isEmpty()) {
+            return Double.NaN;
+        }
+        char suffix = value.charAt(value.length() - 1);
+        double scale = suffix == 'K' ? 1e3 : suffix == 'M' ? 1e6 : suffix == 'G' ? 1e9 : 1;
+        try {
+            return Double.parseDouble(scale == 1 ? value : value.substring(0, value.length() - 1)) * scale;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** {@code Read(GB)} -> {@code read_gb}, {@code 1234K commit groups} -> {@code commit_groups}. */
+    private static String normalize(String name) {
+        String normalized = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_");
+        int start = 0;
+        int end = normalized.length();
+        while (start < end && normalized.charAt(start) == '_') {
+            start++;
+        }
+        while (end > start && normalized.charAt(end - 1) == '_') {
+            end--;
+        }
+        return normalized.substring(start, end);
+    }
+}
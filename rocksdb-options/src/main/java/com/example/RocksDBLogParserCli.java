@@ -0,0 +1,154 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline front end of {@link RocksDBLogParser}: turns the stats dumps of RocksDB LOG files into a time
+ * series. By default every sample is one CSV line on stdout, {@code
+ * time,instance,column_family,section,row,metric,value}, ready for a dataframe pivot. With {@code --out-dir}
+ * each section is written to {@code <section>.csv} instead, one line per time, instance, column family and
+ * row and one column per metric (e.g. compaction_levels.csv with w_amp, size_bytes, ... per level).
+ *
+ * <p>Options: --logs (a LOG file, or a directory whose LOG and LOG.old.* files are read, e.g. the
+ * rocksdb_native_logs directory of a TaskManager), --out-dir. The instance column is the file name with
+ * the parent directory, so the LOGs of several instances can share one directory.
+ */
+public final class RocksDBLogParserCli {
+
+    private static final String[] KEY_COLUMNS = {"time", "instance", "column_family", "row"};
+
+    private RocksDBLogParserCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        MicrobenchSupport options = MicrobenchSupport.parseArguments(args);
+        String logs = options.stringArg("logs", null);
+        if (logs == null) {
+            throw new IllegalArgumentException("--logs is required");
+        }
+        List<Path> files = logFiles(Paths.get(logs));
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No RocksDB LOG files in " + logs);
+        }
+        String outDir = options.stringArg("out-dir", null);
+
+        long start = System.nanoTime();
+        long[] samples = new long[1];
+        long dumps = 0;
+        if (outDir == null) {
+            PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+            out.println("time,instance,column_family,section,row,metric,value");
+            RocksDBLogParser parser = new RocksDBLogParser((time, instance, cf, section, row, metric, value) -> {
+                samples[0]++;
+                out.append(time).append(',').append(csv(instance)).append(',').append(csv(cf)).append(',')
+                    .append(section).append(',').append(csv(row)).append(',').append(metric).append(',')
+                    .append(format(value)).append('\n');
+            });
+            for (Path file : files) {
+                dumps += parser.parse(file, instanceName(file));
+            }
+            out.flush();
+        } else {
+            WideTables tables = new WideTables();
+            RocksDBLogParser parser = new RocksDBLogParser((time, instance, cf, section, row, metric, value) -> {
+                samples[0]++;
+                tables.add(section, String.join(",", time, csv(instance), csv(cf), csv(row)), metric, value);
+            });
+            for (Path file : files) {
+                dumps += parser.parse(file, instanceName(file));
+            }
+            tables.write(Paths.get(outDir));
+        }
+        System.err.printf(
+            "files=%d dumps=%d samples=%d seconds=%.1f%n",
+            files.size(), dumps, samples[0], (System.nanoTime() - start) / 1e9);
+    }
+
+    // per directory the rotated LOG.old.<micros> files oldest first, then the live LOG
+    private static List<Path> logFiles(Path logs) throws IOException {
+        if (!Files.isDirectory(logs)) {
+            return List.of(logs);
+        }
+        try (Stream<Path> paths = Files.walk(logs)) {
+            return paths
+                .filter(Files::isRegularFile)
+                .filter(p -> {
+                    String name = p.getFileName().toString();
+                    return name.endsWith("LOG") || name.contains("LOG.old");
+                })
+                .sorted(Comparator.comparing((Path p) -> String.valueOf(p.getParent()))
+                    .thenComparing(p -> !p.getFileName().toString().contains("LOG.old"))
+                    .thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+        }
+    }
+
+    // db_log_dir names the files <escaped db path>_LOG; strip the rotation suffix so they stay one instance
+    private static String instanceName(Path file) {
+        String name = file.getFileName().toString();
+        int old = name.indexOf("LOG.old");
+        String base = old < 0 ? name : name.substring(0, old + "LOG".length());
+        Path parent = file.getParent();
+        return parent == null ? base : parent.getFileName() + "/" + base;
+    }
+
+    private static String csv(String value) {
+        return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value : '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+            ? Long.toString((long) value)
+            : Double.toString(value);
+    }
+
+    /** Samples pivoted per section; memory is per dump row, not per LOG line, so it stays small. */
+    private static final class WideTables {
+        private final Map<String, Set<String>> columns = new LinkedHashMap<>();
+        private final Map<String, Map<String, Map<String, Double>>> rows = new LinkedHashMap<>();
+
+        void add(String section, String key, String metric, double value) {
+            columns.computeIfAbsent(section, s -> new LinkedHashSet<>()).add(metric);
+            rows.computeIfAbsent(section, s -> new LinkedHashMap<>())
+                .computeIfAbsent(key, k -> new LinkedHashMap<>())
+                .put(metric, value);
+        }
+
+        void write(Path dir) throws IOException {
+            Files.createDirectories(dir);
+            for (Map.Entry<String, Map<String, Map<String, Double>>> section : rows.entrySet()) {
+                List<String> metrics = new ArrayList<>(columns.get(section.getKey()));
+                try (Writer writer = Files.newBufferedWriter(dir.resolve(section.getKey() + ".csv"))) {
+                    writer.append(String.join(",", KEY_COLUMNS)).append(',')
+                        .append(String.join(",", metrics)).append('\n');
+                    for (Map.Entry<String, Map<String, Double>> row : section.getValue().entrySet()) {
+                        writer.append(row.getKey());
+                        for (String metric : metrics) {
+                            Double value = row.getValue().get(metric);
+                            writer.append(',').append(value == null ? "" : format(value));
+                        }
+                        writer.append('\n');
+                    }
+                }
+            }
+        }
+    }
+}
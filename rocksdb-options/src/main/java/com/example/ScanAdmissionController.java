@@ -0,0 +1,112 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps long scans of one RocksDB instance from flushing the block cache. When the instance's reads are
+ * mostly iterators and those read more than a given number of blocks each on average (window contents
+ * fired as a whole, full-state scans), its reads stop filling the cache; lookups still hit, and the
+ * blocks a scan reads once are not inserted ahead of the working set of the point-lookup states. Fills
+ * are re-enabled with some hysteresis once scans get short again or Gets dominate.
+ *
+ * <p>RocksDB 6.20 has no per-iterator admission hook and Flink shares one ReadOptions across the states of
+ * an instance, so the bypass covers all reads of the instance for a period. A state can also be designated
+ * scan-heavy up front ({@code fill-cache=false} in {@link ColumnFamilyProfiles}). Data block misses while
+ * the bypass is on are the inserts it skipped.
+ */
+final class ScanAdmissionController implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScanAdmissionController.class);
+
+    static final String FILL_CACHE_VETO = "scan admission";
+
+    private static final double SCAN_HEAVY_ITER_BYTES_SHARE = 0.5;
+    // bypass ends below these fractions of the thresholds, so it does not flap
+    private static final double RELEASE_FRACTION = 0.5;
+    private static final long MIN_ITERATORS_PER_PERIOD = 100L;
+
+    private final RocksDBInstanceHandle instance;
+    private final Statistics statistics;
+    private final long maxScanBytesPerIterator;
+
+    private volatile boolean bypassing;
+    private volatile long bytesPerIterator;
+    private volatile double iterBytesShare;
+    private volatile long skippedInserts;
+    private volatile double dataHitRatio;
+
+    private long lastIterBytes;
+    private long lastGetBytes;
+    private long lastIterators;
+    private long lastDataHits;
+    private long lastDataMisses;
+
+    /** @param maxScanBytesPerIterator average iterator read volume above which fills are bypassed */
+    ScanAdmissionController(RocksDBInstanceHandle instance, Statistics statistics, long maxScanBytesPerIterator) {
+        this.instance = instance;
+        this.statistics = statistics;
+        this.maxScanBytesPerIterator = maxScanBytesPerIterator;
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("bypassing", (Gauge<Integer>) () -> bypassing ? 1 : 0);
+        group.gauge("fillsCache", (Gauge<Integer>) () -> instance.fillsCache() ? 1 : 0);
+        group.gauge("bytesPerIterator", (Gauge<Long>) () -> bytesPerIterator);
+        group.gauge("iterBytesShare", (Gauge<Double>) () -> iterBytesShare);
+        group.gauge("skippedInserts", (Gauge<Long>) () -> skippedInserts);
+        group.gauge("dataHitRatio", (Gauge<Double>) () -> dataHitRatio);
+    }
+
+    @Override
+    public void run() {
+        long iterBytes = statistics.getTickerCount(TickerType.ITER_BYTES_READ);
+        long getBytes = statistics.getTickerCount(TickerType.BYTES_READ);
+        long iterators = statistics.getTickerCount(TickerType.NO_ITERATOR_CREATED);
+        long dataHits = statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_HIT);
+        long dataMisses = statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_MISS);
+        long iterDelta = iterBytes - lastIterBytes;
+        long getDelta = getBytes - lastGetBytes;
+        long iteratorDelta = iterators - lastIterators;
+        long hitDelta = dataHits - lastDataHits;
+        long missDelta = dataMisses - lastDataMisses;
+        lastIterBytes = iterBytes;
+        lastGetBytes = getBytes;
+        lastIterators = iterators;
+        lastDataHits = dataHits;
+        lastDataMisses = dataMisses;
+
+        if (!instance.fillsCache()) {
+            // whatever the reason for the bypass, a miss in this period was not inserted
+            skippedInserts += missDelta;
+        }
+        dataHitRatio = hitDelta + missDelta == 0 ? 0.0 : (double) hitDelta / (hitDelta + missDelta);
+        if (iteratorDelta < MIN_ITERATORS_PER_PERIOD) {
+            return;
+        }
+        iterBytesShare = iterDelta + getDelta == 0 ? 0.0 : (double) iterDelta / (iterDelta + getDelta);
+        bytesPerIterator = iterDelta / iteratorDelta;
+        boolean next;
+        if (bypassing) {
+            next = iterBytesShare >= SCAN_HEAVY_ITER_BYTES_SHARE * RELEASE_FRACTION
+                && bytesPerIterator >= maxScanBytesPerIterator * RELEASE_FRACTION;
+        } else {
+            next = iterBytesShare >= SCAN_HEAVY_ITER_BYTES_SHARE && bytesPerIterator >= maxScanBytesPerIterator;
+        }
+        if (next != bypassing) {
+            LOG.info(
+                "{} cache fills for RocksDB instance {} (task '{}'): iterator bytes share={}, bytes/iterator={}",
+                next ? "Bypassing" : "Re-enabling",
+                instance.id(),
+                instance.taskName(),
+                String.format("%.2f", iterBytesShare),
+                bytesPerIterator);
+            bypassing = next;
+            instance.vetoFillCache(FILL_CACHE_VETO, next);
+        }
+    }
+}
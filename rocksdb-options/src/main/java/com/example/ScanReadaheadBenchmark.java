@@ -0,0 +1,114 @@
+package com.example;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Iterator scan throughput with direct reads versus buffered reads, for the readahead sizes
+ * {@link ScanReadaheadController} chooses between (0 is RocksDB's implicit readahead, which starts at
+ * 8 KB after a few sequential reads of a file) and for several scan lengths. The block cache is small
+ * next to the data so scans read from the files. Buffered runs are served from the page cache once the
+ * DB fits in it, which is the OS readahead that direct reads give up.
+ *
+ * <p>Options: --keys, --value-bytes, --scans, --scan-entries (comma list), --readahead-kb (comma list),
+ * --cache-mb, --dir.
+ */
+public final class ScanReadaheadBenchmark {
+
+    private static final int NUM_KEY_GROUPS = 128;
+
+    private ScanReadaheadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MicrobenchSupport bench = MicrobenchSupport.parse(args);
+        long keys = bench.longArg("keys", 2_000_000);
+        int valueBytes = bench.intArg("value-bytes", 256);
+        int scans = bench.intArg("scans", 2_000);
+        int[] scanEntries = bench.intListArg("scan-entries", "16,256,4096");
+        int[] readaheadKb = bench.intListArg("readahead-kb", "0,64,256,2048");
+        long cacheBytes = bench.longArg("cache-mb", 8) * 1024 * 1024;
+
+        Path dir = bench.scratchDir("scan-readahead");
+        try {
+            load(dir, keys, valueBytes);
+            MicrobenchSupport.printCsv(
+                "io", "readahead_kb", "scan_entries", "scans_per_sec", "mb_per_sec", "iter_bytes_read");
+            for (boolean directReads : new boolean[] {true, false}) {
+                for (int kb : readaheadKb) {
+                    for (int entries : scanEntries) {
+                        run(dir, directReads, kb * 1024L, entries, scans, keys, cacheBytes);
+                    }
+                }
+            }
+        } finally {
+            MicrobenchSupport.deleteRecursively(dir);
+        }
+    }
+
+    private static void load(Path dir, long keys, int valueBytes) throws Exception {
+        try (Options options = new Options().setCreateIfMissing(true);
+                RocksDB db = RocksDB.open(options, dir.toString());
+                FlushOptions flush = new FlushOptions().setWaitForFlush(true);
+                CompactRangeOptions compact = new CompactRangeOptions()) {
+            for (long k = 0; k < keys; k++) {
+                db.put(MicrobenchSupport.stateKey(k, 0, NUM_KEY_GROUPS), MicrobenchSupport.value(k, valueBytes));
+            }
+            db.flush(flush);
+            db.compactRange(db.getDefaultColumnFamily(), null, null, compact);
+        }
+    }
+
+    private static void run(
+            Path dir,
+            boolean directReads,
+            long readaheadBytes,
+            int scanEntries,
+            int scans,
+            long keys,
+            long cacheBytes) throws Exception {
+        // a fresh open per run, so no run starts with the blocks of the previous one cached
+        try (Cache cache = new LRUCache(cacheBytes);
+                Statistics statistics = new Statistics();
+                Options options = new Options()
+                    .setStatistics(statistics)
+                    .setUseDirectReads(directReads)
+                    .setTableFormatConfig(new BlockBasedTableConfig().setBlockCache(cache));
+                RocksDB db = RocksDB.openReadOnly(options, dir.toString());
+                ReadOptions readOptions = new ReadOptions().setReadaheadSize(readaheadBytes)) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long began = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                // one iterator per scan, like a Flink state iterator; readahead state starts over each time
+                try (RocksIterator iterator = db.newIterator(readOptions)) {
+                    iterator.seek(MicrobenchSupport.stateKey(random.nextLong(keys), 0, NUM_KEY_GROUPS));
+                    for (int n = 0; n < scanEntries && iterator.isValid(); n++) {
+                        iterator.value();
+                        iterator.next();
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - began) / 1e9;
+            long iterBytes = statistics.getTickerCount(TickerType.ITER_BYTES_READ);
+            MicrobenchSupport.printCsv(
+                directReads ? "direct" : "buffered",
+                readaheadBytes / 1024,
+                scanEntries,
+                scans / seconds,
+                iterBytes / seconds / (1024 * 1024),
+                iterBytes);
+        }
+    }
+}
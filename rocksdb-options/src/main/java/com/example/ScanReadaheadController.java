@@ -0,0 +1,135 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Iterator readahead for one RocksDB instance under direct reads, where the OS page cache no longer reads
+ * ahead. Each period the instance's iterator volume (ITER_BYTES_READ per iterator created) is compared with
+ * its Get volume: an instance whose iterators read long runs, such as window contents fired as a whole,
+ * gets an explicit readahead sized from the bytes per iterator; an instance that mostly serves Gets or
+ * short prefix scans keeps readahead_size=0, where RocksDB only starts prefetching (8 KB, doubling up to
+ * 256 KB) after a few sequential block reads of the same file.
+ *
+ * <p>Flink passes one ReadOptions to every state of an instance, so the readahead is per instance, which
+ * is per operator (and thus per state kind) in most jobs. It changes the ReadOptions Flink got from
+ * {@link CustomRocksDBOptionsFactory#createReadOptions} in place, so iterators created afterwards pick
+ * it up, and is remembered per task for the next instance. Instances whose task is unknown ({@link
+ * RocksDBInstanceHandle#taskKnown}) start at readahead_size=0 and remember nothing.
+ */
+final class ScanReadaheadController implements Runnable, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScanReadaheadController.class);
+
+    // share of the bytes read through iterators above which the instance counts as scan-heavy
+    private static final double SCAN_HEAVY_ITER_BYTES_SHARE = 0.5;
+    // iterators reading less than this on average stay with the implicit readahead
+    private static final long MIN_BYTES_PER_ITERATOR = 64L * 1024;
+    private static final long MAX_READAHEAD_BYTES = 2L * 1024 * 1024;
+    private static final long MIN_ITERATORS_PER_PERIOD = 100L;
+
+    private static final Map<String, Long> LEARNED_READAHEAD = new ConcurrentHashMap<>();
+
+    private final RocksDBInstanceHandle instance;
+    private final Statistics statistics;
+    private final boolean learns;
+    private final List<ReadOptions> readOptions = new CopyOnWriteArrayList<>();
+
+    private volatile long readaheadBytes;
+    private volatile double iterBytesShare;
+    private volatile long bytesPerIterator;
+
+    private long lastIterBytes;
+    private long lastGetBytes;
+    private long lastIterators;
+
+    ScanReadaheadController(RocksDBInstanceHandle instance, Statistics statistics) {
+        this.instance = instance;
+        this.statistics = statistics;
+        this.learns = instance.taskKnown();
+        this.readaheadBytes = learns ? LEARNED_READAHEAD.getOrDefault(instance.taskName(), 0L) : 0L;
+    }
+
+    static Optional<ScanReadaheadController> find(Collection<AutoCloseable> handlesToClose) {
+        return handlesToClose.stream()
+            .filter(ScanReadaheadController.class::isInstance)
+            .map(ScanReadaheadController.class::cast)
+            .findFirst();
+    }
+
+    void addReadOptions(ReadOptions options) {
+        readOptions.add(options);
+        options.setReadaheadSize(readaheadBytes);
+    }
+
+    void registerMetrics(MetricGroup group) {
+        group.gauge("readaheadBytes", (Gauge<Long>) () -> readaheadBytes);
+        group.gauge("iterBytesShare", (Gauge<Double>) () -> iterBytesShare);
+        group.gauge("bytesPerIterator", (Gauge<Long>) () -> bytesPerIterator);
+    }
+
+    @Override
+    public void run() {
+        long iterBytes = statistics.getTickerCount(TickerType.ITER_BYTES_READ);
+        long getBytes = statistics.getTickerCount(TickerType.BYTES_READ);
+        long iterators = statistics.getTickerCount(TickerType.NO_ITERATOR_CREATED);
+        long iterDelta = iterBytes - lastIterBytes;
+        long getDelta = getBytes - lastGetBytes;
+        long iteratorDelta = iterators - lastIterators;
+        lastIterBytes = iterBytes;
+        lastGetBytes = getBytes;
+        lastIterators = iterators;
+        if (iteratorDelta < MIN_ITERATORS_PER_PERIOD) {
+            return;
+        }
+        iterBytesShare = iterDelta + getDelta == 0 ? 0.0 : (double) iterDelta / (iterDelta + getDelta);
+        bytesPerIterator = iterDelta / iteratorDelta;
+        long next = iterBytesShare >= SCAN_HEAVY_ITER_BYTES_SHARE ? readaheadFor(bytesPerIterator) : 0L;
+        if (next != readaheadBytes) {
+            LOG.info(
+                "Iterator readahead of task '{}' (RocksDB instance {}): {} -> {} bytes (iterator bytes share={}, bytes/iterator={})",
+                instance.taskName(),
+                instance.id(),
+                readaheadBytes,
+                next,
+                String.format("%.2f", iterBytesShare),
+                bytesPerIterator);
+            readaheadBytes = next;
+            for (ReadOptions options : readOptions) {
+                options.setReadaheadSize(next);
+            }
+        }
+        if (learns) {
+            LEARNED_READAHEAD.put(instance.taskName(), next);
+        }
+    }
+
+    /** Power of two covering the bytes an iterator reads, 0 (implicit readahead) for short scans. */
+    static long readaheadFor(long bytesPerIterator) {
+        if (bytesPerIterator < MIN_BYTES_PER_ITERATOR) {
+            return 0L;
+        }
+        long readahead = Long.highestOneBit(bytesPerIterator);
+        if (readahead < bytesPerIterator) {
+            readahead <<= 1;
+        }
+        return Math.min(readahead, MAX_READAHEAD_BYTES);
+    }
+
+    @Override
+    public void close() {
+        readOptions.clear();
+    }
+}
@@ -0,0 +1,324 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Online SHARDS (Waldspurger et al., FAST '15) miss-ratio-curve estimator for one block cache.
+ *
+ * <p>Block keys are spatially sampled by hash, and an Olken-style reuse tree over the sampled blocks
+ * yields byte-weighted LRU stack distances, so the curve's x-axis is block cache capacity in bytes.
+ * FIXED_SIZE keeps at most {@code maxSamples} blocks by lowering the sampling threshold as the working
+ * set grows (constant memory); FIXED_RATE keeps the threshold constant. Mirrors the C implementation in
+ * online_mrc/src/mrc/shards.
+ */
+final class ShardsMrcEstimator {
+
+    enum Mode {
+        FIXED_RATE,
+        FIXED_SIZE
+    }
+
+    private static final int MODULUS_BITS = 24;
+    private static final long MODULUS = 1L << MODULUS_BITS;
+
+    private final Mode mode;
+    private final int maxSamples;
+    private final long bucketBytes;
+
+    // histogram[i] counts sampled reuses whose scaled distance falls in ((i) * bucketBytes, (i + 1) * bucketBytes]
+    private final double[] histogram;
+    private double overflow;
+    private double coldMisses;
+
+    private final Map<Long, Sample> samples = new HashMap<>();
+    private final PriorityQueue<Sample> samplesByHash =
+        new PriorityQueue<>((a, b) -> Long.compare(b.spatialHash, a.spatialHash));
+    private final ReuseTree reuseTree = new ReuseTree();
+
+    private long threshold;
+    private long clock;
+    private long totalAccesses;
+    private long sampledAccesses;
+
+    ShardsMrcEstimator(Mode mode, double samplingRate, int maxSamples, long bucketBytes, long maxCacheBytes) {
+        if (samplingRate <= 0.0 || samplingRate > 1.0) {
+            throw new IllegalArgumentException("SHARDS sampling rate must be in (0, 1], got " + samplingRate);
+        }
+        this.mode = mode;
+        this.maxSamples = Math.max(maxSamples, 1);
+        this.bucketBytes = Math.max(bucketBytes, 1L);
+        this.histogram = new double[(int) Math.max(1L, maxCacheBytes / this.bucketBytes)];
+        this.threshold = Math.max(1L, (long) (samplingRate * MODULUS));
+    }
+
+    static long hashKey(byte[] key, int offset, int length) {
+        // FNV-1a followed by the murmur3 finalizer so the low bits used for sampling are well mixed.
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= key[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void recordAccess(long keyHash, long blockSizeBytes) {
+        long spatial = keyHash & (MODULUS - 1);
+        synchronized (this) {
+            totalAccesses++;
+            if (spatial >= threshold) {
+                return;
+            }
+            sampledAccesses++;
+            long now = ++clock;
+            long size = Math.max(blockSizeBytes, 1L);
+            Sample sample = samples.get(keyHash);
+            if (sample == null) {
+                coldMisses += 1.0;
+                sample = new Sample(keyHash, spatial, now);
+                samples.put(keyHash, sample);
+                reuseTree.insert(now, size);
+                if (mode == Mode.FIXED_SIZE) {
+                    samplesByHash.add(sample);
+                    evictWhileOverCapacity();
+                }
+                return;
+            }
+            // bytes of distinct sampled blocks touched since the last access, including this one
+            long sampledDistance = reuseTree.sumAfter(sample.lastAccess) + size;
+            double scaledDistance = sampledDistance * ((double) MODULUS / threshold);
+            int bucket = (int) Math.min((long) Math.ceil(scaledDistance / bucketBytes) - 1, Integer.MAX_VALUE);
+            if (bucket >= histogram.length) {
+                overflow += 1.0;
+            } else {
+                histogram[Math.max(bucket, 0)] += 1.0;
+            }
+            reuseTree.remove(sample.lastAccess);
+            sample.lastAccess = now;
+            reuseTree.insert(now, size);
+        }
+    }
+
+    private void evictWhileOverCapacity() {
+        while (samples.size() > maxSamples) {
+            Sample evicted = samplesByHash.poll();
+            if (evicted == null) {
+                return;
+            }
+            long newThreshold = evicted.spatialHash;
+            samples.remove(evicted.keyHash);
+            reuseTree.remove(evicted.lastAccess);
+            // blocks sharing the evicted spatial hash would no longer be admitted either
+            while (!samplesByHash.isEmpty() && samplesByHash.peek().spatialHash >= newThreshold) {
+                Sample sameHash = samplesByHash.poll();
+                samples.remove(sameHash.keyHash);
+                reuseTree.remove(sameHash.lastAccess);
+            }
+            // everything sampled so far was admitted at the old rate; rescale to the new one
+            double scale = (double) newThreshold / threshold;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] *= scale;
+            }
+            overflow *= scale;
+            coldMisses *= scale;
+            threshold = Math.max(newThreshold, 1L);
+        }
+    }
+
+    synchronized double samplingRate() {
+        return (double) threshold / MODULUS;
+    }
+
+    synchronized long totalAccesses() {
+        return totalAccesses;
+    }
+
+    synchronized long sampledAccesses() {
+        return sampledAccesses;
+    }
+
+    synchronized int trackedSamples() {
+        return samples.size();
+    }
+
+    long bucketBytes() {
+        return bucketBytes;
+    }
+
+    /** Miss ratio an LRU cache of {@code cacheBytes} would see; 1.0 until anything was sampled. */
+    synchronized double missRatio(long cacheBytes) {
+        double[] curve = missRatioCurveLocked();
+        if (cacheBytes <= 0) {
+            return 1.0;
+        }
+        int idx = (int) Math.min(cacheBytes / bucketBytes, curve.length - 1);
+        return curve[idx];
+    }
+
+    /** Entry i is the miss ratio at a capacity of {@code i * bucketBytes}. */
+    synchronized double[] missRatioCurve() {
+        return missRatioCurveLocked();
+    }
+
+    private double[] missRatioCurveLocked() {
+        double[] curve = new double[histogram.length + 1];
+        double sampledTotal = coldMisses + overflow;
+        for (double count : histogram) {
+            sampledTotal += count;
+        }
+        // SHARDS_adj: credit the shortfall between expected and observed samples to the smallest distance
+        double expected = totalAccesses * ((double) threshold / MODULUS);
+        double adjustment = expected - sampledTotal;
+        double total = sampledTotal + adjustment;
+        if (total <= 0.0) {
+            Arrays.fill(curve, 1.0);
+            return curve;
+        }
+        double hits = 0.0;
+        curve[0] = 1.0;
+        for (int i = 0; i < histogram.length; i++) {
+            hits += histogram[i] + (i == 0 ? adjustment : 0.0);
+            curve[i + 1] = clamp(1.0 - hits / total);
+        }
+        return curve;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0.0, Math.min(1.0, value));
+    }
+
+    private static final class Sample {
+        private final long keyHash;
+        // a block stays sampled while its spatial hash is below the threshold
+        private final long spatialHash;
+        private long lastAccess;
+
+        private Sample(long keyHash, long spatialHash, long lastAccess) {
+            this.keyHash = keyHash;
+            this.spatialHash = spatialHash;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /** Treap keyed by last-access time; each node carries the byte sum of its subtree. */
+    private static final class ReuseTree {
+        private Node root;
+
+        private static final class Node {
+            private final long time;
+            private final long size;
+            private final int priority = ThreadLocalRandom.current().nextInt();
+            private long subtreeBytes;
+            private Node left;
+            private Node right;
+
+            private Node(long time, long size) {
+                this.time = time;
+                this.size = size;
+                this.subtreeBytes = size;
+            }
+        }
+
+        void insert(long time, long size) {
+            root = insert(root, new Node(time, size));
+        }
+
+        void remove(long time) {
+            root = remove(root, time);
+        }
+
+        long sumAfter(long time) {
+            long sum = 0;
+            Node node = root;
+            while (node != null) {
+                if (node.time > time) {
+                    sum += node.size + bytes(node.right);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            return sum;
+        }
+
+        private static Node insert(Node node, Node inserted) {
+            if (node == null) {
+                return inserted;
+            }
+            if (inserted.time < node.time) {
+                node.left = insert(node.left, inserted);
+                if (node.left.priority > node.priority) {
+                    node = rotateRight(node);
+                }
+            } else {
+                node.right = insert(node.right, inserted);
+                if (node.right.priority > node.priority) {
+                    node = rotateLeft(node);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        private static Node remove(Node node, long time) {
+            if (node == null) {
+                return null;
+            }
+            if (time < node.time) {
+                node.left = remove(node.left, time);
+            } else if (time > node.time) {
+                node.right = remove(node.right, time);
+            } else {
+                if (node.left == null) {
+                    return node.right;
+                }
+                if (node.right == null) {
+                    return node.left;
+                }
+                if (node.left.priority > node.right.priority) {
+                    node = rotateRight(node);
+                    node.right = remove(node.right, time);
+                } else {
+                    node = rotateLeft(node);
+                    node.left = remove(node.left, time);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        private static Node rotateRight(Node node) {
+            Node pivot = node.left;
+            node.left = pivot.right;
+            pivot.right = node;
+            update(node);
+            update(pivot);
+            return pivot;
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node pivot = node.right;
+            node.right = pivot.left;
+            pivot.left = node;
+            update(node);
+            update(pivot);
+            return pivot;
+        }
+
+        private static void update(Node node) {
+            node.subtreeBytes = node.size + bytes(node.left) + bytes(node.right);
+        }
+
+        private static long bytes(Node node) {
+            return node == null ? 0L : node.subtreeBytes;
+        }
+    }
+}
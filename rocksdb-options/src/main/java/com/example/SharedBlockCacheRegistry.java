@@ -0,0 +1,310 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.Cache;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteBufferManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TaskManager-wide block cache and WriteBufferManager shared by every RocksDB instance in the JVM, so a
+ * hot slot can use cache capacity an idle slot does not need. Each instance holds a {@link Lease} in its
+ * handlesToClose; the native objects are freed when the last lease is closed.
+ *
+ * <p>A shared LRUCache does not know which DB inserted an entry, so per-slot usage is estimated: the
+ * cache's block usage is split by each instance's decayed BLOCK_CACHE_BYTES_WRITE volume. A slot above its
+ * soft quota while the cache is full stops filling the cache from its own reads (fill_cache=false on the
+ * ReadOptions Flink got from us, see {@link RocksDBInstanceHandle#vetoFillCache}) until it drops back below
+ * the quota; its lookups still hit.
+ */
+final class SharedBlockCacheRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedBlockCacheRegistry.class);
+
+    // per accounting period, how much of the previous insert volume still counts as resident
+    private static final double INSERT_VOLUME_RETENTION = 0.9;
+    // the quota only bites once the cache is (almost) full; before that nobody is evicted
+    private static final double CACHE_FULL_FRACTION = 0.95;
+    // re-enable cache fills below this fraction of the quota so the flag does not flap
+    private static final double QUOTA_RELEASE_FRACTION = 0.9;
+    private static final String FILL_CACHE_VETO = "shared block cache quota";
+
+    private static final Object LOCK = new Object();
+    private static SharedPool pool;
+
+    private SharedBlockCacheRegistry() {
+    }
+
+    /**
+     * Returns a lease on the TaskManager-wide cache and WBM, creating them on first use. Later callers get
+     * the existing pool regardless of the sizes they pass.
+     */
+    static Lease acquire(
+            BlockCacheFactory.Implementation implementation,
+            long blockCacheCapacityBytes,
+            int blockCacheShardBits,
+            long estimatedEntryChargeBytes,
+            double highPriorityPoolRatio,
+            long writeBufferManagerCapacityBytes,
+            boolean chargeWriteBuffersToCache) {
+        synchronized (LOCK) {
+            if (pool == null) {
+                pool = new SharedPool(
+                    BlockCacheFactory.create(
+                        implementation,
+                        blockCacheCapacityBytes,
+                        blockCacheShardBits,
+                        estimatedEntryChargeBytes,
+                        highPriorityPoolRatio),
+                    blockCacheCapacityBytes,
+                    writeBufferManagerCapacityBytes,
+                    chargeWriteBuffersToCache);
+                LOG.info(
+                    "Created TaskManager-wide block cache: capacity={} bytes, wbm={} bytes, chargeWbm={}",
+                    blockCacheCapacityBytes,
+                    writeBufferManagerCapacityBytes,
+                    chargeWriteBuffersToCache);
+            } else if (pool.capacityBytes != blockCacheCapacityBytes) {
+                LOG.warn(
+                    "Shared block cache already exists with capacity {} bytes; ignoring requested {} bytes.",
+                    pool.capacityBytes,
+                    blockCacheCapacityBytes);
+            }
+            pool.references++;
+            return new Lease(pool);
+        }
+    }
+
+    private static void release(SharedPool released) {
+        synchronized (LOCK) {
+            if (--released.references > 0) {
+                return;
+            }
+            if (pool == released) {
+                pool = null;
+            }
+        }
+        released.close();
+        LOG.info("Closed TaskManager-wide block cache.");
+    }
+
+    static final class Lease implements AutoCloseable {
+        private final SharedPool pool;
+        private Member member;
+        private boolean closed;
+
+        private Lease(SharedPool pool) {
+            this.pool = pool;
+        }
+
+        static Optional<Lease> find(Collection<AutoCloseable> handlesToClose) {
+            return handlesToClose.stream()
+                .filter(Lease.class::isInstance)
+                .map(Lease.class::cast)
+                .findFirst();
+        }
+
+        Cache cache() {
+            return pool.cache;
+        }
+
+        WriteBufferManager writeBufferManager() {
+            return pool.writeBufferManager;
+        }
+
+        /**
+         * Starts usage accounting for {@code instance}.
+         *
+         * @param slotQuotaBytes soft cap on the estimated cache usage of the instance's slot, or 0 for none
+         */
+        void track(
+                RocksDBInstanceHandle instance,
+                Statistics statistics,
+                long slotQuotaBytes,
+                long accountingPeriodMillis) {
+            // the memtable size of an instance is only a DB property
+            instance.requireDb("Shared block cache accounting");
+            member = new Member(pool, instance, statistics, slotQuotaBytes);
+            pool.members.add(member);
+            member.registerMetrics(instance.metricGroup().addGroup("shared_block_cache"));
+            instance.schedulePeriodically(member::account, accountingPeriodMillis);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (member != null) {
+                pool.members.remove(member);
+            }
+            release(pool);
+        }
+    }
+
+    private static final class SharedPool {
+        private final Cache cache;
+        private final Cache writeBufferChargeCache;
+        private final WriteBufferManager writeBufferManager;
+        private final long capacityBytes;
+        private final boolean chargeWriteBuffersToCache;
+        private final List<Member> members = new CopyOnWriteArrayList<>();
+        private int references;
+
+        // refreshed by the accounting task; gauges never touch the native cache
+        private volatile long usageBytes;
+        private volatile long blockUsageBytes;
+
+        private SharedPool(
+                Cache cache,
+                long capacityBytes,
+                long writeBufferManagerCapacityBytes,
+                boolean chargeWriteBuffersToCache) {
+            this.cache = cache;
+            this.capacityBytes = capacityBytes;
+            this.chargeWriteBuffersToCache = chargeWriteBuffersToCache;
+            this.writeBufferChargeCache = chargeWriteBuffersToCache ? null : new LRUCache(1);
+            this.writeBufferManager = new WriteBufferManager(
+                writeBufferManagerCapacityBytes,
+                chargeWriteBuffersToCache ? cache : writeBufferChargeCache);
+        }
+
+        private void refreshUsage() {
+            long usage = cache.getUsage();
+            long memtableBytes = 0;
+            if (chargeWriteBuffersToCache) {
+                for (Member m : members) {
+                    memtableBytes += m.memtableBytes;
+                }
+            }
+            usageBytes = usage;
+            blockUsageBytes = Math.max(usage - memtableBytes, 0L);
+        }
+
+        private long estimatedUsageBytes(Member member) {
+            return share(member.decayedInsertBytes);
+        }
+
+        private long estimatedSlotUsageBytes(String slotId) {
+            double slotInsertBytes = 0;
+            for (Member m : members) {
+                if (m.slotId.equals(slotId)) {
+                    slotInsertBytes += m.decayedInsertBytes;
+                }
+            }
+            return share(slotInsertBytes);
+        }
+
+        private long share(double insertBytes) {
+            double total = 0;
+            for (Member m : members) {
+                total += m.decayedInsertBytes;
+            }
+            return total <= 0 ? 0L : (long) (blockUsageBytes * (insertBytes / total));
+        }
+
+        private long activeSlots() {
+            return members.stream().map(m -> m.slotId).distinct().count();
+        }
+
+        private void close() {
+            writeBufferManager.close();
+            if (writeBufferChargeCache != null) {
+                writeBufferChargeCache.close();
+            }
+            cache.close();
+        }
+    }
+
+    private static final class Member {
+        private final SharedPool pool;
+        private final RocksDBInstanceHandle instance;
+        private final String slotId;
+        private final Statistics statistics;
+        private final long slotQuotaBytes;
+
+        private long lastInsertBytes;
+        private volatile double decayedInsertBytes;
+        private volatile long memtableBytes;
+        private volatile long slotUsageBytes;
+        private volatile boolean fillCacheDisabled;
+
+        private Member(SharedPool pool, RocksDBInstanceHandle instance, Statistics statistics, long slotQuotaBytes) {
+            this.pool = pool;
+            this.instance = instance;
+            this.slotId = instance.slotId();
+            this.statistics = statistics;
+            this.slotQuotaBytes = slotQuotaBytes;
+        }
+
+        // runs on the shared scheduler thread, one member at a time
+        private void account() {
+            sample();
+            pool.refreshUsage();
+            enforceQuota();
+        }
+
+        private void sample() {
+            long insertBytes = statistics.getTickerCount(TickerType.BLOCK_CACHE_BYTES_WRITE);
+            decayedInsertBytes = decayedInsertBytes * INSERT_VOLUME_RETENTION + (insertBytes - lastInsertBytes);
+            lastInsertBytes = insertBytes;
+            Optional<RocksDB> db = instance.db();
+            if (db.isPresent()) {
+                try {
+                    memtableBytes = db.get().getAggregatedLongProperty("rocksdb.size-all-mem-tables");
+                } catch (Exception e) {
+                    LOG.debug("Unable to read memtable size of RocksDB instance {}.", instance.id(), e);
+                }
+            }
+        }
+
+        private void enforceQuota() {
+            slotUsageBytes = pool.estimatedSlotUsageBytes(slotId);
+            if (slotQuotaBytes <= 0) {
+                return;
+            }
+            boolean cacheFull = pool.usageBytes >= pool.capacityBytes * CACHE_FULL_FRACTION;
+            boolean disable;
+            if (fillCacheDisabled) {
+                disable = cacheFull && slotUsageBytes > slotQuotaBytes * QUOTA_RELEASE_FRACTION;
+            } else {
+                disable = cacheFull && slotUsageBytes > slotQuotaBytes;
+            }
+            if (disable == fillCacheDisabled) {
+                return;
+            }
+            fillCacheDisabled = disable;
+            instance.vetoFillCache(FILL_CACHE_VETO, disable);
+            LOG.info(
+                "Slot {} is {} its shared block cache quota ({} of {} bytes); {} cache fills for RocksDB instance {}.",
+                slotId,
+                disable ? "over" : "back under",
+                slotUsageBytes,
+                slotQuotaBytes,
+                disable ? "disabling" : "re-enabling",
+                instance.id());
+        }
+
+        private void registerMetrics(MetricGroup group) {
+            group.gauge("capacityBytes", (Gauge<Long>) () -> pool.capacityBytes);
+            group.gauge("usageBytes", (Gauge<Long>) () -> pool.usageBytes);
+            group.gauge("sharingInstances", (Gauge<Integer>) pool.members::size);
+            group.gauge("sharingSlots", (Gauge<Long>) pool::activeSlots);
+            group.gauge("instanceEstimatedUsageBytes", (Gauge<Long>) () -> pool.estimatedUsageBytes(this));
+            group.gauge("slotEstimatedUsageBytes", (Gauge<Long>) () -> slotUsageBytes);
+            group.gauge("slotQuotaBytes", (Gauge<Long>) () -> slotQuotaBytes);
+            group.gauge("fillCacheDisabled", (Gauge<Integer>) () -> fillCacheDisabled ? 1 : 0);
+        }
+    }
+}
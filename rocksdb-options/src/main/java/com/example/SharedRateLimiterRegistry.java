@@ -0,0 +1,260 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.RateLimiter;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TaskManager-wide RateLimiter for flush and compaction writes, shared by every RocksDB instance in the
+ * JVM, whose rate follows the foreground. Each instance reports the mean Get latency of the last period
+ * against its own baseline (the lowest recent period mean) and its pending compaction bytes. When any
+ * instance is close to a write stall (pending bytes above the guard, or writes already delayed or
+ * stopped), compaction gets the full rate: a stall costs more than slow reads. Otherwise the rate backs
+ * off multiplicatively while the worst instance's Gets are slower than {@link #LATENCY_TOLERANCE} times
+ * its baseline and grows additively when they are not.
+ *
+ * <p>Flushes go through the limiter at high priority, so they are served ahead of compactions. RocksDB
+ * 6.20 counts the waits on an empty limiter (NUMBER_RATE_LIMITER_DRAINS) but not their length, so the
+ * throttled time is estimated as one refill period per drain, an upper bound.
+ */
+final class SharedRateLimiterRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedRateLimiterRegistry.class);
+
+    private static final long REFILL_PERIOD_MICROS = RateLimiter.DEFAULT_REFILL_PERIOD_MICROS;
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final double DECREASE_FACTOR = 0.7;
+    // additive step, as a share of the maximum rate
+    private static final double INCREASE_STEP = 0.1;
+    // per period, how far the latency baseline drifts up so it can follow a slower workload
+    private static final double BASELINE_DRIFT = 1.02;
+    // fewer Gets than this in a period say nothing about latency
+    private static final long MIN_GETS_PER_PERIOD = 100L;
+
+    private static final Object LOCK = new Object();
+    private static SharedLimiter limiter;
+
+    private SharedRateLimiterRegistry() {
+    }
+
+    /**
+     * Returns a lease on the TaskManager-wide limiter, creating it at the maximum rate on first use. Later
+     * callers get the existing limiter regardless of the rates they pass.
+     */
+    static Lease acquire(long minBytesPerSecond, long maxBytesPerSecond, long stallGuardPendingBytes) {
+        synchronized (LOCK) {
+            if (limiter == null) {
+                limiter = new SharedLimiter(
+                    new RateLimiter(maxBytesPerSecond, REFILL_PERIOD_MICROS, RateLimiter.DEFAULT_FAIRNESS),
+                    minBytesPerSecond,
+                    maxBytesPerSecond,
+                    stallGuardPendingBytes);
+                LOG.info(
+                    "Created TaskManager-wide rate limiter: {}-{} bytes/s, stall guard={} pending bytes",
+                    minBytesPerSecond,
+                    maxBytesPerSecond,
+                    stallGuardPendingBytes);
+            } else if (limiter.maxBytesPerSecond != maxBytesPerSecond) {
+                LOG.warn(
+                    "Shared rate limiter already exists with {} bytes/s; ignoring requested {} bytes/s.",
+                    limiter.maxBytesPerSecond,
+                    maxBytesPerSecond);
+            }
+            limiter.references++;
+            return new Lease(limiter);
+        }
+    }
+
+    private static void release(SharedLimiter released) {
+        synchronized (LOCK) {
+            if (--released.references > 0) {
+                return;
+            }
+            if (limiter == released) {
+                limiter = null;
+            }
+        }
+        released.rateLimiter.close();
+        LOG.info("Closed TaskManager-wide rate limiter.");
+    }
+
+    static final class Lease implements AutoCloseable {
+        private final SharedLimiter limiter;
+        private Member member;
+        private boolean closed;
+
+        private Lease(SharedLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        RateLimiter rateLimiter() {
+            return limiter.rateLimiter;
+        }
+
+        /** Starts reporting {@code instance}'s Get latency and compaction debt to the tuner. */
+        void track(RocksDBInstanceHandle instance, Statistics statistics, long periodMillis) {
+            // pending compaction bytes and the write stall state are DB properties
+            instance.requireDb("Shared rate limiter");
+            member = new Member(limiter, instance, statistics);
+            limiter.members.add(member);
+            member.registerMetrics(instance.metricGroup().addGroup("rate_limiter"));
+            instance.schedulePeriodically(member::poll, periodMillis);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (member != null) {
+                limiter.members.remove(member);
+            }
+            release(limiter);
+        }
+    }
+
+    private static final class SharedLimiter {
+        private final RateLimiter rateLimiter;
+        private final long minBytesPerSecond;
+        private final long maxBytesPerSecond;
+        private final long stallGuardPendingBytes;
+        private final List<Member> members = new CopyOnWriteArrayList<>();
+        private int references;
+
+        private volatile long bytesPerSecond;
+        private volatile long bytesThrough;
+        private volatile boolean stallGuard;
+
+        private SharedLimiter(
+                RateLimiter rateLimiter, long minBytesPerSecond, long maxBytesPerSecond, long stallGuardPendingBytes) {
+            this.rateLimiter = rateLimiter;
+            this.minBytesPerSecond = Math.min(minBytesPerSecond, maxBytesPerSecond);
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            this.stallGuardPendingBytes = stallGuardPendingBytes;
+            this.bytesPerSecond = maxBytesPerSecond;
+        }
+
+        // runs on the shared scheduler thread, once per period (from the first member's poll)
+        private void tune() {
+            boolean nearStall = false;
+            double worstLatencyRatio = Double.NaN;
+            for (Member m : members) {
+                nearStall |= m.nearStall;
+                if (!Double.isNaN(m.latencyRatio)
+                        && (Double.isNaN(worstLatencyRatio) || m.latencyRatio > worstLatencyRatio)) {
+                    worstLatencyRatio = m.latencyRatio;
+                }
+            }
+            long next;
+            if (nearStall) {
+                next = maxBytesPerSecond;
+            } else if (Double.isNaN(worstLatencyRatio)) {
+                // no instance served enough Gets to judge; keep the rate
+                next = bytesPerSecond;
+            } else if (worstLatencyRatio > LATENCY_TOLERANCE) {
+                next = Math.max((long) (bytesPerSecond * DECREASE_FACTOR), minBytesPerSecond);
+            } else {
+                next = Math.min(bytesPerSecond + (long) (maxBytesPerSecond * INCREASE_STEP), maxBytesPerSecond);
+            }
+            if (nearStall != stallGuard) {
+                LOG.info(
+                    "Shared rate limiter {} the write stall guard; rate {} -> {} bytes/s.",
+                    nearStall ? "entered" : "left",
+                    bytesPerSecond,
+                    next);
+            }
+            stallGuard = nearStall;
+            if (next != bytesPerSecond) {
+                rateLimiter.setBytesPerSecond(next);
+                bytesPerSecond = next;
+            }
+            bytesThrough = rateLimiter.getTotalBytesThrough();
+        }
+    }
+
+    private static final class Member {
+        private final SharedLimiter limiter;
+        private final RocksDBInstanceHandle instance;
+        private final Statistics statistics;
+
+        private long lastGetCount;
+        private long lastGetSumMicros;
+        private double baselineGetMicros = Double.NaN;
+        private volatile double getMicros = Double.NaN;
+        private volatile double latencyRatio = Double.NaN;
+        private volatile long pendingCompactionBytes;
+        private volatile boolean nearStall;
+        private volatile long drains;
+
+        private Member(SharedLimiter limiter, RocksDBInstanceHandle instance, Statistics statistics) {
+            this.limiter = limiter;
+            this.instance = instance;
+            this.statistics = statistics;
+        }
+
+        private void poll() {
+            sampleLatency();
+            sampleCompactionDebt();
+            drains = statistics.getTickerCount(TickerType.NUMBER_RATE_LIMITER_DRAINS);
+            if (!limiter.members.isEmpty() && limiter.members.get(0) == this) {
+                limiter.tune();
+            }
+        }
+
+        private void sampleLatency() {
+            HistogramData gets = statistics.getHistogramData(HistogramType.DB_GET);
+            long count = gets.getCount() - lastGetCount;
+            long sumMicros = gets.getSum() - lastGetSumMicros;
+            lastGetCount = gets.getCount();
+            lastGetSumMicros = gets.getSum();
+            if (count < MIN_GETS_PER_PERIOD) {
+                latencyRatio = Double.NaN;
+                return;
+            }
+            double mean = (double) sumMicros / count;
+            baselineGetMicros = Double.isNaN(baselineGetMicros) ? mean : Math.min(baselineGetMicros * BASELINE_DRIFT, mean);
+            getMicros = mean;
+            latencyRatio = mean / Math.max(baselineGetMicros, 1.0);
+        }
+
+        private void sampleCompactionDebt() {
+            RocksDB db = instance.db().orElse(null);
+            if (db == null) {
+                nearStall = false;
+                return;
+            }
+            try {
+                pendingCompactionBytes = db.getAggregatedLongProperty("rocksdb.estimate-pending-compaction-bytes");
+                boolean writesDelayed = db.getLongProperty("rocksdb.actual-delayed-write-rate") > 0
+                    || db.getLongProperty("rocksdb.is-write-stopped") > 0;
+                nearStall = writesDelayed || pendingCompactionBytes >= limiter.stallGuardPendingBytes;
+            } catch (Exception e) {
+                LOG.debug("Unable to read compaction debt of RocksDB instance {}.", instance.id(), e);
+            }
+        }
+
+        private void registerMetrics(MetricGroup group) {
+            group.gauge("bytesPerSecond", (Gauge<Long>) () -> limiter.bytesPerSecond);
+            group.gauge("totalBytesThrough", (Gauge<Long>) () -> limiter.bytesThrough);
+            group.gauge("stallGuard", (Gauge<Integer>) () -> limiter.stallGuard ? 1 : 0);
+            group.gauge("sharingInstances", (Gauge<Integer>) limiter.members::size);
+            group.gauge("drains", (Gauge<Long>) () -> drains);
+            group.gauge("estimatedThrottledMillis", (Gauge<Long>) () -> drains * REFILL_PERIOD_MICROS / 1000);
+            group.gauge("getLatencyMicros", (Gauge<Double>) () -> getMicros);
+            group.gauge("getLatencyRatio", (Gauge<Double>) () -> latencyRatio);
+            group.gauge("pendingCompactionBytes", (Gauge<Long>) () -> pendingCompactionBytes);
+            group.gauge("nearStall", (Gauge<Integer>) () -> nearStall ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example;
+
+import org.apache.flink.contrib.streaming.state.RocksDBOptionsFactory;
+import org.rocksdb.ColumnFamilyOptions;
+
+import java.util.Collection;
+
+/**
+ * Options factory that configures each column family for the Flink state stored in it. Stock Flink only
+ * calls {@link #createColumnOptions(ColumnFamilyOptions, Collection)}, without the state name; our Flink
+ * build calls the three-argument variant instead: {@code RocksDBResourceContainer.getColumnOptions(String)}
+ * looks it up by signature on the configured factory (Flink cannot link against this interface) and
+ * passes the state name, or {@code "default"} for the default column family (see instructions.md).
+ */
+public interface StateAwareRocksDBOptionsFactory extends RocksDBOptionsFactory {
+
+    /**
+     * Like {@link #createColumnOptions(ColumnFamilyOptions, Collection)}, for the column family of
+     * {@code stateName}.
+     */
+    ColumnFamilyOptions createColumnOptions(
+            ColumnFamilyOptions currentOptions,
+            Collection<AutoCloseable> handlesToClose,
+            String stateName);
+}
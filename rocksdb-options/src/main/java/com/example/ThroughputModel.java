@@ -0,0 +1,134 @@
+package com.example;
+
+/**
+ * Predicts the sustainable throughput of one RocksDB-backed operator instance as a function of its block
+ * cache size. Each record costs CPU time plus, for every block cache miss, one direct-IO read:
+ *
+ * <pre>
+ *   time(C)       = cpuNanosPerRecord + blockAccessesPerRecord * missRatio(C) * missLatencyNanos
+ *   throughput(C) = min((1 - compactionCpuShare) / time(C),  diskReadIops / (blockAccessesPerRecord * missRatio(C)))
+ * </pre>
+ *
+ * <p>Throughput is the rate of a saturated (back-pressured) operator thread, as in the memory sweeps, with
+ * misses served synchronously on it; a calibration from an operator that is not saturated only counts
+ * its busy time. "Record" is whatever unit the costs were measured in: input records for offline sweeps,
+ * RocksDB operations for the live estimate.
+ */
+final class ThroughputModel {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    // calibration never attributes less than this to CPU, so noisy latencies cannot make it negative
+    private static final double MIN_CPU_NANOS_PER_RECORD = 100.0;
+    private static final double MAX_COMPACTION_CPU_SHARE = 0.9;
+
+    static final class ServiceCosts {
+        private final double cpuNanosPerRecord;
+        private final double blockAccessesPerRecord;
+        private final double missLatencyNanos;
+        private final double compactionCpuShare;
+        private final double diskReadIops;
+
+        /**
+         * @param compactionCpuShare fraction of the operator's core taken by flushes and compactions
+         * @param diskReadIops read IOPS available to this instance, or 0 for no device limit
+         */
+        ServiceCosts(
+                double cpuNanosPerRecord,
+                double blockAccessesPerRecord,
+                double missLatencyNanos,
+                double compactionCpuShare,
+                double diskReadIops) {
+            this.cpuNanosPerRecord = Math.max(cpuNanosPerRecord, MIN_CPU_NANOS_PER_RECORD);
+            this.blockAccessesPerRecord = Math.max(blockAccessesPerRecord, 0.0);
+            this.missLatencyNanos = Math.max(missLatencyNanos, 0.0);
+            this.compactionCpuShare = Math.min(Math.max(compactionCpuShare, 0.0), MAX_COMPACTION_CPU_SHARE);
+            this.diskReadIops = Math.max(diskReadIops, 0.0);
+        }
+
+        /**
+         * Derives the CPU cost per record from one observed operating point: whatever of the busy time per
+         * record is not spent waiting for misses is CPU.
+         *
+         * @param busyFraction fraction of the observed time the operator thread was busy (neither idle nor
+         *     back-pressured), 1 for a saturated operator
+         */
+        static ServiceCosts calibrate(
+                double observedRecordsPerSecond,
+                double busyFraction,
+                double blockAccessesPerRecord,
+                double observedMissRatio,
+                double missLatencyNanos,
+                double compactionCpuShare,
+                double diskReadIops) {
+            double share = Math.min(Math.max(compactionCpuShare, 0.0), MAX_COMPACTION_CPU_SHARE);
+            double busy = Math.min(Math.max(busyFraction, 0.0), 1.0);
+            double nanosPerRecord =
+                busy * (1 - share) * NANOS_PER_SECOND / Math.max(observedRecordsPerSecond, 1e-9);
+            double cpuNanos =
+                Math.max(nanosPerRecord - blockAccessesPerRecord * observedMissRatio * missLatencyNanos, 0.0);
+            return new ServiceCosts(
+                cpuNanos, blockAccessesPerRecord, missLatencyNanos, compactionCpuShare, diskReadIops);
+        }
+
+        double cpuNanosPerRecord() {
+            return cpuNanosPerRecord;
+        }
+
+        double blockAccessesPerRecord() {
+            return blockAccessesPerRecord;
+        }
+
+        double missLatencyNanos() {
+            return missLatencyNanos;
+        }
+
+        double compactionCpuShare() {
+            return compactionCpuShare;
+        }
+    }
+
+    private final MissRatioCurve mrc;
+    private final ServiceCosts costs;
+
+    ThroughputModel(MissRatioCurve mrc, ServiceCosts costs) {
+        this.mrc = mrc;
+        this.costs = costs;
+    }
+
+    double recordsPerSecond(long cacheBytes) {
+        double missesPerRecord = costs.blockAccessesPerRecord * mrc.missRatio(cacheBytes);
+        double nanosPerRecord = costs.cpuNanosPerRecord + missesPerRecord * costs.missLatencyNanos;
+        double cpuBound = (1 - costs.compactionCpuShare) * NANOS_PER_SECOND / nanosPerRecord;
+        if (costs.diskReadIops <= 0 || missesPerRecord <= 0) {
+            return cpuBound;
+        }
+        return Math.min(cpuBound, costs.diskReadIops / missesPerRecord);
+    }
+
+    /** Throughput with no misses at all: the ceiling more memory can reach. */
+    double cpuBoundRecordsPerSecond() {
+        return (1 - costs.compactionCpuShare) * NANOS_PER_SECOND / costs.cpuNanosPerRecord;
+    }
+
+    /**
+     * Smallest cache size, in multiples of {@code stepBytes} up to {@code maxCacheBytes}, that sustains
+     * {@code targetRecordsPerSecond}; -1 if none does.
+     */
+    long minCacheBytesFor(double targetRecordsPerSecond, long stepBytes, long maxCacheBytes) {
+        long step = Math.max(stepBytes, 1L);
+        for (long bytes = 0; bytes <= maxCacheBytes; bytes += step) {
+            if (recordsPerSecond(bytes) >= targetRecordsPerSecond) {
+                return bytes;
+            }
+        }
+        return -1L;
+    }
+
+    MissRatioCurve mrc() {
+        return mrc;
+    }
+
+    ServiceCosts costs() {
+        return costs;
+    }
+}
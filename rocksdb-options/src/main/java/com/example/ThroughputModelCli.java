@@ -0,0 +1,113 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline front end of {@link ThroughputModel}: reads an online_mrc {@code *-mrc.bin}, prints the predicted
+ * records/sec over a range of block cache sizes as CSV and, with {@code --observed}, the error against
+ * measured sweep points.
+ *
+ * <p>Options: --mrc, --block-bytes (average data block size), --accesses-per-record, --miss-latency-us,
+ * --compaction-share, --disk-iops, then either --cpu-us (CPU time per record) or --calibrate-mb and
+ * --calibrate-rps (one measured operating point), and optionally --max-mb, --step-mb, --target-rps,
+ * --observed (CSV of cache_mb,records_per_sec).
+ */
+public final class ThroughputModelCli {
+
+    private static final long MB = 1024L * 1024;
+
+    private ThroughputModelCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        MicrobenchSupport options = MicrobenchSupport.parseArguments(args);
+        String mrcFile = options.stringArg("mrc", null);
+        if (mrcFile == null) {
+            throw new IllegalArgumentException("--mrc is required");
+        }
+        MissRatioCurve mrc = MissRatioCurve.readOnlineMrc(
+            Paths.get(mrcFile), options.doubleArg("block-bytes", 4096));
+
+        double accessesPerRecord = options.doubleArg("accesses-per-record", 1.0);
+        double missLatencyNanos = options.doubleArg("miss-latency-us", 100) * 1000;
+        double compactionShare = options.doubleArg("compaction-share", 0.0);
+        double diskIops = options.doubleArg("disk-iops", 0.0);
+        ThroughputModel.ServiceCosts costs;
+        if (options.stringArg("calibrate-rps", null) != null) {
+            long calibrationBytes = options.longArg("calibrate-mb", 0) * MB;
+            costs = ThroughputModel.ServiceCosts.calibrate(
+                options.doubleArg("calibrate-rps", 0),
+                // the sweeps run back-pressured
+                1.0,
+                accessesPerRecord,
+                mrc.missRatio(calibrationBytes),
+                missLatencyNanos,
+                compactionShare,
+                diskIops);
+        } else {
+            costs = new ThroughputModel.ServiceCosts(
+                options.doubleArg("cpu-us", 10) * 1000,
+                accessesPerRecord,
+                missLatencyNanos,
+                compactionShare,
+                diskIops);
+        }
+        ThroughputModel model = new ThroughputModel(mrc, costs);
+        System.err.printf(
+            "cpu_ns_per_record=%.1f accesses_per_record=%.3f miss_latency_ns=%.1f compaction_share=%.3f"
+                + " cpu_bound_records_per_sec=%.1f%n",
+            costs.cpuNanosPerRecord(),
+            costs.blockAccessesPerRecord(),
+            costs.missLatencyNanos(),
+            costs.compactionCpuShare(),
+            model.cpuBoundRecordsPerSecond());
+
+        long maxBytes = options.longArg("max-mb", Math.max(mrc.maxCacheBytes() / MB, 1)) * MB;
+        long stepBytes = Math.max(options.longArg("step-mb", Math.max(maxBytes / MB / 64, 1)) * MB, MB);
+        MicrobenchSupport.printCsv("cache_mb", "miss_ratio", "predicted_records_per_sec");
+        for (long bytes = 0; bytes <= maxBytes; bytes += stepBytes) {
+            MicrobenchSupport.printCsv(bytes / MB, mrc.missRatio(bytes), model.recordsPerSecond(bytes));
+        }
+
+        if (options.stringArg("target-rps", null) != null) {
+            double target = options.doubleArg("target-rps", 0);
+            long needed = model.minCacheBytesFor(target, MB, maxBytes);
+            System.err.println(needed < 0
+                ? String.format("target %.1f records/sec is not reachable within %d MB", target, maxBytes / MB)
+                : String.format("target %.1f records/sec needs %d MB of block cache", target, needed / MB));
+        }
+
+        String observed = options.stringArg("observed", null);
+        if (observed != null) {
+            reportObservedError(model, Paths.get(observed));
+        }
+    }
+
+    private static void reportObservedError(ThroughputModel model, Path observed) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(observed));
+        double absoluteRelativeError = 0;
+        int points = 0;
+        System.err.println("cache_mb,observed_records_per_sec,predicted_records_per_sec,relative_error");
+        for (String line : lines) {
+            String[] parts = line.trim().split(",");
+            if (parts.length < 2 || !Character.isDigit(parts[0].trim().charAt(0))) {
+                continue; // header or blank
+            }
+            long cacheMb = Long.parseLong(parts[0].trim());
+            double measured = Double.parseDouble(parts[1].trim());
+            double predicted = model.recordsPerSecond(cacheMb * MB);
+            double error = measured == 0 ? 0 : (predicted - measured) / measured;
+            absoluteRelativeError += Math.abs(error);
+            points++;
+            System.err.printf("%d,%.1f,%.1f,%.4f%n", cacheMb, measured, predicted, error);
+        }
+        if (points > 0) {
+            System.err.printf("mean_absolute_relative_error=%.4f over %d points%n", absoluteRelativeError / points, points);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example;
+
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.runtime.metrics.groups.TaskIOMetricGroup;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import java.util.Optional;
+
+/**
+ * Live {@link ThroughputModel} of one RocksDB instance: every period it calibrates the service costs from
+ * the instance's statistics and evaluates the model on the SHARDS MRC. Throughput is in RocksDB operations
+ * (keys read + written + seeks) per second, which is what the statistics can see.
+ *
+ * <p>Only the busy share of the period (neither idle nor back-pressured, from the task's IO metrics) is
+ * attributed to the operations, so the costs of an operator that is not saturated do not include its
+ * idle time. Periods in which the task was hardly busy keep the previous calibration.
+ */
+final class ThroughputModelMonitor implements Runnable {
+
+    // periods with fewer operations than this keep the previous calibration
+    private static final long MIN_OPERATIONS_PER_PERIOD = 1_000L;
+    private static final double MIN_BUSY_FRACTION = 0.05;
+
+    private final RocksDBInstanceHandle instance;
+    private final ShardsMrcEstimator estimator;
+    private final Statistics statistics;
+    private final long currentCacheBytes;
+    private final double diskReadIops;
+
+    private long lastOperations;
+    private long lastDataAccesses;
+    private long lastDataMisses;
+    private long lastSstReads;
+    private long lastSstReadMicros;
+    private long lastCompactionMicros;
+    private long lastSampleNanos;
+
+    private volatile ThroughputModel model;
+    private volatile double observedOpsPerSecond;
+    private volatile double busyFraction;
+
+    /** @param diskReadIops read IOPS available to this instance, or 0 for no device limit */
+    ThroughputModelMonitor(
+            RocksDBInstanceHandle instance,
+            ShardsMrcEstimator estimator,
+            Statistics statistics,
+            long currentCacheBytes,
+            double diskReadIops) {
+        this.instance = instance;
+        this.estimator = estimator;
+        this.statistics = statistics;
+        this.currentCacheBytes = currentCacheBytes;
+        this.diskReadIops = diskReadIops;
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    void registerMetrics(MetricGroup group, double[] capacityFactors) {
+        group.gauge("observedOpsPerSec", (Gauge<Double>) () -> observedOpsPerSecond);
+        group.gauge("busyFraction", (Gauge<Double>) () -> busyFraction);
+        group.gauge("cpuNanosPerOp", (Gauge<Double>) () -> model == null ? 0.0 : model.costs().cpuNanosPerRecord());
+        group.gauge("blockAccessesPerOp", (Gauge<Double>) () -> model == null ? 0.0 : model.costs().blockAccessesPerRecord());
+        group.gauge("missLatencyNanos", (Gauge<Double>) () -> model == null ? 0.0 : model.costs().missLatencyNanos());
+        group.gauge("compactionCpuShare", (Gauge<Double>) () -> model == null ? 0.0 : model.costs().compactionCpuShare());
+        group.gauge("cpuBoundOpsPerSec", (Gauge<Double>) () -> model == null ? 0.0 : model.cpuBoundRecordsPerSecond());
+        for (double factor : capacityFactors) {
+            long capacityBytes = (long) (currentCacheBytes * factor);
+            group.addGroup("cache_mb", String.valueOf(capacityBytes / (1024 * 1024)))
+                .gauge("predictedOpsPerSec", (Gauge<Double>) () -> predictedOpsPerSecond(capacityBytes));
+        }
+    }
+
+    double predictedOpsPerSecond(long cacheBytes) {
+        ThroughputModel current = model;
+        return current == null ? 0.0 : current.recordsPerSecond(cacheBytes);
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long operations = statistics.getTickerCount(TickerType.NUMBER_KEYS_READ)
+            + statistics.getTickerCount(TickerType.NUMBER_KEYS_WRITTEN)
+            + statistics.getTickerCount(TickerType.NUMBER_DB_SEEK);
+        long dataMisses = statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_MISS);
+        long dataAccesses = statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_HIT) + dataMisses;
+        HistogramData sstReads = statistics.getHistogramData(HistogramType.SST_READ_MICROS);
+        HistogramData compactions = statistics.getHistogramData(HistogramType.COMPACTION_TIME);
+
+        long deltaOperations = operations - lastOperations;
+        long deltaAccesses = dataAccesses - lastDataAccesses;
+        long deltaMisses = dataMisses - lastDataMisses;
+        long deltaSstReads = sstReads.getCount() - lastSstReads;
+        long deltaSstReadMicros = sstReads.getSum() - lastSstReadMicros;
+        long deltaCompactionMicros = compactions.getSum() - lastCompactionMicros;
+        double elapsedSeconds = (now - lastSampleNanos) / 1e9;
+
+        lastOperations = operations;
+        lastDataAccesses = dataAccesses;
+        lastDataMisses = dataMisses;
+        lastSstReads = sstReads.getCount();
+        lastSstReadMicros = sstReads.getSum();
+        lastCompactionMicros = compactions.getSum();
+        lastSampleNanos = now;
+
+        Optional<TaskIOMetricGroup> ioMetrics = instance.taskIoMetrics();
+        if (deltaOperations < MIN_OPERATIONS_PER_PERIOD || elapsedSeconds <= 0 || !ioMetrics.isPresent()) {
+            return;
+        }
+        observedOpsPerSecond = deltaOperations / elapsedSeconds;
+        busyFraction = busyFraction(ioMetrics.get());
+        if (busyFraction < MIN_BUSY_FRACTION) {
+            return;
+        }
+        ThroughputModel.ServiceCosts costs = ThroughputModel.ServiceCosts.calibrate(
+            observedOpsPerSecond,
+            busyFraction,
+            (double) deltaAccesses / deltaOperations,
+            deltaAccesses == 0 ? 0.0 : (double) deltaMisses / deltaAccesses,
+            // SST_READ_MICROS includes compaction reads, which share the device with user misses
+            deltaSstReads == 0 ? 0.0 : deltaSstReadMicros * 1000.0 / deltaSstReads,
+            // COMPACTION_TIME is wall time per job; close to CPU time for the direct-IO, uncontended case
+            deltaCompactionMicros / (elapsedSeconds * 1e6),
+            diskReadIops);
+        model = new ThroughputModel(MissRatioCurve.fromEstimator(estimator), costs);
+    }
+
+    // the IO metrics are rates over Flink's meter window rather than exactly this period
+    private static double busyFraction(TaskIOMetricGroup ioMetrics) {
+        double idle = ioMetrics.getIdleTimeMsPerSecond().getValue() / 1000.0;
+        double backPressured = ioMetrics.getBackPressuredTimeMsPerSecond() / 1000.0;
+        return Math.min(Math.max(1 - idle - backPressured, 0.0), 1.0);
+    }
+}
@@ -8,7 +8,6 @@ import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.CompactionStyle;
 import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
-import org.rocksdb.LRUCache;
 import org.rocksdb.Statistics;
 import org.rocksdb.TableFormatConfig;
 import org.rocksdb.WriteBufferManager;
@@ -20,6 +19,9 @@ public class customjustinoptions implements RocksDBOptionsFactory {
     private static final long BLOCK_CACHE_CAPACITY_BYTES = 610_125_013L;
     private static final int BLOCK_CACHE_NUM_SHARD_BITS = 6;
     private static final double BLOCK_CACHE_HIGH_PRIORITY_POOL_RATIO = 0.1d;
+    private static final BlockCacheFactory.Implementation BLOCK_CACHE_IMPLEMENTATION =
+            BlockCacheFactory.Implementation.LRU;
+    private static final long BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES = 8L * 1024;
 
     private static final long WRITE_BUFFER_MANAGER_CAPACITY_BYTES = 110_450_005L;
 
@@ -34,10 +36,11 @@ public class customjustinoptions implements RocksDBOptionsFactory {
     @Override
     public DBOptions createDBOptions(
             DBOptions currentOptions, Collection<AutoCloseable> handlesToClose) {
-        Cache blockCache = new LRUCache(
+        Cache blockCache = BlockCacheFactory.create(
+                BLOCK_CACHE_IMPLEMENTATION,
                 BLOCK_CACHE_CAPACITY_BYTES,
                 BLOCK_CACHE_NUM_SHARD_BITS,
-                false,
+                BLOCK_CACHE_ESTIMATED_ENTRY_CHARGE_BYTES,
                 BLOCK_CACHE_HIGH_PRIORITY_POOL_RATIO);
         handlesToClose.add(new PrimaryCacheHandle(blockCache));
 
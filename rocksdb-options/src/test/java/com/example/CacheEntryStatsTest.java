@@ -0,0 +1,72 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CacheEntryStatsTest {
+
+    private static final String CF_STATS = String.join("\n",
+        "Uptime(secs): 600.0 total, 600.0 interval",
+        "Block cache LRUCache@0x5581e6a0 capacity: 8.00 MB collections: 1 last_copies: 0 last_secs: 4.2e-05",
+        "Block cache entry stats(count,size,portion): DataBlock(1734,6.50 MB,81.2%) IndexBlock(12,1.00 KB,0.01%) "
+            + "FilterBlock(3,2.00 GB,25%) WriteBuffer(1,0.00 KB,0%) SomethingNew(5,10.00 KB,0.1%) "
+            + "Misc(1,1.00 KB,0%)",
+        "",
+        "** File Read Latency Histogram By Level [default] **");
+
+    @Test
+    void parsesEveryRoleOfTheEntryStatsLine() {
+        CacheEntryStats stats = CacheEntryStats.parseLine(CF_STATS);
+
+        assertEquals(1_734, entries(stats, CacheEntryStats.Role.DATA_BLOCK));
+        assertEquals((long) (6.5 * 1024 * 1024), bytes(stats, CacheEntryStats.Role.DATA_BLOCK));
+        assertEquals(1_024, bytes(stats, CacheEntryStats.Role.INDEX_BLOCK));
+        assertEquals(2L << 30, bytes(stats, CacheEntryStats.Role.FILTER_BLOCK));
+        assertEquals(1, entries(stats, CacheEntryStats.Role.WRITE_BUFFER));
+        assertEquals(0, entries(stats, CacheEntryStats.Role.OTHER_BLOCK));
+        // roles this code does not know count as Misc
+        assertEquals(6, entries(stats, CacheEntryStats.Role.MISC));
+        assertEquals(11 * 1024, bytes(stats, CacheEntryStats.Role.MISC));
+        assertEquals((long) (6.5 * 1024 * 1024) + 1_024 + (2L << 30) + 11 * 1024, stats.totalBytes());
+    }
+
+    @Test
+    void usesTheLastEntryStatsLine() {
+        String twoDumps = "Block cache entry stats(count,size,portion): DataBlock(1,1.00 KB,1%)\n" + CF_STATS;
+        assertEquals(1_734, entries(CacheEntryStats.parseLine(twoDumps), CacheEntryStats.Role.DATA_BLOCK));
+    }
+
+    @Test
+    void returnsNullWithoutAnEntryStatsLine() {
+        assertNull(CacheEntryStats.parseLine("Uptime(secs): 600.0 total, 600.0 interval\n"));
+    }
+
+    @Test
+    void readsTheMapProperty() {
+        CacheEntryStats stats = CacheEntryStats.fromMapProperty(Map.of(
+            "id", "LRUCache@0x5581e6a0",
+            "capacity", "8388608",
+            "count.data-block", "1734",
+            "bytes.data-block", "6815744",
+            "bytes.filter-block", " 2048 ",
+            "bytes.blob-value", "100"));
+
+        assertEquals(1_734, entries(stats, CacheEntryStats.Role.DATA_BLOCK));
+        assertEquals(6_815_744, bytes(stats, CacheEntryStats.Role.DATA_BLOCK));
+        assertEquals(2_048, bytes(stats, CacheEntryStats.Role.FILTER_BLOCK));
+        assertEquals(100, bytes(stats, CacheEntryStats.Role.MISC));
+        assertEquals(6_815_744 + 2_048 + 100, stats.totalBytes());
+    }
+
+    private static long entries(CacheEntryStats stats, CacheEntryStats.Role role) {
+        return stats.entries[role.ordinal()];
+    }
+
+    private static long bytes(CacheEntryStats stats, CacheEntryStats.Role role) {
+        return stats.bytes[role.ordinal()];
+    }
+}
@@ -0,0 +1,61 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterBudgetControllerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void spreadsTheBudgetOverAllKeys() {
+        // 8 Mbit over a million keys: 8.39 bits/key, rounded to half bits
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(MB, 1_000_000);
+        assertEquals(8.5, decision.bitsPerKey(), 1e-9);
+        assertFalse(decision.skipBottomLevel());
+    }
+
+    @Test
+    void capsBitsPerKeyWhenTheBudgetIsAmple() {
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(1024 * MB, 1_000);
+        assertEquals(16.0, decision.bitsPerKey(), 1e-9);
+        assertFalse(decision.skipBottomLevel());
+    }
+
+    @Test
+    void exactlyTheMinimumKeepsTheBottomLevel() {
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(5 * 1_000_000 / 8, 1_000_000);
+        assertEquals(5.0, decision.bitsPerKey(), 1e-9);
+        assertFalse(decision.skipBottomLevel());
+    }
+
+    @Test
+    void dropsBottomLevelFiltersBelowTheMinimum() {
+        // 2 bits/key over all levels are 20 bits/key over the upper tenth, capped at 16
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(2 * 1_000_000 / 8, 1_000_000);
+        assertTrue(decision.skipBottomLevel());
+        assertEquals(16.0, decision.bitsPerKey(), 1e-9);
+
+        // 0.8 bits/key over all levels are 8 over the upper tenth
+        decision = FilterBudgetController.decide(100_000, 1_000_000);
+        assertTrue(decision.skipBottomLevel());
+        assertEquals(8.0, decision.bitsPerKey(), 1e-9);
+    }
+
+    @Test
+    void keepsTheSmallestUsefulFilterWhenEvenTheUpperLevelsAreOverBudget() {
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(1_000, 1_000_000_000);
+        assertTrue(decision.skipBottomLevel());
+        assertEquals(5.0, decision.bitsPerKey(), 1e-9);
+    }
+
+    @Test
+    void toleratesAnEmptyInstance() {
+        FilterBudgetController.Decision decision = FilterBudgetController.decide(MB, 0);
+        assertEquals(16.0, decision.bitsPerKey(), 1e-9);
+        assertFalse(decision.skipBottomLevel());
+    }
+}
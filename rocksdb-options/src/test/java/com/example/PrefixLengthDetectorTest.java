@@ -0,0 +1,137 @@
+package com.example;
+
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link PrefixLengthDetector#detect} on keys laid out the way Flink's RocksDB state backend writes
+ * them: key-group prefix, serialized key, namespace, map user key.
+ */
+class PrefixLengthDetectorTest {
+
+    private static final byte[] VOID_NAMESPACE = {0};
+    private static final long WINDOW_START = 1_700_000_000_000L;
+    private static final long WINDOW_SIZE = 10_000L;
+
+    @Test
+    void valueStateHasNoPrefix() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 4_000; key++) {
+            keys.add(flinkKey(128, key, VOID_NAMESPACE, null));
+        }
+        assertEquals(0, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void mapStateWithManyKeysEndsAtTheKey() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 1_000; key++) {
+            for (long userKey = 0; userKey < 4; userKey++) {
+                keys.add(flinkKey(128, key, VOID_NAMESPACE, userKey));
+            }
+        }
+        // key group + key; the constant namespace byte adds nothing
+        assertEquals(1 + 8, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void mapStateWithFewKeysHasNoPrefix() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 8; key++) {
+            for (long userKey = 0; userKey < 1_000; userKey++) {
+                keys.add(flinkKey(128, key, VOID_NAMESPACE, userKey));
+            }
+        }
+        // the user keys plateau again further on, but that length would cut into them
+        assertEquals(0, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void sparseKeysStopWithinTheKey() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 100; key++) {
+            for (long userKey = 0; userKey < 20; userKey++) {
+                keys.add(flinkKey(128, key * 1_000_003, VOID_NAMESPACE, userKey));
+            }
+        }
+        // the high bytes already tell the keys apart; a prefix of the key still groups each key's entries
+        int length = PrefixLengthDetector.detect(keys);
+        assertTrue(length > 2 && length <= 1 + 8, "length " + length);
+    }
+
+    @Test
+    void keyGroupAloneIsNeverAPrefix() {
+        // parallelism 1: every one of the 128 key groups is in the sample
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 2_000; key++) {
+            for (long userKey = 0; userKey < 2; userKey++) {
+                keys.add(flinkKey(128, key, VOID_NAMESPACE, userKey));
+            }
+        }
+        assertEquals(1 + 8, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void twoByteKeyGroupPrefix() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 1_000; key++) {
+            for (long userKey = 0; userKey < 4; userKey++) {
+                keys.add(flinkKey(1_024, key, VOID_NAMESPACE, userKey));
+            }
+        }
+        assertEquals(2 + 8, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void windowStateStopsBeforeTheNamespace() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 1_000; key++) {
+            for (int window = 0; window < 4; window++) {
+                keys.add(flinkKey(128, key, timeWindow(WINDOW_START + window * WINDOW_SIZE), null));
+            }
+        }
+        assertEquals(1 + 8, PrefixLengthDetector.detect(keys));
+    }
+
+    @Test
+    void windowMapStateStaysWithinTheSeekPrefix() {
+        List<byte[]> keys = new ArrayList<>();
+        for (long key = 0; key < 4; key++) {
+            for (int window = 0; window < 200; window++) {
+                for (long userKey = 0; userKey < 4; userKey++) {
+                    keys.add(flinkKey(128, key, timeWindow(WINDOW_START + window * WINDOW_SIZE), userKey));
+                }
+            }
+        }
+        int length = PrefixLengthDetector.detect(keys);
+        // key group + key + window (start, end) is what Flink seeks to
+        assertTrue(length == 0 || length > 2 && length <= 1 + 8 + 16, "length " + length);
+    }
+
+    private static byte[] flinkKey(int maxParallelism, long key, byte[] namespace, Long userKey) {
+        int keyGroupBytes = maxParallelism > 128 ? 2 : 1;
+        ByteBuffer buffer = ByteBuffer.allocate(keyGroupBytes + 8 + namespace.length + (userKey == null ? 0 : 8));
+        int keyGroup = KeyGroupRangeAssignment.assignToKeyGroup(key, maxParallelism);
+        if (keyGroupBytes == 2) {
+            buffer.putShort((short) keyGroup);
+        } else {
+            buffer.put((byte) keyGroup);
+        }
+        buffer.putLong(key).put(namespace);
+        if (userKey != null) {
+            buffer.putLong(userKey);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] timeWindow(long start) {
+        return ByteBuffer.allocate(16).putLong(start).putLong(start + WINDOW_SIZE).array();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** Parses a RocksDB 6.20 LOG excerpt: one stats dump and a Statistics block between flush chatter. */
+class RocksDBLogParserTest {
+
+    private static final String LOG = String.join("\n",
+        "2024/01/31-11:59:59.000000 7f2c3a7fe700 [db/flush_job.cc:1] [default] flush started",
+        "Uptime(secs): 1.0 total, 1.0 interval",
+        "2024/01/31-12:00:00.000001 7f2c3a7fe700 [db/db_impl/db_impl.cc:1007] ------- DUMPING STATS -------",
+        "2024/01/31-12:00:00.000101 7f2c3a7fe700 [db/db_impl/db_impl.cc:1008] ",
+        "** DB Stats **",
+        "Uptime(secs): 600.0 total, 600.0 interval",
+        "Cumulative writes: 1734K writes, 1734K keys, 1734K commit groups, 1.0 writes per commit group, "
+            + "ingest: 0.12 GB, 0.20 MB/s",
+        "Cumulative stall: 00:01:1.500 H:M:S, 0.3 percent",
+        "",
+        "** Compaction Stats [join-left] **",
+        "Level    Files   Size     Score Read(GB)  Rn(GB) Rnp1(GB) Write(GB) Wnew(GB) Moved(GB) W-Amp Rd(MB/s) "
+            + "Wr(MB/s) Comp(sec) CompMergeCPU(sec) Comp(cnt) Avg(sec) KeyIn KeyDrop",
+        "-----------------------------------------------------------------------------------------------------",
+        "  L0      2/1   12.00 MB   0.5      0.0     0.0      0.0       0.1      0.1       0.0   1.0      0.0     "
+            + "50.0      2.00              1.80        10    0.200       0      0",
+        " Sum      2/0   12.00 MB   0.0      0.0     0.0      0.0       0.1      0.1       0.0   1.0      0.0     "
+            + "50.0      2.00              1.80        10    0.200    1234K     12K",
+        "",
+        "Flush(GB): cumulative 0.123, interval 0.123",
+        "Stalls(count): 0 level0_slowdown, 3 stop for pending_compaction_bytes, interval 0 total count",
+        "Block cache LRUCache@0x5581e6a0 capacity: 8.00 MB collections: 1 last_copies: 0 last_secs: 4.2e-05",
+        "Block cache entry stats(count,size,portion): DataBlock(1734,6.00 MB,84.6%) IndexBlock(12,1.00 KB,0.01%)",
+        "",
+        "** File Read Latency Histogram By Level [join-left] **",
+        "Count: 10 Average: 1.0  StdDev: 0.1",
+        "2024/01/31-12:00:01.000000 7f2c3a7fe700 [db/flush_job.cc:1] [join-left] flush started",
+        "Uptime(secs): 2.0 total, 2.0 interval",
+        "2024/01/31-12:00:02.000000 7f2c3a7fe700 [db/db_impl/db_impl.cc:1010] STATISTICS:",
+        " rocksdb.block.cache.miss COUNT : 42",
+        "rocksdb.db.get.micros P50 : 1.200000 P95 : 3.400000 P99 : 5.000000 P100 : 9.000000 COUNT : 12 SUM : 34",
+        "2024/01/31-12:00:03.000000 7f2c3a7fe700 [db/flush_job.cc:1] [join-left] flush finished");
+
+    @TempDir
+    Path dir;
+
+    private final Map<String, Double> samples = new HashMap<>();
+    private final Set<String> times = new HashSet<>();
+
+    @Test
+    void parsesOneDumpAndSkipsTheChatterAroundIt() throws IOException {
+        assertEquals(1, parse(LOG));
+        // the uptime lines of the flushes before and after the dump are not part of it
+        assertEquals(600.0, samples.get("|db_stats|uptime_secs|total"));
+        assertFalse(samples.containsKey("join-left|cf_stats|uptime_secs|total"));
+        // latency histograms are skipped
+        assertFalse(samples.keySet().stream().anyMatch(key -> key.contains("average")));
+        // dump lines carry the time of the dump, statistics lines that of their own block
+        assertEquals(Set.of("2024-01-31T12:00:00.000001", "2024-01-31T12:00:02.000000"), times);
+    }
+
+    @Test
+    void scalesHumanReadableValues() throws IOException {
+        parse(LOG);
+        assertEquals(1_734_000.0, samples.get("|db_stats|cumulative_writes|writes"));
+        assertEquals(0.12, samples.get("|db_stats|cumulative_writes|ingest_gb"));
+        assertEquals(61.5, samples.get("|db_stats|cumulative_stall|seconds"));
+        assertEquals(0.3, samples.get("|db_stats|cumulative_stall|percent"));
+    }
+
+    @Test
+    void readsCompactionTablesPerColumnFamily() throws IOException {
+        parse(LOG);
+        assertEquals(2.0, samples.get("join-left|compaction_levels|L0|files"));
+        assertEquals(1.0, samples.get("join-left|compaction_levels|L0|files_compacting"));
+        assertEquals(12.0 * 1024 * 1024, samples.get("join-left|compaction_levels|L0|size_bytes"));
+        assertEquals(50.0, samples.get("join-left|compaction_levels|L0|wr_mb_s"));
+        assertEquals(1_234_000.0, samples.get("join-left|compaction_levels|Sum|keyin"));
+        assertEquals(12_000.0, samples.get("join-left|compaction_levels|Sum|keydrop"));
+        assertEquals(0.123, samples.get("join-left|cf_stats|flush_gb|cumulative"));
+        assertEquals(3.0, samples.get("join-left|cf_stats|stalls_count|stop_for_pending_compaction_bytes"));
+    }
+
+    @Test
+    void readsBlockCacheLines() throws IOException {
+        parse(LOG);
+        assertEquals(8.0 * 1024 * 1024, samples.get("join-left|block_cache|LRUCache@0x5581e6a0|capacity_bytes"));
+        assertEquals(4.2e-05, samples.get("join-left|block_cache|LRUCache@0x5581e6a0|last_secs"));
+        assertEquals(6.0 * 1024 * 1024, samples.get("join-left|block_cache|data-block|bytes"));
+        assertEquals(1_734.0, samples.get("join-left|block_cache|data-block|entries"));
+        assertEquals(1_024.0, samples.get("join-left|block_cache|index-block|bytes"));
+        assertEquals(0.0, samples.get("join-left|block_cache|filter-block|entries"));
+    }
+
+    @Test
+    void readsStatisticsBlocks() throws IOException {
+        parse(LOG);
+        assertEquals(42.0, samples.get("|statistics|rocksdb.block.cache.miss|count"));
+        assertEquals(1.2, samples.get("|statistics|rocksdb.db.get.micros|p50"));
+        assertEquals(12.0, samples.get("|statistics|rocksdb.db.get.micros|count"));
+        assertEquals(34.0, samples.get("|statistics|rocksdb.db.get.micros|sum"));
+    }
+
+    @Test
+    void toleratesCrlfAndAMissingFinalNewline() throws IOException {
+        // ends on the last statistics line, without a line break
+        String log = LOG.substring(0, LOG.lastIndexOf('\n')).replace("\n", "\r\n");
+        assertEquals(1, parse(log));
+        assertEquals(1_734_000.0, samples.get("|db_stats|cumulative_writes|writes"));
+        assertEquals(34.0, samples.get("|statistics|rocksdb.db.get.micros|sum"));
+    }
+
+    private long parse(String log) throws IOException {
+        Path file = dir.resolve("LOG");
+        Files.write(file, log.getBytes(StandardCharsets.ISO_8859_1));
+        RocksDBLogParser parser = new RocksDBLogParser((time, instance, columnFamily, section, row, metric, value) -> {
+            times.add(time);
+            samples.put(columnFamily + "|" + section + "|" + row + "|" + metric, value);
+        });
+        return parser.parse(file, "db");
+    }
+}
@@ -0,0 +1,126 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link ShardsMrcEstimator} on traces whose LRU miss ratio curve is known. Hashes passed to
+ * recordAccess directly pick the spatial hash (the low 24 bits) of a block.
+ */
+class ShardsMrcEstimatorTest {
+
+    private static final long SPATIAL_MODULUS = 1L << 24;
+    private static final long BLOCK_BYTES = 4_096;
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void reuseDistancesCountTheBytesOfDistinctBlocksSinceTheLastAccess() {
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(ShardsMrcEstimator.Mode.FIXED_RATE, 1.0, 0, 100, 1_000);
+        estimator.recordAccess(1, 100);
+        estimator.recordAccess(2, 200);
+        estimator.recordAccess(3, 300);
+        // 200 + 300 since, plus itself
+        estimator.recordAccess(1, 100);
+        // 100 since, plus itself
+        estimator.recordAccess(3, 300);
+
+        assertEquals(1.0, estimator.missRatio(399), EPSILON);
+        assertEquals(0.8, estimator.missRatio(400), EPSILON);
+        assertEquals(0.8, estimator.missRatio(599), EPSILON);
+        assertEquals(0.6, estimator.missRatio(600), EPSILON);
+    }
+
+    @Test
+    void cyclicTraceStepsAtTheWorkingSet() {
+        int blocks = 10_000;
+        int rounds = 10;
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(
+            ShardsMrcEstimator.Mode.FIXED_RATE, 0.1, 0, BLOCK_BYTES, 4 * blocks * BLOCK_BYTES);
+        replayCycle(estimator, blocks, rounds);
+
+        long workingSetBytes = blocks * BLOCK_BYTES;
+        assertEquals(blocks * rounds, estimator.totalAccesses());
+        assertTrue(estimator.missRatio((long) (workingSetBytes * 0.8)) > 0.85, "below the working set");
+        // only the cold misses of the first round are left
+        assertTrue(estimator.missRatio((long) (workingSetBytes * 1.2)) < 1.0 / rounds + 0.05, "above the working set");
+    }
+
+    @Test
+    void fixedSizeKeepsTheSampleBoundAndTheStep() {
+        int blocks = 10_000;
+        int rounds = 10;
+        int maxSamples = 512;
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(
+            ShardsMrcEstimator.Mode.FIXED_SIZE, 1.0, maxSamples, BLOCK_BYTES, 4 * blocks * BLOCK_BYTES);
+        replayCycle(estimator, blocks, rounds);
+
+        assertTrue(estimator.trackedSamples() <= maxSamples, "tracked " + estimator.trackedSamples());
+        double rate = estimator.samplingRate();
+        assertTrue(rate > 0.5 * maxSamples / blocks && rate < 2.0 * maxSamples / blocks, "rate " + rate);
+        long workingSetBytes = blocks * BLOCK_BYTES;
+        assertTrue(estimator.missRatio((long) (workingSetBytes * 0.7)) > 0.8, "below the working set");
+        assertTrue(estimator.missRatio((long) (workingSetBytes * 1.3)) < 1.0 / rounds + 0.1, "above the working set");
+    }
+
+    @Test
+    void loweringTheThresholdRescalesEarlierSamples() {
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(ShardsMrcEstimator.Mode.FIXED_SIZE, 1.0, 2, 100, 1_000);
+        estimator.recordAccess(10, 100);
+        estimator.recordAccess(10, 100);
+        estimator.recordAccess(1_000, 100);
+        // third sample: the largest spatial hash is evicted and becomes the threshold
+        estimator.recordAccess(2_000, 100);
+
+        assertEquals(2, estimator.trackedSamples());
+        assertEquals(2_000.0 / SPATIAL_MODULUS, estimator.samplingRate(), EPSILON);
+        // one hit among four accesses, both counted at the old rate and rescaled alike
+        assertEquals(0.75, estimator.missRatio(100), EPSILON);
+    }
+
+    @Test
+    void evictionDropsEveryBlockOfTheEvictedSpatialHash() {
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(ShardsMrcEstimator.Mode.FIXED_SIZE, 1.0, 2, 100, 1_000);
+        long sharedSpatialHash = 100;
+        estimator.recordAccess(5, 100);
+        estimator.recordAccess((1L << 24) | sharedSpatialHash, 100);
+        estimator.recordAccess((2L << 24) | sharedSpatialHash, 100);
+
+        // neither block with spatial hash 100 would be admitted at the new threshold of 100
+        assertEquals(1, estimator.trackedSamples());
+        assertEquals((double) sharedSpatialHash / SPATIAL_MODULUS, estimator.samplingRate(), EPSILON);
+        long sampled = estimator.sampledAccesses();
+        estimator.recordAccess((2L << 24) | sharedSpatialHash, 100);
+        assertEquals(sampled, estimator.sampledAccesses());
+    }
+
+    @Test
+    void shardsAdjCreditsMissingSamplesToTheSmallestDistance() {
+        // sampling rate 1/2: spatial hashes below 2^23 are sampled
+        ShardsMrcEstimator estimator = new ShardsMrcEstimator(ShardsMrcEstimator.Mode.FIXED_RATE, 0.5, 0, 100, 1_000);
+        estimator.recordAccess(1, 100);
+        estimator.recordAccess(1, 100);
+        for (long i = 0; i < 4; i++) {
+            estimator.recordAccess((SPATIAL_MODULUS / 2) + i, 100);
+        }
+
+        // 6 accesses at rate 1/2 should have left 3 samples; the missing one counts as a hit at distance 0
+        assertEquals(2, estimator.sampledAccesses());
+        assertEquals(2.0 / 3, estimator.missRatio(100), EPSILON);
+        // the sampled reuse of 100 bytes, scaled by 1 / rate
+        assertEquals(1.0 / 3, estimator.missRatio(200), EPSILON);
+    }
+
+    private static void replayCycle(ShardsMrcEstimator estimator, int blocks, int rounds) {
+        ByteBuffer key = ByteBuffer.allocate(Long.BYTES);
+        for (int round = 0; round < rounds; round++) {
+            for (long block = 0; block < blocks; block++) {
+                key.putLong(0, block);
+                estimator.recordAccess(ShardsMrcEstimator.hashKey(key.array(), 0, Long.BYTES), BLOCK_BYTES);
+            }
+        }
+    }
+}